@@ -0,0 +1,147 @@
+package com.paralelogram.auth.configuration;
+
+import com.paralelogram.keycloak.client.KeycloakClient;
+import com.paralelogram.keycloak.client.KeycloakClientMetrics;
+import com.paralelogram.keycloak.client.KeycloakClientProperties;
+import com.paralelogram.keycloak.client.KeycloakResilience;
+import com.paralelogram.keycloak.client.KeycloakResilienceProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+public class KeycloakClientConfig {
+
+    @Value("${KEYCLOAK_URI}")
+    private String baseUrl;
+
+    @Value("${KEYCLOAK_REALM}")
+    private String realm;
+
+    @Value("${keycloak.client.pool.max-connections}")
+    private int maxConnections;
+
+    @Value("${keycloak.client.pool.pending-acquire-max-count}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${keycloak.client.pool.pending-acquire-timeout}")
+    private Duration pendingAcquireTimeout;
+
+    @Value("${keycloak.client.pool.max-idle-time}")
+    private Duration maxIdleTime;
+
+    @Value("${keycloak.client.pool.max-life-time}")
+    private Duration maxLifeTime;
+
+    @Value("${keycloak.client.connect-timeout}")
+    private Duration connectTimeout;
+
+    @Value("${keycloak.client.response-timeout}")
+    private Duration responseTimeout;
+
+    @Value("${keycloak.client.metrics.slo}")
+    private List<Duration> serviceLevelObjectives;
+
+    @Value("${keycloak.client.resilience.timeout}")
+    private Duration operationTimeout;
+
+    @Value("${keycloak.client.resilience.failure-rate-threshold}")
+    private float failureRateThreshold;
+
+    @Value("${keycloak.client.resilience.slow-call-rate-threshold}")
+    private float slowCallRateThreshold;
+
+    @Value("${keycloak.client.resilience.slow-call-duration-threshold}")
+    private Duration slowCallDurationThreshold;
+
+    @Value("${keycloak.client.resilience.sliding-window-size}")
+    private int slidingWindowSize;
+
+    @Value("${keycloak.client.resilience.minimum-number-of-calls}")
+    private int minimumNumberOfCalls;
+
+    @Value("${keycloak.client.resilience.wait-duration-in-open-state}")
+    private Duration waitDurationInOpenState;
+
+    @Value("${keycloak.client.resilience.permitted-calls-in-half-open-state}")
+    private int permittedNumberOfCallsInHalfOpenState;
+
+    @Value("${keycloak.client.resilience.max-concurrent-calls}")
+    private int maxConcurrentCalls;
+
+    @Value("${keycloak.client.retry.max-retries}")
+    private int maxRetries;
+
+    @Value("${keycloak.client.retry.initial-backoff}")
+    private Duration retryInitialBackoff;
+
+    @Value("${keycloak.client.retry.max-backoff}")
+    private Duration retryMaxBackoff;
+
+    @Value("${keycloak.client.retry.jitter}")
+    private double retryJitter;
+
+    @Value("${keycloak.client.retry.budget-ratio}")
+    private double retryBudgetRatio;
+
+    @Value("${keycloak.client.retry.budget-min-retries-per-second}")
+    private int retryBudgetMinRetriesPerSecond;
+
+    @Value("${keycloak.client.hedging.enabled}")
+    private boolean hedgingEnabled;
+
+    @Value("${keycloak.client.hedging.percentile}")
+    private double hedgingPercentile;
+
+    @Value("${keycloak.client.hedging.min-delay}")
+    private Duration hedgingMinDelay;
+
+    @Bean
+    public KeycloakClient keycloakClient() {
+        return KeycloakClient.create(KeycloakClientProperties.builder()
+                .baseUrl(baseUrl)
+                .realm(realm)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .connectTimeout(connectTimeout)
+                .responseTimeout(responseTimeout)
+                .build());
+    }
+
+    @Bean
+    public KeycloakResilience keycloakResilience() {
+        return new KeycloakResilience(KeycloakResilienceProperties.builder()
+                .timeout(operationTimeout)
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallRateThreshold(slowCallRateThreshold)
+                .slowCallDurationThreshold(slowCallDurationThreshold)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumNumberOfCalls)
+                .waitDurationInOpenState(waitDurationInOpenState)
+                .permittedNumberOfCallsInHalfOpenState(permittedNumberOfCallsInHalfOpenState)
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxRetries(maxRetries)
+                .retryInitialBackoff(retryInitialBackoff)
+                .retryMaxBackoff(retryMaxBackoff)
+                .retryJitter(retryJitter)
+                .retryBudgetRatio(retryBudgetRatio)
+                .retryBudgetMinRetriesPerSecond(retryBudgetMinRetriesPerSecond)
+                .hedgingEnabled(hedgingEnabled)
+                .hedgingPercentile(hedgingPercentile)
+                .hedgingMinDelay(hedgingMinDelay)
+                .build());
+    }
+
+    @Bean
+    public KeycloakClientMetrics keycloakClientMetrics(MeterRegistry meterRegistry) {
+        return new KeycloakClientMetrics(meterRegistry, serviceLevelObjectives);
+    }
+
+}
@@ -1,5 +1,9 @@
 package com.paralelogram.auth.configuration;
 
+import com.paralelogram.keycloak.client.KeycloakClient;
+import com.paralelogram.keycloak.client.KeycloakJwkSource;
+import com.paralelogram.keycloak.client.KeycloakJwtDecoders;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.convert.converter.Converter;
@@ -11,9 +15,11 @@ import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.web.SecurityFilterChain;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +31,22 @@ import java.util.stream.Stream;
 @EnableMethodSecurity(prePostEnabled = false, jsr250Enabled = true)
 public class OAuth2ResourceServerSecurityConfig {
 
+    @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri}")
+    private String issuerUri;
+
+    @Value("${keycloak.jwks.refresh-interval}")
+    private Duration jwksRefreshInterval;
+
+    @Value("${keycloak.jwks.min-refresh-interval}")
+    private Duration jwksMinRefreshInterval;
+
+    @Value("${keycloak.jwks.cold-start-timeout}")
+    private Duration jwksColdStartTimeout;
+
+    // realm role of the client credentials prometheus scrapes with
+    @Value("${management.prometheus.scrape-role}")
+    private String prometheusScrapeRole;
+
     interface AuthoritiesConverter extends Converter<Map<String, Object>, Collection<GrantedAuthority>> {
     }
 
@@ -40,6 +62,16 @@ public class OAuth2ResourceServerSecurityConfig {
         };
     }
 
+    @Bean
+    public KeycloakJwkSource keycloakJwkSource(KeycloakClient keycloakClient) {
+        return new KeycloakJwkSource(keycloakClient, jwksRefreshInterval, jwksMinRefreshInterval, jwksColdStartTimeout);
+    }
+
+    @Bean
+    public JwtDecoder jwtDecoder(KeycloakJwkSource keycloakJwkSource) {
+        return KeycloakJwtDecoders.fromJwkSource(keycloakJwkSource, issuerUri);
+    }
+
     @Bean
     public JwtAuthenticationConverter jwtAuthenticationConverter(Converter<Map<String, Object>, Collection<GrantedAuthority>> authoritiesConverter) {
         JwtAuthenticationConverter jwtAuthenticationConverter = new JwtAuthenticationConverter();
@@ -60,7 +92,9 @@ public class OAuth2ResourceServerSecurityConfig {
                         authorizeHttpRequests
                                 .requestMatchers(
                                         "/v3/api-docs/**", "/swagger-ui/**",
+                                        "/actuator/health/**",
                                         "/token/generate", "token/refresh").permitAll()
+                                .requestMatchers("/actuator/prometheus").hasRole(prometheusScrapeRole)
                                 .anyRequest().authenticated());
         return http.build();
     }
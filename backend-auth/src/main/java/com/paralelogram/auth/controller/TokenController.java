@@ -11,6 +11,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
 
 @Tag(name = "Token API", description = "")
 @RestController
@@ -21,17 +22,17 @@ public class TokenController {
     private final AuthService authService;
 
     @PostMapping(path = "/generate")
-    public AccessToken generateToken(@RequestBody UserCredentials credentials) {
+    public Mono<AccessToken> generateToken(@RequestBody UserCredentials credentials) {
         return authService.generateUserToken(credentials);
     }
 
     @PostMapping(path = "/refresh")
-    public AccessToken refreshToken(final String refreshToken) {
+    public Mono<AccessToken> refreshToken(final String refreshToken) {
         return authService.refreshUserToken(refreshToken);
     }
 
     @GetMapping(path = "/validate")
-    public TokenStatus validateToken() {
+    public Mono<TokenStatus> validateToken() {
         return authService.validateLoggedInUserToken();
     }
 }
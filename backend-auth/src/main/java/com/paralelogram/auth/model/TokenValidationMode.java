@@ -0,0 +1,15 @@
+package com.paralelogram.auth.model;
+
+public enum TokenValidationMode {
+
+    /**
+     * validate the already decoded jwt (expiry, not-before, issuer, audience) without calling keycloak
+     */
+    LOCAL,
+
+    /**
+     * validate the token against keycloak userinfo endpoint on every call
+     */
+    ONLINE
+
+}
@@ -3,13 +3,14 @@ package com.paralelogram.auth.service;
 import com.paralelogram.auth.model.AccessToken;
 import com.paralelogram.auth.model.TokenStatus;
 import com.paralelogram.auth.model.UserCredentials;
+import reactor.core.publisher.Mono;
 
 public interface AuthService {
 
-    AccessToken generateUserToken(UserCredentials credentials);
+    Mono<AccessToken> generateUserToken(UserCredentials credentials);
 
-    AccessToken refreshUserToken(String refreshToken);
+    Mono<AccessToken> refreshUserToken(String refreshToken);
 
-    TokenStatus validateLoggedInUserToken();
+    Mono<TokenStatus> validateLoggedInUserToken();
 
 }
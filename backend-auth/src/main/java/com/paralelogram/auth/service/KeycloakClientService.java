@@ -1,13 +1,14 @@
 package com.paralelogram.auth.service;
 
 import com.paralelogram.auth.model.keycloak.KeycloakAccessToken;
+import reactor.core.publisher.Mono;
 
 public interface KeycloakClientService {
 
-    KeycloakAccessToken getUserAccessToken(String username, String password);
+    Mono<KeycloakAccessToken> getUserAccessToken(String username, String password);
 
-    KeycloakAccessToken refreshToken(String refreshToken);
+    Mono<KeycloakAccessToken> refreshToken(String refreshToken);
 
-    boolean validateLoggedInUserToken();
+    Mono<Boolean> validateLoggedInUserToken();
 
 }
@@ -1,34 +1,73 @@
 package com.paralelogram.auth.service.impl;
 
+import com.paralelogram.auth.exception.AuthException;
 import com.paralelogram.auth.model.AccessToken;
 import com.paralelogram.auth.model.TokenStatus;
+import com.paralelogram.auth.model.TokenValidationMode;
 import com.paralelogram.auth.model.UserCredentials;
 import com.paralelogram.auth.model.keycloak.KeycloakAccessToken;
 import com.paralelogram.auth.service.AuthService;
 import com.paralelogram.auth.service.KeycloakClientService;
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class AuthServiceImpl implements AuthService {
 
     private final KeycloakClientService keycloakClientService;
+    private final OAuth2TokenValidator<Jwt> loggedInUserTokenValidator;
+    private final TokenValidationMode validationMode;
+
+    public AuthServiceImpl(
+            KeycloakClientService keycloakClientService,
+            OAuth2TokenValidator<Jwt> loggedInUserTokenValidator,
+            @Value("${token.validation.mode}") TokenValidationMode validationMode) {
+        this.keycloakClientService = keycloakClientService;
+        this.loggedInUserTokenValidator = loggedInUserTokenValidator;
+        this.validationMode = validationMode;
+    }
 
     @Override
-    public AccessToken generateUserToken(UserCredentials credentials) {
-        KeycloakAccessToken keycloakAccessToken = keycloakClientService.getUserAccessToken(credentials.getUsername(), credentials.getPassword());
-        return new AccessToken(keycloakAccessToken.getAccessToken(), keycloakAccessToken.getRefreshToken());
+    public Mono<AccessToken> generateUserToken(UserCredentials credentials) {
+        return keycloakClientService.getUserAccessToken(credentials.getUsername(), credentials.getPassword())
+                .map(this::toAccessToken);
     }
 
     @Override
-    public AccessToken refreshUserToken(String refreshToken) {
-        KeycloakAccessToken keycloakAccessToken = keycloakClientService.refreshToken(refreshToken);
-        return new AccessToken(keycloakAccessToken.getAccessToken(), keycloakAccessToken.getRefreshToken());
+    public Mono<AccessToken> refreshUserToken(String refreshToken) {
+        return keycloakClientService.refreshToken(refreshToken)
+                .map(this::toAccessToken);
     }
 
     @Override
-    public TokenStatus validateLoggedInUserToken() {
-        return new TokenStatus(keycloakClientService.validateLoggedInUserToken());
+    public Mono<TokenStatus> validateLoggedInUserToken() {
+        if (TokenValidationMode.ONLINE.equals(validationMode)) {
+            return keycloakClientService.validateLoggedInUserToken()
+                    .map(TokenStatus::new);
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getPrincipal() instanceof Jwt)) {
+            return Mono.error(new AuthException(HttpStatus.UNAUTHORIZED, "user not authenticated", null));
+        }
+        OAuth2TokenValidatorResult result = loggedInUserTokenValidator.validate((Jwt) authentication.getPrincipal());
+        if (result.hasErrors()) {
+            log.debug("token is invalid, errors={}", result.getErrors());
+            return Mono.error(new AuthException(HttpStatus.UNAUTHORIZED, "invalid token", null));
+        }
+        log.debug("token is valid");
+        return Mono.just(new TokenStatus(true));
+    }
+
+    private AccessToken toAccessToken(KeycloakAccessToken keycloakAccessToken) {
+        return new AccessToken(keycloakAccessToken.getAccessToken(), keycloakAccessToken.getRefreshToken());
     }
 }
@@ -4,6 +4,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.paralelogram.auth.exception.AuthException;
 import com.paralelogram.auth.model.keycloak.KeycloakAccessToken;
 import com.paralelogram.auth.service.KeycloakClientService;
+import com.paralelogram.keycloak.client.KeycloakClient;
+import com.paralelogram.keycloak.client.KeycloakClientMetrics;
+import com.paralelogram.keycloak.client.KeycloakResilience;
+import com.paralelogram.keycloak.client.KeycloakUnavailableException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
@@ -14,8 +18,10 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
 
 @Service
 @Slf4j
@@ -31,28 +37,37 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
     private static final String GRANT_TYPE_CLIENT_CREDENTIALS = "client_credentials";
     private static final String GRANT_TYPE_PASSWORD = "password";
     private static final String GRANT_TYPE_REFRESH_TOKEN = "refresh_token";
+    private static final String OPERATION_GET_USER_ACCESS_TOKEN = "getUserAccessToken";
+    private static final String OPERATION_REFRESH_TOKEN = "refreshToken";
+    private static final String OPERATION_VALIDATE_TOKEN = "validateLoggedInUserToken";
 
-    private final String baseUrl;
-    private final String realm;
+    private final KeycloakClient keycloakClient;
+    private final KeycloakResilience keycloakResilience;
+    private final KeycloakClientMetrics keycloakClientMetrics;
     private final String clientId;
     private final String clientSecret;
+    private final SingleFlight<KeycloakAccessToken> refreshTokenCalls;
 
     public KeycloakClientServiceImpl(
-            @Value("${KEYCLOAK_URI}") String baseUrl,
-            @Value("${KEYCLOAK_REALM}") String realm,
+            KeycloakClient keycloakClient,
+            KeycloakResilience keycloakResilience,
+            KeycloakClientMetrics keycloakClientMetrics,
             @Value("${KEYCLOAK_CLIENT_ID}") String clientId,
-            @Value("${KEYCLOAK_CLIENT_SECRET}") String clientSecret) {
-        this.baseUrl = baseUrl;
-        this.realm = realm;
+            @Value("${KEYCLOAK_CLIENT_SECRET}") String clientSecret,
+            @Value("${token.refresh.coalescing-window}") Duration refreshCoalescingWindow) {
+        this.keycloakClient = keycloakClient;
+        this.keycloakResilience = keycloakResilience;
+        this.keycloakClientMetrics = keycloakClientMetrics;
         this.clientId = clientId;
         this.clientSecret = clientSecret;
+        this.refreshTokenCalls = new SingleFlight<>(refreshCoalescingWindow);
     }
 
     @Override
-    public KeycloakAccessToken getUserAccessToken(String username, String password) {
+    public Mono<KeycloakAccessToken> getUserAccessToken(String username, String password) {
         log.info("getting user access token for {}", username);
-        return WebClient.create(baseUrl).post()
-                .uri(baseUrl + "/realms/" + realm + "/protocol/openid-connect/token")
+        return keycloakClient.getWebClient().post()
+                .uri(keycloakClient.getTokenUri())
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED_VALUE)
                 .body(BodyInserters
@@ -71,16 +86,24 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
                     }
                     throw new AuthException(HttpStatus.resolve(response.getStatusCode().value()), "unable to get access token");
                 })
+                // neither retried nor hedged, every password grant keycloak processed opens another user session
+                .transform(call -> keycloakResilience.decorate(OPERATION_GET_USER_ACCESS_TOKEN, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_GET_USER_ACCESS_TOKEN, call))
                 .onErrorMap(WebClientResponseException.class, error ->
                         new AuthException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while getting access token", error))
-                .block();
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new AuthException(error.getStatus(), error.getMessage(), error));
     }
 
     @Override
-    public KeycloakAccessToken refreshToken(String refreshToken) {
+    public Mono<KeycloakAccessToken> refreshToken(String refreshToken) {
+        return refreshTokenCalls.execute(refreshToken, () -> requestRefreshToken(refreshToken));
+    }
+
+    private Mono<KeycloakAccessToken> requestRefreshToken(String refreshToken) {
         log.info("refreshing access token");
-        return WebClient.create(baseUrl).post()
-                .uri(baseUrl + "/realms/" + realm + "/protocol/openid-connect/token")
+        return keycloakClient.getWebClient().post()
+                .uri(keycloakClient.getTokenUri())
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED_VALUE)
                 .body(BodyInserters
@@ -98,18 +121,28 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
                     }
                     throw new AuthException(HttpStatus.resolve(response.getStatusCode().value()), "unable to refresh user token");
                 })
+                .transform(call -> keycloakResilience.decorateHedged(OPERATION_REFRESH_TOKEN, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_REFRESH_TOKEN, call))
                 .onErrorMap(WebClientResponseException.class, error ->
                         new AuthException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while refreshing token", error))
-                .block();
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new AuthException(error.getStatus(), error.getMessage(), error));
     }
 
     @Override
-    public boolean validateLoggedInUserToken() {
-        return WebClient.create(baseUrl).get()
-                .uri(baseUrl + "/realms/" + realm + "/protocol/openid-connect/userinfo")
+    public Mono<Boolean> validateLoggedInUserToken() {
+        // the security context is bound to the request thread, resolve it before going async
+        String bearerToken;
+        try {
+            bearerToken = getLoggedInUserBearerToken();
+        } catch (AuthException e) {
+            return Mono.error(e);
+        }
+        return keycloakClient.getWebClient().get()
+                .uri(keycloakClient.getUserInfoUri())
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED_VALUE)
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + getLoggedInUserBearerToken())
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + bearerToken)
                 .retrieve()
                 .toEntity(JsonNode.class)
                 .map(response -> {
@@ -119,9 +152,12 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
                     }
                     throw new AuthException(HttpStatus.resolve(response.getStatusCode().value()), "invalid token");
                 })
+                .transform(call -> keycloakResilience.decorateIdempotent(OPERATION_VALIDATE_TOKEN, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_VALIDATE_TOKEN, call))
                 .onErrorMap(WebClientResponseException.class, error ->
                         new AuthException(HttpStatus.resolve(error.getStatusCode().value()), "unable to get logged in userinfo", error))
-                .block();
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new AuthException(error.getStatus(), error.getMessage(), error));
     }
 
     private String getLoggedInUserBearerToken() {
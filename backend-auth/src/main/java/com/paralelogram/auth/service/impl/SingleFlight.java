@@ -0,0 +1,82 @@
+package com.paralelogram.auth.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into a single execution.
+ * <p>
+ * Keys are stored as SHA-256 hashes so secrets such as refresh tokens are never kept as map keys.
+ * A successful result is retained for {@code retention} after completion so immediate retries reuse it;
+ * failures are shared with concurrent callers only.
+ */
+@Slf4j
+public class SingleFlight<V> {
+
+    private final ConcurrentMap<String, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final Duration retention;
+
+    public SingleFlight(Duration retention) {
+        this.retention = retention;
+    }
+
+    public Mono<V> execute(String key, Supplier<Mono<V>> supplier) {
+        if (key == null) {
+            return supplier.get();
+        }
+        return Mono.defer(() -> {
+            String hashedKey = hash(key);
+            CompletableFuture<V> call = new CompletableFuture<>();
+            CompletableFuture<V> existing = calls.putIfAbsent(hashedKey, call);
+            if (existing != null) {
+                log.debug("joining in-flight call");
+                return Mono.fromFuture(existing, true);
+            }
+
+            // the shared call is not tied to the first subscriber, cancelling it must not fail the joined callers
+            supplier.get().subscribe(result -> {
+                call.complete(result);
+                evictAfterRetention(hashedKey, call);
+            }, error -> {
+                calls.remove(hashedKey, call);
+                call.completeExceptionally(error);
+            }, () -> {
+                if (!call.isDone()) {
+                    calls.remove(hashedKey, call);
+                    call.completeExceptionally(new IllegalStateException("call completed without result"));
+                }
+            });
+            return Mono.fromFuture(call, true);
+        });
+    }
+
+    private void evictAfterRetention(String hashedKey, CompletableFuture<V> call) {
+        if (retention.isZero() || retention.isNegative()) {
+            calls.remove(hashedKey, call);
+            return;
+        }
+        Schedulers.parallel().schedule(() -> calls.remove(hashedKey, call), retention.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
 
 import java.util.UUID;
 
@@ -28,8 +29,8 @@ public class TokenControllerTest {
         AccessToken expected = AccessToken.builder().accessToken(UUID.randomUUID().toString())
                 .refreshToken(UUID.randomUUID().toString()).build();
         UserCredentials input = UserCredentials.builder().username("user").password("pass").build();
-        Mockito.when(authService.generateUserToken(input)).thenReturn(expected);
-        AccessToken actual = tokenController.generateToken(input);
+        Mockito.when(authService.generateUserToken(input)).thenReturn(Mono.just(expected));
+        AccessToken actual = tokenController.generateToken(input).block();
 
         Mockito.verify(authService, Mockito.times(1)).generateUserToken(input);
 
@@ -42,8 +43,8 @@ public class TokenControllerTest {
         AccessToken expected = AccessToken.builder().accessToken(UUID.randomUUID().toString())
                 .refreshToken(UUID.randomUUID().toString()).build();
         String input = UUID.randomUUID().toString();
-        Mockito.when(authService.refreshUserToken(input)).thenReturn(expected);
-        AccessToken actual = tokenController.refreshToken(input);
+        Mockito.when(authService.refreshUserToken(input)).thenReturn(Mono.just(expected));
+        AccessToken actual = tokenController.refreshToken(input).block();
 
         Mockito.verify(authService, Mockito.times(1)).refreshUserToken(input);
 
@@ -54,8 +55,8 @@ public class TokenControllerTest {
     @Test
     public void givenUserIsLoggedIn_whenValidateToken_thenReturnTokenStatusValidIsTrue() {
         TokenStatus expected = new TokenStatus(true);
-        Mockito.when(authService.validateLoggedInUserToken()).thenReturn(expected);
-        TokenStatus actual = tokenController.validateToken();
+        Mockito.when(authService.validateLoggedInUserToken()).thenReturn(Mono.just(expected));
+        TokenStatus actual = tokenController.validateToken().block();
 
         Mockito.verify(authService, Mockito.times(1)).validateLoggedInUserToken();
         Assertions.assertTrue(actual.isValid());
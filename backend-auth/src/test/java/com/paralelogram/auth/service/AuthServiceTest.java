@@ -3,6 +3,7 @@ package com.paralelogram.auth.service;
 import com.paralelogram.auth.exception.AuthException;
 import com.paralelogram.auth.model.AccessToken;
 import com.paralelogram.auth.model.TokenStatus;
+import com.paralelogram.auth.model.TokenValidationMode;
 import com.paralelogram.auth.model.UserCredentials;
 import com.paralelogram.auth.model.keycloak.KeycloakAccessToken;
 import com.paralelogram.auth.service.impl.AuthServiceImpl;
@@ -15,6 +16,14 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.Jwt;
+import reactor.core.publisher.Mono;
 
 import java.util.UUID;
 
@@ -24,6 +33,9 @@ public class AuthServiceTest {
     @Mock
     private KeycloakClientServiceImpl keycloakClientService;
 
+    @Mock
+    private OAuth2TokenValidator<Jwt> loggedInUserTokenValidator;
+
     @InjectMocks
     private AuthServiceImpl authService;
 
@@ -31,8 +43,8 @@ public class AuthServiceTest {
     public void givenValidUserCredentials_whenGenerateUserToken_thenReturnAccessToken() {
         UserCredentials input = UserCredentials.builder().username("user").password("pass").build();
         KeycloakAccessToken expected = getDefaultMockKeycloakAccessToken();
-        Mockito.when(keycloakClientService.getUserAccessToken(input.getUsername(), input.getPassword())).thenReturn(expected);
-        AccessToken actual = authService.generateUserToken(input);
+        Mockito.when(keycloakClientService.getUserAccessToken(input.getUsername(), input.getPassword())).thenReturn(Mono.just(expected));
+        AccessToken actual = authService.generateUserToken(input).block();
 
         Mockito.verify(keycloakClientService, Mockito.times(1)).getUserAccessToken(input.getUsername(), input.getPassword());
         Assertions.assertEquals(expected.getAccessToken(), actual.getAccessToken());
@@ -43,10 +55,10 @@ public class AuthServiceTest {
     public void givenInvalidUserCredentials_whenGenerateUserToken_thenThrowAuthException() {
         UserCredentials input = UserCredentials.builder().username("").password("").build();
         Mockito.when(keycloakClientService.getUserAccessToken(input.getUsername(), input.getPassword()))
-                .thenThrow(new AuthException(HttpStatus.UNAUTHORIZED, "error"));
+                .thenReturn(Mono.error(new AuthException(HttpStatus.UNAUTHORIZED, "error")));
 
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> authService.generateUserToken(input));
+                () -> authService.generateUserToken(input).block());
 
         Mockito.verify(keycloakClientService, Mockito.times(1)).getUserAccessToken(input.getUsername(), input.getPassword());
         Assertions.assertEquals("error", exception.getMessage());
@@ -56,8 +68,8 @@ public class AuthServiceTest {
     public void givenValidRefreshToken_whenRefreshUserToken_thenReturnAccessToken() {
         String input = UUID.randomUUID().toString();
         KeycloakAccessToken expected = getDefaultMockKeycloakAccessToken();
-        Mockito.when(keycloakClientService.refreshToken(input)).thenReturn(expected);
-        AccessToken actual = authService.refreshUserToken(input);
+        Mockito.when(keycloakClientService.refreshToken(input)).thenReturn(Mono.just(expected));
+        AccessToken actual = authService.refreshUserToken(input).block();
 
         Mockito.verify(keycloakClientService, Mockito.times(1)).refreshToken(input);
         Assertions.assertEquals(expected.getAccessToken(), actual.getAccessToken());
@@ -67,33 +79,83 @@ public class AuthServiceTest {
     @Test
     public void givenInvalidRefreshToken_thenRefreshUserToken_thenThrowAuthException() {
         String input = "invalid";
-        Mockito.when(keycloakClientService.refreshToken(input)).thenThrow(new AuthException(HttpStatus.UNAUTHORIZED, "error"));
+        Mockito.when(keycloakClientService.refreshToken(input)).thenReturn(Mono.error(new AuthException(HttpStatus.UNAUTHORIZED, "error")));
 
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> authService.refreshUserToken(input));
+                () -> authService.refreshUserToken(input).block());
 
         Mockito.verify(keycloakClientService, Mockito.times(1)).refreshToken(input);
         Assertions.assertEquals("error", exception.getMessage());
     }
 
     @Test
-    public void givenUserIsLoggedIn_whenValidateLoggedInUserToken_thenReturnValidTokenStatus() {
-        Mockito.when(keycloakClientService.validateLoggedInUserToken()).thenReturn(true);
+    public void givenUserIsLoggedInAndOnlineMode_whenValidateLoggedInUserToken_thenReturnValidTokenStatus() {
+        authService = new AuthServiceImpl(keycloakClientService, loggedInUserTokenValidator, TokenValidationMode.ONLINE);
+        Mockito.when(keycloakClientService.validateLoggedInUserToken()).thenReturn(Mono.just(true));
 
-        TokenStatus actual = authService.validateLoggedInUserToken();
+        TokenStatus actual = authService.validateLoggedInUserToken().block();
         Mockito.verify(keycloakClientService, Mockito.times(1)).validateLoggedInUserToken();
         Assertions.assertTrue(actual.isValid());
     }
 
     @Test
-    public void givenUserIsNotLoggedIn_whenValidateLoggedInUserToken_thenThrowAuthException() {
-        Mockito.when(keycloakClientService.validateLoggedInUserToken()).thenThrow(new AuthException(HttpStatus.UNAUTHORIZED, "error"));
-        AuthException exception = Assertions.assertThrows(AuthException.class, () -> authService.validateLoggedInUserToken());
+    public void givenUserIsNotLoggedInAndOnlineMode_whenValidateLoggedInUserToken_thenThrowAuthException() {
+        authService = new AuthServiceImpl(keycloakClientService, loggedInUserTokenValidator, TokenValidationMode.ONLINE);
+        Mockito.when(keycloakClientService.validateLoggedInUserToken()).thenReturn(Mono.error(new AuthException(HttpStatus.UNAUTHORIZED, "error")));
+        AuthException exception = Assertions.assertThrows(AuthException.class, () -> authService.validateLoggedInUserToken().block());
 
         Mockito.verify(keycloakClientService, Mockito.times(1)).validateLoggedInUserToken();
         Assertions.assertEquals("error", exception.getMessage());
     }
 
+    @Test
+    public void givenUserIsLoggedInWithValidJwtAndLocalMode_whenValidateLoggedInUserToken_thenReturnValidTokenStatus() {
+        authService = new AuthServiceImpl(keycloakClientService, loggedInUserTokenValidator, TokenValidationMode.LOCAL);
+        Jwt jwt = mockLoggedInUserJwt();
+        Mockito.when(loggedInUserTokenValidator.validate(jwt)).thenReturn(OAuth2TokenValidatorResult.success());
+
+        TokenStatus actual = authService.validateLoggedInUserToken().block();
+
+        Mockito.verify(loggedInUserTokenValidator, Mockito.times(1)).validate(jwt);
+        Mockito.verify(keycloakClientService, Mockito.times(0)).validateLoggedInUserToken();
+        Assertions.assertTrue(actual.isValid());
+    }
+
+    @Test
+    public void givenUserIsLoggedInWithInvalidJwtAndLocalMode_whenValidateLoggedInUserToken_thenThrowAuthException() {
+        authService = new AuthServiceImpl(keycloakClientService, loggedInUserTokenValidator, TokenValidationMode.LOCAL);
+        Jwt jwt = mockLoggedInUserJwt();
+        Mockito.when(loggedInUserTokenValidator.validate(jwt)).thenReturn(OAuth2TokenValidatorResult.failure(new OAuth2Error("invalid_token")));
+
+        AuthException exception = Assertions.assertThrows(AuthException.class, () -> authService.validateLoggedInUserToken().block());
+
+        Mockito.verify(keycloakClientService, Mockito.times(0)).validateLoggedInUserToken();
+        Assertions.assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+        Assertions.assertEquals("invalid token", exception.getMessage());
+    }
+
+    @Test
+    public void givenUserIsNotAuthenticatedAndLocalMode_whenValidateLoggedInUserToken_thenThrowAuthException() {
+        authService = new AuthServiceImpl(keycloakClientService, loggedInUserTokenValidator, TokenValidationMode.LOCAL);
+        SecurityContext securityContext = Mockito.mock(SecurityContext.class);
+        Mockito.when(securityContext.getAuthentication()).thenReturn(null);
+        SecurityContextHolder.setContext(securityContext);
+
+        AuthException exception = Assertions.assertThrows(AuthException.class, () -> authService.validateLoggedInUserToken().block());
+
+        Assertions.assertEquals("user not authenticated", exception.getMessage());
+    }
+
+    private Jwt mockLoggedInUserJwt() {
+        Authentication authentication = Mockito.mock(Authentication.class);
+        SecurityContext securityContext = Mockito.mock(SecurityContext.class);
+        Mockito.when(securityContext.getAuthentication()).thenReturn(authentication);
+        SecurityContextHolder.setContext(securityContext);
+        Jwt jwt = Mockito.mock(Jwt.class);
+        Mockito.when(authentication.getPrincipal()).thenReturn(jwt);
+        return jwt;
+    }
+
     private KeycloakAccessToken getDefaultMockKeycloakAccessToken() {
         return KeycloakAccessToken.builder()
                 .accessToken(UUID.randomUUID().toString()).refreshToken(UUID.randomUUID().toString())
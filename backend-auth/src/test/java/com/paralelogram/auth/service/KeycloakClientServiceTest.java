@@ -7,6 +7,12 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.paralelogram.auth.exception.AuthException;
 import com.paralelogram.auth.model.keycloak.KeycloakAccessToken;
 import com.paralelogram.auth.service.impl.KeycloakClientServiceImpl;
+import com.paralelogram.keycloak.client.KeycloakClient;
+import com.paralelogram.keycloak.client.KeycloakClientMetrics;
+import com.paralelogram.keycloak.client.KeycloakClientProperties;
+import com.paralelogram.keycloak.client.KeycloakResilience;
+import com.paralelogram.keycloak.client.KeycloakResilienceProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.jupiter.api.AfterEach;
@@ -19,6 +25,7 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.boot.test.json.BasicJsonTester;
 import org.springframework.boot.test.json.JsonContent;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
@@ -26,8 +33,15 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.jwt.Jwt;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
@@ -35,6 +49,9 @@ public class KeycloakClientServiceTest {
 
     private KeycloakClientServiceImpl keycloakClientService;
 
+    private KeycloakClient keycloakClient;
+    private KeycloakResilience keycloakResilience;
+    private SimpleMeterRegistry meterRegistry;
     private MockWebServer mockBackEnd;
     private final ObjectMapper om = new ObjectMapper();
     private final BasicJsonTester json = new BasicJsonTester(this.getClass());
@@ -45,13 +62,18 @@ public class KeycloakClientServiceTest {
         mockBackEnd.start();
 
         String baseUrl = String.format("http://localhost:%s", mockBackEnd.getPort());
-        keycloakClientService = new KeycloakClientServiceImpl(baseUrl, "paralelogram", "test_client", "test_secret");
+        keycloakClient = KeycloakClient.create(KeycloakClientProperties.builder().baseUrl(baseUrl).realm("paralelogram").build());
+        meterRegistry = new SimpleMeterRegistry();
+        keycloakResilience = new KeycloakResilience(KeycloakResilienceProperties.builder().timeout(Duration.ofSeconds(1)).build());
+        keycloakClientService = new KeycloakClientServiceImpl(keycloakClient, keycloakResilience,
+                new KeycloakClientMetrics(meterRegistry, List.of()), "test_client", "test_secret", Duration.ofSeconds(2));
 
         MockitoAnnotations.openMocks(this);
     }
 
     @AfterEach
     public void tearDown() throws IOException {
+        keycloakClient.close();
         mockBackEnd.shutdown();
     }
 
@@ -62,7 +84,7 @@ public class KeycloakClientServiceTest {
                 .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .setBody(om.writeValueAsString(expected)));
 
-        KeycloakAccessToken actual = keycloakClientService.getUserAccessToken("user", "pass");
+        KeycloakAccessToken actual = keycloakClientService.getUserAccessToken("user", "pass").block();
 
         RecordedRequest recordedRequest = mockBackEnd.takeRequest();
         JsonNode body = extractBodyKeyValue(recordedRequest);
@@ -85,7 +107,7 @@ public class KeycloakClientServiceTest {
                 .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .setBody(om.writeValueAsString(expected)));
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.getUserAccessToken("user", "pass"));
+                () -> keycloakClientService.getUserAccessToken("user", "pass").block());
         Assertions.assertEquals("error encountered while getting access token", exception.getMessage());
     }
 
@@ -95,10 +117,66 @@ public class KeycloakClientServiceTest {
                 .setResponseCode(204)
                 .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE));
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.getUserAccessToken("user", "pass"));
+                () -> keycloakClientService.getUserAccessToken("user", "pass").block());
         Assertions.assertEquals("unable to get access token", exception.getMessage());
     }
 
+    @Test
+    public void givenTransientKeycloakError_whenGetUserAccessToken_thenThrowWithoutRetrying() throws Exception {
+        KeycloakAccessToken expected = getDefaultMockKeycloakAccessToken();
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(503));
+        mockBackEnd.enqueue(new MockResponse()
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(om.writeValueAsString(expected)));
+
+        AuthException exception = Assertions.assertThrows(AuthException.class,
+                () -> keycloakClientService.getUserAccessToken("user", "pass").block());
+
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        Assertions.assertEquals(1, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenUsernameAndPassword_whenGetUserAccessToken_thenRecordTimerByOutcome() throws Exception {
+        mockBackEnd.enqueue(new MockResponse()
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(om.writeValueAsString(getDefaultMockKeycloakAccessToken())));
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(401));
+
+        keycloakClientService.getUserAccessToken("user", "pass").block();
+        Assertions.assertThrows(AuthException.class, () -> keycloakClientService.getUserAccessToken("user", "pass").block());
+
+        Assertions.assertEquals(1, meterRegistry.get(KeycloakClientMetrics.REQUESTS)
+                .tags("operation", "getUserAccessToken", "outcome", "success").timer().count());
+        Assertions.assertEquals(1, meterRegistry.get(KeycloakClientMetrics.REQUESTS)
+                .tags("operation", "getUserAccessToken", "outcome", "client_error").timer().count());
+        Assertions.assertEquals(0, meterRegistry.get(KeycloakClientMetrics.REQUESTS_ACTIVE)
+                .tag("operation", "getUserAccessToken").gauge().value());
+    }
+
+    @Test
+    public void givenOpenCircuitBreaker_whenGetUserAccessToken_thenFailFastWithServiceUnavailable() {
+        keycloakResilience.getCircuitBreakerRegistry().circuitBreaker("getUserAccessToken").transitionToOpenState();
+
+        AuthException exception = Assertions.assertThrows(AuthException.class,
+                () -> keycloakClientService.getUserAccessToken("user", "pass").block());
+
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        Assertions.assertEquals(0, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenSlowKeycloak_whenGetUserAccessToken_thenThrowGatewayTimeout() {
+        mockBackEnd.enqueue(new MockResponse()
+                .setHeadersDelay(3, TimeUnit.SECONDS)
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE));
+
+        AuthException exception = Assertions.assertThrows(AuthException.class,
+                () -> keycloakClientService.getUserAccessToken("user", "pass").block());
+
+        Assertions.assertEquals(HttpStatus.GATEWAY_TIMEOUT, exception.getStatus());
+    }
+
     @Test
     public void givenValidRefreshToken_whenRefreshToken_thenReturnKeycloakAccessToken() throws Exception {
         KeycloakAccessToken expected = getDefaultMockKeycloakAccessToken();
@@ -107,7 +185,7 @@ public class KeycloakClientServiceTest {
                 .setBody(om.writeValueAsString(expected)));
 
         String input = UUID.randomUUID().toString();
-        KeycloakAccessToken actual = keycloakClientService.refreshToken(input);
+        KeycloakAccessToken actual = keycloakClientService.refreshToken(input).block();
 
         RecordedRequest recordedRequest = mockBackEnd.takeRequest();
         JsonNode body = extractBodyKeyValue(recordedRequest);
@@ -130,7 +208,7 @@ public class KeycloakClientServiceTest {
                 .setBody(om.writeValueAsString(expected)));
 
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.refreshToken("invalid"));
+                () -> keycloakClientService.refreshToken("invalid").block());
         Assertions.assertEquals("error encountered while refreshing token", exception.getMessage());
     }
 
@@ -142,10 +220,64 @@ public class KeycloakClientServiceTest {
 
         String input = UUID.randomUUID().toString();
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.refreshToken(input));
+                () -> keycloakClientService.refreshToken(input).block());
         Assertions.assertEquals("unable to refresh user token", exception.getMessage());
     }
 
+    @Test
+    public void givenConcurrentIdenticalRefreshTokens_whenRefreshToken_thenShareSingleKeycloakCall() throws Exception {
+        KeycloakAccessToken expected = getDefaultMockKeycloakAccessToken();
+        mockBackEnd.enqueue(new MockResponse()
+                .setHeadersDelay(300, TimeUnit.MILLISECONDS)
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(om.writeValueAsString(expected)));
+
+        String input = UUID.randomUUID().toString();
+        int callers = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<KeycloakAccessToken>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(executor.submit(() -> keycloakClientService.refreshToken(input).block()));
+        }
+        for (Future<KeycloakAccessToken> result : results) {
+            Assertions.assertEquals(expected.getAccessToken(), result.get().getAccessToken());
+        }
+        executor.shutdown();
+
+        Assertions.assertEquals(1, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenRetryWithinCoalescingWindow_whenRefreshToken_thenReuseCompletedResult() throws Exception {
+        KeycloakAccessToken expected = getDefaultMockKeycloakAccessToken();
+        mockBackEnd.enqueue(new MockResponse()
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(om.writeValueAsString(expected)));
+
+        String input = UUID.randomUUID().toString();
+        KeycloakAccessToken first = keycloakClientService.refreshToken(input).block();
+        KeycloakAccessToken retry = keycloakClientService.refreshToken(input).block();
+
+        Assertions.assertEquals(1, mockBackEnd.getRequestCount());
+        Assertions.assertEquals(first.getAccessToken(), retry.getAccessToken());
+    }
+
+    @Test
+    public void givenFailedRefresh_whenRefreshTokenAgain_thenCallKeycloakAgain() throws Exception {
+        KeycloakAccessToken expected = getDefaultMockKeycloakAccessToken();
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(500));
+        mockBackEnd.enqueue(new MockResponse()
+                .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .setBody(om.writeValueAsString(expected)));
+
+        String input = UUID.randomUUID().toString();
+        Assertions.assertThrows(AuthException.class, () -> keycloakClientService.refreshToken(input).block());
+        KeycloakAccessToken actual = keycloakClientService.refreshToken(input).block();
+
+        Assertions.assertEquals(2, mockBackEnd.getRequestCount());
+        Assertions.assertEquals(expected.getAccessToken(), actual.getAccessToken());
+    }
+
     @Test
     public void givenUserIsAuthenticatedAndWithPrincipal_whenValidateLoggedInUserToken_thenReturnTrue() throws Exception {
         Authentication authentication = Mockito.mock(Authentication.class);
@@ -161,7 +293,7 @@ public class KeycloakClientServiceTest {
                 .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .setBody(om.writeValueAsString(JsonNodeFactory.instance.objectNode())));
 
-        boolean actual = keycloakClientService.validateLoggedInUserToken();
+        boolean actual = keycloakClientService.validateLoggedInUserToken().block();
 
         RecordedRequest recordedRequest = mockBackEnd.takeRequest();
 
@@ -187,7 +319,7 @@ public class KeycloakClientServiceTest {
                 .setBody(om.writeValueAsString(JsonNodeFactory.instance.objectNode())));
 
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.validateLoggedInUserToken());
+                () -> keycloakClientService.validateLoggedInUserToken().block());
 
         Assertions.assertEquals("unable to get logged in userinfo", exception.getMessage());
     }
@@ -206,7 +338,7 @@ public class KeycloakClientServiceTest {
                 .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE));
 
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.validateLoggedInUserToken());
+                () -> keycloakClientService.validateLoggedInUserToken().block());
 
         Assertions.assertEquals("invalid token", exception.getMessage());
     }
@@ -220,7 +352,7 @@ public class KeycloakClientServiceTest {
         Mockito.when(SecurityContextHolder.getContext().getAuthentication().getPrincipal()).thenReturn(null);
 
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.validateLoggedInUserToken());
+                () -> keycloakClientService.validateLoggedInUserToken().block());
         Assertions.assertEquals("user not authenticated", exception.getMessage());
     }
 
@@ -231,7 +363,7 @@ public class KeycloakClientServiceTest {
         SecurityContextHolder.setContext(securityContext);
 
         AuthException exception = Assertions.assertThrows(AuthException.class,
-                () -> keycloakClientService.validateLoggedInUserToken());
+                () -> keycloakClientService.validateLoggedInUserToken().block());
         Assertions.assertEquals("user not authenticated", exception.getMessage());
     }
 
@@ -0,0 +1,107 @@
+package com.paralelogram.user.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts the maximum size of one Hikari pool between its {@code minimumIdle} and {@code ceiling}.
+ * <p>
+ * Every {@link #adjust()} looks at the connection acquire and statement times recorded since the previous one.
+ * Statement time, recorded by {@link StatementTimingDataSource}, is the database side latency: when it is above
+ * {@code statementThreshold} postgres is already struggling and more connections would only queue there, so the
+ * pool shrinks by a quarter. How long connections are held is not a signal, an export streaming for minutes
+ * holds its connection without loading postgres. Otherwise, when callers waited longer than {@code acquireWaitThreshold} for a
+ * connection or are still waiting, the pool grows by one. A pool with neither waits nor pressure drifts back
+ * to its configured size one connection at a time.
+ * <p>
+ * The ceiling is never exceeded, the sum of the ceilings of every instance must stay below postgres
+ * {@code max_connections}.
+ */
+@Slf4j
+public class AdaptivePoolSizer {
+
+    private static final String ACQUIRE_TIMER = "hikaricp.connections.acquire";
+
+    private final HikariDataSource dataSource;
+    private final MeterRegistry meterRegistry;
+    private final int floor;
+    private final int initialSize;
+    private final int ceiling;
+    private final long acquireWaitThresholdNanos;
+    private final long statementThresholdNanos;
+
+    private Sample lastAcquire = Sample.EMPTY;
+    private Sample lastStatement = Sample.EMPTY;
+
+    public AdaptivePoolSizer(HikariDataSource dataSource, MeterRegistry meterRegistry, int ceiling,
+                             Duration acquireWaitThreshold, Duration statementThreshold) {
+        if (dataSource.getMaximumPoolSize() > ceiling) {
+            throw new IllegalArgumentException("maximum pool size " + dataSource.getMaximumPoolSize() + " of pool "
+                    + dataSource.getPoolName() + " exceeds its ceiling " + ceiling);
+        }
+        this.dataSource = dataSource;
+        this.meterRegistry = meterRegistry;
+        this.floor = Math.max(1, dataSource.getMinimumIdle());
+        this.initialSize = dataSource.getMaximumPoolSize();
+        this.ceiling = ceiling;
+        this.acquireWaitThresholdNanos = acquireWaitThreshold.toNanos();
+        this.statementThresholdNanos = statementThreshold.toNanos();
+    }
+
+    public synchronized void adjust() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) {
+            // the pool starts with the first connection request
+            return;
+        }
+        Sample acquire = sample(ACQUIRE_TIMER);
+        Sample statement = sample(StatementTimingDataSource.STATEMENT_TIMER);
+        long meanAcquireNanos = acquire.meanSince(lastAcquire);
+        long meanStatementNanos = statement.meanSince(lastStatement);
+        lastAcquire = acquire;
+        lastStatement = statement;
+
+        int size = dataSource.getHikariConfigMXBean().getMaximumPoolSize();
+        int waiting = pool.getThreadsAwaitingConnection();
+        int target;
+        if (meanStatementNanos > statementThresholdNanos) {
+            target = Math.max(floor, size - Math.max(1, size / 4));
+        } else if (meanAcquireNanos > acquireWaitThresholdNanos || waiting > 0) {
+            target = Math.min(ceiling, size + 1);
+        } else if (size > initialSize && pool.getActiveConnections() < size / 2) {
+            target = size - 1;
+        } else {
+            target = size;
+        }
+
+        if (target != size) {
+            log.info("resizing pool {} from {} to {} connections, mean acquire={}ms mean statement={}ms waiting={}",
+                    dataSource.getPoolName(), size, target, TimeUnit.NANOSECONDS.toMillis(meanAcquireNanos),
+                    TimeUnit.NANOSECONDS.toMillis(meanStatementNanos), waiting);
+            dataSource.getHikariConfigMXBean().setMaximumPoolSize(target);
+        }
+    }
+
+    private Sample sample(String name) {
+        Timer timer = meterRegistry.find(name).tag("pool", dataSource.getPoolName()).timer();
+        return timer == null ? Sample.EMPTY : new Sample(timer.count(), (long) timer.totalTime(TimeUnit.NANOSECONDS));
+    }
+
+    private record Sample(long count, long totalNanos) {
+
+        static final Sample EMPTY = new Sample(0, 0);
+
+        long meanSince(Sample previous) {
+            long count = this.count - previous.count;
+            return count <= 0 ? 0 : (totalNanos - previous.totalNanos) / count;
+        }
+
+    }
+
+}
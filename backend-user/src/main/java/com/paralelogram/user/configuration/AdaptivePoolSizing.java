@@ -0,0 +1,69 @@
+package com.paralelogram.user.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an {@link AdaptivePoolSizer} for the primary pool and, when configured, the replica pool every
+ * {@code interval} once the application is ready.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.datasource.pool-sizing.enabled", havingValue = "true")
+public class AdaptivePoolSizing {
+
+    private final List<AdaptivePoolSizer> sizers = new ArrayList<>();
+    private final Duration interval;
+    private Disposable scheduledAdjust;
+
+    public AdaptivePoolSizing(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                              @Qualifier("replicaDataSource") ObjectProvider<HikariDataSource> replicaDataSource,
+                              MeterRegistry meterRegistry,
+                              @Value("${spring.datasource.pool-sizing.interval}") Duration interval,
+                              @Value("${spring.datasource.pool-sizing.ceiling}") int ceiling,
+                              @Value("${spring.datasource.pool-sizing.replica-ceiling}") int replicaCeiling,
+                              @Value("${spring.datasource.pool-sizing.acquire-wait-threshold}") Duration acquireWaitThreshold,
+                              @Value("${spring.datasource.pool-sizing.statement-threshold}") Duration statementThreshold) {
+        this.interval = interval;
+        sizers.add(new AdaptivePoolSizer(primaryDataSource, meterRegistry, ceiling, acquireWaitThreshold, statementThreshold));
+        replicaDataSource.ifAvailable(replica ->
+                sizers.add(new AdaptivePoolSizer(replica, meterRegistry, replicaCeiling, acquireWaitThreshold, statementThreshold)));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduledAdjust = Schedulers.boundedElastic().schedulePeriodically(() -> {
+            for (AdaptivePoolSizer sizer : sizers) {
+                try {
+                    sizer.adjust();
+                } catch (RuntimeException e) {
+                    log.warn("unable to adjust connection pool size: {}", e.getMessage());
+                }
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduledAdjust != null) {
+            scheduledAdjust.dispose();
+        }
+    }
+
+}
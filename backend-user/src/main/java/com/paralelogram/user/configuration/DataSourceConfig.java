@@ -1,13 +1,30 @@
 package com.paralelogram.user.configuration;
 
 import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 
 import javax.sql.DataSource;
 
+/**
+ * Connection pools of the primary and, when {@code spring.datasource.replica.hosts} is set, of its read
+ * replicas.
+ * <p>
+ * The application data source only borrows a connection at the first statement of a transaction, by which
+ * time it knows whether the transaction is read-only. Read-only transactions, such as lookups, listings and
+ * exports, then go to the replicas and everything else to the primary, see {@link ReplicaRoutingDataSource}.
+ * <p>
+ * Both pools publish their {@code hikaricp_connections_*} metrics and the statement times of
+ * {@link StatementTimingDataSource} tagged by {@code pool}, and are resized at runtime by {@link AdaptivePoolSizing}.
+ */
 @Configuration
 public class DataSourceConfig {
 
@@ -35,14 +52,58 @@ public class DataSourceConfig {
     @Value("${spring.datasource.hikari.minimum-idle}")
     private int minimumIdle;
 
+    @Value("${spring.datasource.replica.hosts}")
+    private String replicaHosts;
+
+    @Value("${spring.datasource.replica.hikari.maximum-pool-size}")
+    private int replicaMaximumPoolSize;
+
+    @Value("${spring.datasource.replica.hikari.minimum-idle}")
+    private int replicaMinimumIdle;
+
+    @Bean
+    public HikariDataSource primaryDataSource(MeterRegistry meterRegistry) {
+        HikariDataSource dataSource = createPool("primary", pgHost + ":" + pgPort, "", meterRegistry);
+        dataSource.setMaximumPoolSize(maximumPoolSize);
+        dataSource.setMinimumIdle(minimumIdle);
+        return dataSource;
+    }
+
     @Bean
-    public DataSource getDataSource() {
+    @ConditionalOnExpression("!'${spring.datasource.replica.hosts}'.isBlank()")
+    public HikariDataSource replicaDataSource(MeterRegistry meterRegistry) {
+        // spreads connections over every replica and only falls back to a primary listed among the hosts
+        HikariDataSource dataSource = createPool("replica", replicaHosts,
+                "&targetServerType=preferSecondary&loadBalanceHosts=true", meterRegistry);
+        dataSource.setMaximumPoolSize(replicaMaximumPoolSize);
+        dataSource.setMinimumIdle(replicaMinimumIdle);
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource getDataSource(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                                    @Qualifier("replicaDataSource") ObjectProvider<HikariDataSource> replicaDataSource,
+                                    ReadYourWrites readYourWrites,
+                                    MeterRegistry meterRegistry) {
+        DataSource primary = new StatementTimingDataSource(primaryDataSource, meterRegistry);
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primary);
+        replicaDataSource.ifAvailable(replica -> dataSource.setReadOnlyDataSource(new ReplicaRoutingDataSource(primary,
+                new StatementTimingDataSource(replica, meterRegistry), readYourWrites)));
+        return dataSource;
+    }
+
+    private HikariDataSource createPool(String poolName, String hosts, String parameters, MeterRegistry meterRegistry) {
         HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class).build();
-        dataSource.setJdbcUrl("jdbc:postgresql://" + pgHost + ":" + pgPort + "/" + pgDatabase + "?currentSchema=" + pgSchema);
+        dataSource.setPoolName(poolName);
+        // reWriteBatchedInserts turns each JDBC insert batch into multi-row inserts
+        dataSource.setJdbcUrl("jdbc:postgresql://" + hosts + "/" + pgDatabase + "?currentSchema=" + pgSchema
+                + "&reWriteBatchedInserts=true" + parameters);
         dataSource.setUsername(pgUsername);
         dataSource.setPassword(pgPassword);
-        dataSource.setMaximumPoolSize(maximumPoolSize);
-        dataSource.setMinimumIdle(minimumIdle);
+        // must be set before the pool starts, hikari seals its configuration afterwards
+        dataSource.setMetricRegistry(meterRegistry);
         return dataSource;
     }
 
@@ -0,0 +1,66 @@
+package com.paralelogram.user.configuration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+
+import java.time.Duration;
+
+/**
+ * Remembers the callers that committed a write within the last {@code window}, so their read-only
+ * transactions stay on the primary until the replicas have caught up.
+ * <p>
+ * Callers are identified by the name of their authentication. Work running without one, such as the
+ * scheduled role refresh, is never pinned to the primary.
+ */
+@Component
+public class ReadYourWrites implements TransactionExecutionListener {
+
+    private static final long MAXIMUM_CALLERS = 100_000;
+
+    private final Cache<String, Boolean> recentWriters;
+
+    @Autowired
+    public ReadYourWrites(@Value("${spring.datasource.replica.read-your-writes-window}") Duration window) {
+        this(window, Ticker.systemTicker());
+    }
+
+    public ReadYourWrites(Duration window, Ticker ticker) {
+        this.recentWriters = Caffeine.newBuilder()
+                .maximumSize(MAXIMUM_CALLERS)
+                .expireAfterWrite(window)
+                .ticker(ticker)
+                .build();
+    }
+
+    @Override
+    public void afterCommit(TransactionExecution transaction, Throwable commitFailure) {
+        if (commitFailure == null && transaction.isNewTransaction() && !transaction.isReadOnly()) {
+            String caller = currentCaller();
+            if (caller != null) {
+                recentWriters.put(caller, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Whether the current caller committed a write recently enough that a replica may not show it yet.
+     */
+    public boolean isPinnedToPrimary() {
+        String caller = currentCaller();
+        return caller != null && recentWriters.getIfPresent(caller) != null;
+    }
+
+    private static String currentCaller() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? null : authentication.getName();
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.paralelogram.user.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long the statements run on the connections of one pool take in postgres, in the
+ * {@value #STATEMENT_TIMER} timer tagged by {@code pool}.
+ * <p>
+ * Only the {@code execute*} calls are timed, up to the first rows of a query. Unlike
+ * {@code hikaricp.connections.usage} the timer ignores how long a caller keeps its connection, so an export
+ * streaming rows for minutes still records fast statements, see {@link AdaptivePoolSizer}.
+ */
+public class StatementTimingDataSource extends DelegatingDataSource {
+
+    public static final String STATEMENT_TIMER = "paralelogram.datasource.statements";
+
+    private final Timer timer;
+
+    public StatementTimingDataSource(HikariDataSource dataSource, MeterRegistry meterRegistry) {
+        super(dataSource);
+        this.timer = Timer.builder(STATEMENT_TIMER)
+                .description("Time postgres takes to execute a statement")
+                .tag("pool", dataSource.getPoolName())
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return timed(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return timed(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private Connection timed(Connection connection) {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            Object result = invoke(connection, method, args);
+            if (result instanceof CallableStatement statement) {
+                return timed(CallableStatement.class, statement);
+            }
+            if (result instanceof PreparedStatement statement) {
+                return timed(PreparedStatement.class, statement);
+            }
+            if (result instanceof Statement statement) {
+                return timed(Statement.class, statement);
+            }
+            return result;
+        });
+    }
+
+    private <T extends Statement> T timed(Class<T> type, T statement) {
+        return proxy(type, (proxy, method, args) -> {
+            if (!method.getName().startsWith("execute")) {
+                return invoke(statement, method, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return invoke(statement, method, args);
+            } finally {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StatementTimingDataSource.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+}
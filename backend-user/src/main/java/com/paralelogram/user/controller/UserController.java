@@ -1,19 +1,44 @@
 package com.paralelogram.user.controller;
 
-import com.paralelogram.user.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.paralelogram.user.model.AddUserRequest;
+import com.paralelogram.user.model.ImportUserResult;
 import com.paralelogram.user.model.RoleProperty;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.UserPage;
+import com.paralelogram.user.model.UserProvisioningResponse;
+import com.paralelogram.user.model.UserResponse;
+import com.paralelogram.user.service.IdempotencyService;
+import com.paralelogram.user.service.UserExportService;
+import com.paralelogram.user.service.UserImportService;
 import com.paralelogram.user.service.UserService;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.annotation.security.RolesAllowed;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
 
 
 @Tag(name = "User API")
@@ -23,19 +48,128 @@ import org.springframework.web.bind.annotation.RestController;
 @Slf4j
 public class UserController {
 
+    private static final String PREFER = "Prefer";
+    private static final String PREFERENCE_APPLIED = "Preference-Applied";
+    private static final String RESPOND_ASYNC = "respond-async";
+
     private final UserService userService;
+    private final UserImportService userImportService;
+    private final UserExportService userExportService;
+    private final IdempotencyService idempotencyService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping(path = "/{userName}")
     @RolesAllowed({RoleProperty.ADMIN, RoleProperty.VISITOR })
-    public User getUser(@PathVariable String userName) {
+    public UserResponse getUser(@PathVariable String userName) {
         log.info("getting user information for userName={}", userName);
         return userService.getUser(userName);
     }
 
+    @GetMapping(path = "/email/{email}")
+    @RolesAllowed({ RoleProperty.ADMIN, RoleProperty.VISITOR })
+    public UserResponse getUserByEmail(@PathVariable String email) {
+        log.info("getting user information by email");
+        return userService.getUserByEmail(email);
+    }
+
+    /**
+     * Lists users by userName, pass the {@code nextCursor} of a page as {@code cursor} to get the next one.
+     */
+    @GetMapping
+    @RolesAllowed({ RoleProperty.ADMIN })
+    public UserPage getUsers(@RequestParam(required = false) RoleRequest role,
+                             @RequestParam(required = false) String cursor,
+                             @RequestParam(required = false) Integer size) {
+        log.info("listing users role={} size={}", role, size);
+        return userService.getUsers(role, cursor, size);
+    }
+
+    /**
+     * Retries sent with the same {@code Idempotency-Key} get the response of the first request replayed.
+     */
     @PostMapping
     @RolesAllowed({ RoleProperty.ADMIN })
-    public User addUser(@RequestBody AddUserRequest user) {
-        return userService.addUser(user);
+    public ResponseEntity<Object> addUser(@RequestBody AddUserRequest user,
+                                          @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotent(idempotencyKey, user, () -> ResponseEntity.ok(UserResponse.of(userService.addUser(user))));
+    }
+
+    /**
+     * With {@code Prefer: respond-async} the user is provisioned in the background, the response is
+     * {@code 202 Accepted} with the status URL as {@code Location}. The preference is ignored when
+     * asynchronous provisioning is not configured.
+     */
+    @PostMapping(headers = PREFER + "=" + RESPOND_ASYNC)
+    @RolesAllowed({ RoleProperty.ADMIN })
+    public ResponseEntity<Object> addUserAsync(@RequestBody AddUserRequest user,
+                                               @RequestHeader(value = IdempotencyService.IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotent(idempotencyKey, user, () -> {
+            if (!userService.isAddUserAsyncEnabled()) {
+                return ResponseEntity.ok(UserResponse.of(userService.addUser(user)));
+            }
+            UserProvisioningResponse provisioning = userService.addUserAsync(user);
+            log.info("accepted provisioning={} of user={}", provisioning.provisioningId(), provisioning.userName());
+            URI location = ServletUriComponentsBuilder.fromCurrentRequestUri()
+                    .path("/provisioning/{provisioningId}")
+                    .buildAndExpand(provisioning.provisioningId())
+                    .toUri();
+            return ResponseEntity.accepted()
+                    .location(location)
+                    .header(PREFERENCE_APPLIED, RESPOND_ASYNC)
+                    .body(provisioning);
+        });
+    }
+
+    @GetMapping(path = "/provisioning/{provisioningId}")
+    @RolesAllowed({ RoleProperty.ADMIN })
+    public UserProvisioningResponse getProvisioning(@PathVariable UUID provisioningId) {
+        return userService.getProvisioning(provisioningId);
+    }
+
+    /**
+     * Imports users from an NDJSON or CSV body and streams back one NDJSON {@link ImportUserResult} per row.
+     */
+    @PostMapping(path = "/import", consumes = { MediaType.APPLICATION_NDJSON_VALUE, UserImportService.TEXT_CSV_VALUE })
+    @RolesAllowed({ RoleProperty.ADMIN })
+    public void importUsers(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body,
+                            HttpServletResponse response) throws IOException {
+        log.info("importing users from {}", contentType);
+        userImportService.importUsers(body, contentType, results -> writeResults(results, response));
+    }
+
+    /**
+     * Exports every user as NDJSON, or as CSV when {@code text/csv} is accepted before {@code application/x-ndjson}.
+     */
+    @GetMapping(path = "/export", produces = { MediaType.APPLICATION_NDJSON_VALUE, UserImportService.TEXT_CSV_VALUE })
+    @RolesAllowed({ RoleProperty.ADMIN })
+    public ResponseEntity<StreamingResponseBody> exportUsers(
+            @RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = MediaType.APPLICATION_NDJSON_VALUE) String accept) {
+        MediaType format = MediaType.parseMediaTypes(accept).stream()
+                .filter(type -> type.equalsTypeAndSubtype(UserImportService.TEXT_CSV) || type.equalsTypeAndSubtype(MediaType.APPLICATION_NDJSON))
+                .findFirst()
+                .orElse(MediaType.APPLICATION_NDJSON);
+        log.info("exporting users as {}", format);
+        return ResponseEntity.ok()
+                .contentType(format)
+                .body(userExportService.exportUsers(format));
+    }
+
+    private ResponseEntity<Object> idempotent(String idempotencyKey, AddUserRequest user, Supplier<ResponseEntity<Object>> action) {
+        return idempotencyKey == null ? action.get() : idempotencyService.execute(idempotencyKey, user, action);
+    }
+
+    private void writeResults(List<ImportUserResult> results, HttpServletResponse response) {
+        try {
+            response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+            OutputStream output = response.getOutputStream();
+            for (ImportUserResult result : results) {
+                output.write(objectMapper.writeValueAsBytes(result));
+                output.write('\n');
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 }
@@ -0,0 +1,62 @@
+package com.paralelogram.user.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Outcome of a request sent with an {@code Idempotency-Key}, kept until {@code expiresAt}.
+ * <p>
+ * Rows are claimed with a native upsert rather than generated ids, so this entity has no {@link Base} id.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "paralelogram_idempotent_request")
+public class IdempotentRequest {
+
+    // sha-256 of the caller and the key
+    @Id
+    @Column(name = "key_hash", length = 64)
+    private String keyHash;
+
+    // sha-256 of the request, tells a retry from a different request reusing the key
+    @Column(name = "request_hash", nullable = false, length = 64)
+    private String requestHash;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private Status status;
+
+    @Column(name = "response_status")
+    private Integer responseStatus;
+
+    @Column(name = "response_headers", columnDefinition = "text")
+    private String responseHeaders;
+
+    @Column(name = "response_body", columnDefinition = "text")
+    private String responseBody;
+
+    @Column(name = "error")
+    private String error;
+
+    @Column(name = "expires_at", nullable = false)
+    private Instant expiresAt;
+
+    public enum Status {
+        IN_PROGRESS,
+        COMPLETED
+    }
+
+}
@@ -0,0 +1,9 @@
+package com.paralelogram.user.entity;
+
+public enum ProvisioningStatus {
+    PENDING,
+    PROVISIONED,
+    FAILED,
+    // provisioned, but its user was deleted or renamed since, which freed the userName again
+    RELEASED
+}
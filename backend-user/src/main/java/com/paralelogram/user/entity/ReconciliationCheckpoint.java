@@ -0,0 +1,54 @@
+package com.paralelogram.user.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Where a reconciliation run stands, {@code roleName} is null between runs. The instance holding the lock
+ * until {@code lockedUntil} is the only one carrying the run forward.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "paralelogram_reconciliation_checkpoint")
+public class ReconciliationCheckpoint {
+
+    @Id
+    @Column(name = "name", length = 50)
+    private String name;
+
+    @Column(name = "run_started_at")
+    private Instant runStartedAt;
+
+    // RoleRequest whose keycloak users are being compared
+    @Column(name = "role_name", length = 50)
+    private String roleName;
+
+    // offset of the next keycloak page of the role
+    @Column(name = "first_result", nullable = false)
+    private int firstResult;
+
+    // last username of the previous page, local users after it are compared with the next page
+    @Column(name = "last_user_name", length = 50)
+    private String lastUserName;
+
+    @Column(name = "completed_at")
+    private Instant completedAt;
+
+    @Column(name = "locked_by", length = 50)
+    private String lockedBy;
+
+    @Column(name = "locked_until")
+    private Instant lockedUntil;
+
+}
@@ -1,10 +1,9 @@
 package com.paralelogram.user.entity;
 
-import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.JoinColumn;
-import jakarta.persistence.OneToOne;
+import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -37,7 +36,8 @@ public class User extends Base {
     @Column(name = "last_name", length = 100)
     private String lastName;
 
-    @OneToOne(cascade = CascadeType.ALL)
+    // roles are shared reference data resolved from the role registry, never cascade into them
+    @ManyToOne
     @JoinColumn(name = "role_id", referencedColumnName = "id")
     private Role role;
 
@@ -0,0 +1,58 @@
+package com.paralelogram.user.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.experimental.SuperBuilder;
+
+import java.util.UUID;
+
+/**
+ * A user accepted by {@code POST /user}, its row reserves the userName while the user is pending and after it
+ * was provisioned, {@code userId} is set once keycloak created it.
+ */
+@Data
+@SuperBuilder
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+@Entity
+@Table(name = "paralelogram_user_provisioning")
+public class UserProvisioning extends Base {
+
+    @Column(name = "provisioning_id", unique = true, nullable = false)
+    private UUID provisioningId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private ProvisioningStatus status;
+
+    @Column(name = "user_name", nullable = false, length = 50)
+    private String userName;
+
+    @Column(name = "email", length = 50)
+    private String email;
+
+    @Column(name = "first_name", length = 100)
+    private String firstName;
+
+    @Column(name = "last_name", length = 100)
+    private String lastName;
+
+    @ManyToOne
+    @JoinColumn(name = "role_id", referencedColumnName = "id")
+    private Role role;
+
+    @Column(name = "user_id")
+    private UUID userId;
+
+    @Column(name = "error")
+    private String error;
+
+}
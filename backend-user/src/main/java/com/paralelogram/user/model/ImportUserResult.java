@@ -0,0 +1,26 @@
+package com.paralelogram.user.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * Outcome of a single row of a bulk import, {@code line} is the 1-based line of the row in the upload.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ImportUserResult(long line, String userName, Status status, UUID userId, String error) {
+
+    public enum Status {
+        CREATED,
+        FAILED
+    }
+
+    public static ImportUserResult created(long line, String userName, UUID userId) {
+        return new ImportUserResult(line, userName, Status.CREATED, userId, null);
+    }
+
+    public static ImportUserResult failed(long line, String userName, String error) {
+        return new ImportUserResult(line, userName, Status.FAILED, null, error);
+    }
+
+}
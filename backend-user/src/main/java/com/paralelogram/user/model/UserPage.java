@@ -0,0 +1,13 @@
+package com.paralelogram.user.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * A page of users ordered by userName, {@code nextCursor} continues after the last user and is absent on
+ * the last page.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record UserPage(List<UserResponse> users, String nextCursor) {
+}
@@ -0,0 +1,26 @@
+package com.paralelogram.user.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.UserProvisioning;
+
+import java.util.UUID;
+
+/**
+ * Status of a user accepted by an asynchronous {@code POST /user}, {@code userId} is only set once the user is
+ * provisioned, and kept when it is released, and {@code error} once provisioning failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record UserProvisioningResponse(UUID provisioningId, String userName, ProvisioningStatus status, UUID userId, String error) {
+
+    public static UserProvisioningResponse of(UserProvisioning provisioning) {
+        return new UserProvisioningResponse(
+                provisioning.getProvisioningId(),
+                provisioning.getUserName(),
+                provisioning.getStatus(),
+                provisioning.getStatus() == ProvisioningStatus.PROVISIONED || provisioning.getStatus() == ProvisioningStatus.RELEASED
+                        ? provisioning.getUserId() : null,
+                provisioning.getError());
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.paralelogram.user.model;
+
+import com.paralelogram.user.entity.User;
+
+import java.util.UUID;
+
+/**
+ * Read model of a user, selected column by column by {@code UserRepository#findUserResponseByUserName} so
+ * lookups never load or track the {@code User} entity. {@code POST /user} answers with the same shape.
+ */
+public record UserResponse(UUID userId, String userName, String email, String firstName, String lastName, String role) {
+
+    public static UserResponse of(User user) {
+        return new UserResponse(
+                user.getUserId(),
+                user.getUserName(),
+                user.getEmail(),
+                user.getFirstName(),
+                user.getLastName(),
+                user.getRole() == null ? null : user.getRole().getRoleName());
+    }
+
+}
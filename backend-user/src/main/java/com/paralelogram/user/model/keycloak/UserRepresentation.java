@@ -1,5 +1,6 @@
 package com.paralelogram.user.model.keycloak;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -15,6 +16,7 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class UserRepresentation {
 
     private String id;
@@ -24,6 +26,8 @@ public class UserRepresentation {
     private String email;
     private Boolean emailVerified;
     private Boolean enabled;
+    // epoch millis, only set by keycloak
+    private Long createdTimestamp;
     private List<String> realmRoles;
     private List<CredentialRepresentation> credentials;
 
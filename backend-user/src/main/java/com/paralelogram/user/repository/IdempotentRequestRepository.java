@@ -0,0 +1,51 @@
+package com.paralelogram.user.repository;
+
+import com.paralelogram.user.entity.IdempotentRequest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface IdempotentRequestRepository extends JpaRepository<IdempotentRequest, String> {
+
+    /**
+     * Inserts the key as in progress unless it is already stored and not yet expired, returns 1 when the caller
+     * now owns the key and 0 when another request does.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into paralelogram_idempotent_request (key_hash, request_hash, status, expires_at) "
+            + "values (:keyHash, :requestHash, 'IN_PROGRESS', :expiresAt) "
+            + "on conflict (key_hash) do update set request_hash = excluded.request_hash, status = excluded.status, "
+            + "response_status = null, response_headers = null, response_body = null, error = null, expires_at = excluded.expires_at "
+            + "where paralelogram_idempotent_request.expires_at <= :now", nativeQuery = true)
+    int claim(@Param("keyHash") String keyHash, @Param("requestHash") String requestHash,
+              @Param("expiresAt") Instant expiresAt, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query(value = "update paralelogram_idempotent_request set status = 'COMPLETED', response_status = :responseStatus, "
+            + "response_headers = :responseHeaders, response_body = :responseBody, error = :error, expires_at = :expiresAt "
+            + "where key_hash = :keyHash and status = 'IN_PROGRESS'", nativeQuery = true)
+    int complete(@Param("keyHash") String keyHash, @Param("responseStatus") int responseStatus,
+                 @Param("responseHeaders") String responseHeaders, @Param("responseBody") String responseBody,
+                 @Param("error") String error, @Param("expiresAt") Instant expiresAt);
+
+    /**
+     * Gives up an in progress key so a retry runs the request again.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "delete from paralelogram_idempotent_request where key_hash = :keyHash and status = 'IN_PROGRESS'", nativeQuery = true)
+    int release(@Param("keyHash") String keyHash);
+
+    @Transactional
+    @Modifying
+    @Query(value = "delete from paralelogram_idempotent_request where key_hash in "
+            + "(select key_hash from paralelogram_idempotent_request where expires_at <= :now limit :limit)", nativeQuery = true)
+    int deleteExpired(@Param("now") Instant now, @Param("limit") int limit);
+
+}
@@ -0,0 +1,29 @@
+package com.paralelogram.user.repository;
+
+import com.paralelogram.user.entity.OutboxEvent;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.SpecHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    /**
+     * Locks the events due at {@code now}, skipping those already locked by another worker, must be called
+     * within a transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    // -2 is hibernate's LockOptions.SKIP_LOCKED, rendered as "for update skip locked" on postgres
+    @QueryHints(@QueryHint(name = SpecHints.HINT_SPEC_LOCK_TIMEOUT, value = "-2"))
+    @Query("select e from OutboxEvent e where e.nextAttemptAt <= :now order by e.nextAttemptAt")
+    List<OutboxEvent> findDueForUpdate(@Param("now") Instant now, Limit limit);
+
+}
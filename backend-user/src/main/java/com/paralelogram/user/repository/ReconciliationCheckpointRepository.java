@@ -0,0 +1,39 @@
+package com.paralelogram.user.repository;
+
+import com.paralelogram.user.entity.ReconciliationCheckpoint;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Optional;
+
+public interface ReconciliationCheckpointRepository extends JpaRepository<ReconciliationCheckpoint, String> {
+
+    /**
+     * Takes or renews the lock unless another instance holds it, returns 0 when it does.
+     */
+    @Transactional
+    @Modifying
+    @Query("update ReconciliationCheckpoint c set c.lockedBy = :owner, c.lockedUntil = :lockedUntil "
+            + "where c.name = :name and (c.lockedUntil is null or c.lockedUntil < :now or c.lockedBy = :owner)")
+    int lock(@Param("name") String name, @Param("owner") String owner, @Param("lockedUntil") Instant lockedUntil,
+             @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("update ReconciliationCheckpoint c set c.lockedBy = null, c.lockedUntil = null where c.name = :name and c.lockedBy = :owner")
+    int unlock(@Param("name") String name, @Param("owner") String owner);
+
+    /**
+     * Locks the row for the transaction committing the fixes of a page together with the progress.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from ReconciliationCheckpoint c where c.name = :name")
+    Optional<ReconciliationCheckpoint> findForUpdate(@Param("name") String name);
+
+}
@@ -0,0 +1,64 @@
+package com.paralelogram.user.repository;
+
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.UserProvisioning;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Transactional(readOnly = true)
+public interface UserProvisioningRepository extends JpaRepository<UserProvisioning, Long> {
+
+    Optional<UserProvisioning> findByProvisioningId(UUID provisioningId);
+
+    /**
+     * Inserts the provisioning unless its userName is already reserved or belongs to a user created without a
+     * reservation, returns 0 when the userName is taken. The unique index on pending and provisioned userNames
+     * makes the claim atomic, the id is taken from the sequence directly which never hands out a value of a
+     * block pooled by hibernate.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into paralelogram_user_provisioning (id, created_at, updated_at, provisioning_id, status, user_name, "
+            + "email, first_name, last_name, role_id) "
+            + "select nextval('paralelogram_user_provisioning_seq'), :#{#provisioning.createdAt}, :#{#provisioning.createdAt}, "
+            + ":#{#provisioning.provisioningId}, :#{#provisioning.status.name()}, :#{#provisioning.userName}, :#{#provisioning.email}, "
+            + ":#{#provisioning.firstName}, :#{#provisioning.lastName}, :#{#provisioning.role.id} "
+            + "where not exists (select 1 from paralelogram_user u where u.user_name = :#{#provisioning.userName}) "
+            + "on conflict do nothing", nativeQuery = true)
+    int reserve(@Param("provisioning") UserProvisioning provisioning);
+
+    @Transactional
+    @Modifying
+    @Query("update UserProvisioning p set p.status = :status, p.userId = :userId, p.error = :error, p.updatedAt = :updatedAt "
+            + "where p.provisioningId = :provisioningId")
+    int updateStatus(@Param("provisioningId") UUID provisioningId, @Param("status") ProvisioningStatus status,
+                     @Param("userId") UUID userId, @Param("error") String error, @Param("updatedAt") Instant updatedAt);
+
+    /**
+     * Releases the userNames reserved by the provisioned users that no longer hold them, once they were deleted or
+     * renamed, so they can be reserved again. Returns how many were released.
+     */
+    @Transactional
+    @Modifying
+    @Query("update UserProvisioning p set p.status = com.paralelogram.user.entity.ProvisioningStatus.RELEASED, p.updatedAt = :updatedAt "
+            + "where p.status = com.paralelogram.user.entity.ProvisioningStatus.PROVISIONED and p.userId in :userIds "
+            + "and not exists (select 1 from User u where u.userId = p.userId and u.userName = p.userName)")
+    int release(@Param("userIds") Collection<UUID> userIds, @Param("updatedAt") Instant updatedAt);
+
+    /**
+     * Provisionings still pending for one of the userNames, or failed with the keycloak user queued for deletion.
+     */
+    @Query("select p from UserProvisioning p where (p.status = com.paralelogram.user.entity.ProvisioningStatus.PENDING and p.userName in :userNames) "
+            + "or (p.status = com.paralelogram.user.entity.ProvisioningStatus.FAILED and p.userId in :userIds)")
+    List<UserProvisioning> findUnfinished(@Param("userNames") Collection<String> userNames, @Param("userIds") Collection<UUID> userIds);
+
+}
@@ -1,12 +1,89 @@
 package com.paralelogram.user.repository;
 
+import com.paralelogram.user.entity.Role;
 import com.paralelogram.user.entity.User;
+import com.paralelogram.user.model.UserResponse;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
 
+/**
+ * Queries run in read-only transactions, which are served by a read replica when one is configured. The
+ * duplicate checks made before a write stay on the primary, a replica may not have the latest users yet.
+ */
+@Transactional(readOnly = true)
 public interface UserRepository extends JpaRepository<User, Long> {
 
-    Optional<User> findByUserName(String userName);
+    /**
+     * Matches emails case-insensitively on the lower(email) index.
+     */
+    @Transactional
+    @Query("select count(u) > 0 from User u where lower(u.email) = lower(:email)")
+    boolean existsByEmailIgnoreCase(@Param("email") String email);
+
+    /**
+     * Expects a userName already in its lowercase canonical form.
+     */
+    @Query("select new com.paralelogram.user.model.UserResponse(u.userId, u.userName, u.email, u.firstName, u.lastName, r.roleName) "
+            + "from User u left join u.role r where u.userName = :userName")
+    Optional<UserResponse> findUserResponseByUserName(@Param("userName") String userName);
+
+    @Query("select new com.paralelogram.user.model.UserResponse(u.userId, u.userName, u.email, u.firstName, u.lastName, r.roleName) "
+            + "from User u left join u.role r where lower(u.email) = lower(:email)")
+    Optional<UserResponse> findUserResponseByEmailIgnoreCase(@Param("email") String email);
+
+    /**
+     * Seeks past {@code after} on the user_name index, so every page costs the same whatever its depth.
+     */
+    @Query("select new com.paralelogram.user.model.UserResponse(u.userId, u.userName, u.email, u.firstName, u.lastName, r.roleName) "
+            + "from User u left join u.role r where u.userName > :after order by u.userName")
+    List<UserResponse> findUserResponsesAfter(@Param("after") String after, Limit limit);
+
+    @Query("select new com.paralelogram.user.model.UserResponse(u.userId, u.userName, u.email, u.firstName, u.lastName, r.roleName) "
+            + "from User u join u.role r where r.roleName = :roleName and u.userName > :after order by u.userName")
+    List<UserResponse> findUserResponsesByRoleNameAfter(@Param("roleName") String roleName, @Param("after") String after, Limit limit);
+
+    /**
+     * Streams every user from a server side cursor, must be consumed and closed within a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select new com.paralelogram.user.model.UserResponse(u.userId, u.userName, u.email, u.firstName, u.lastName, r.roleName) "
+            + "from User u left join u.role r order by u.userName")
+    Stream<UserResponse> streamUserResponses();
+
+    List<User> findByUserIdIn(Collection<UUID> userIds);
+
+    /**
+     * Local users holding the role with a userName in {@code (after, until]}, compared with one page of keycloak users.
+     */
+    @Query("select u.userId from User u where u.role = :role and u.userName > :after and u.userName <= :until")
+    List<UUID> findUserIdsByRoleBetween(@Param("role") Role role, @Param("after") String after, @Param("until") String until);
+
+    @Query("select u.userId from User u where u.role = :role and u.userName > :after")
+    List<UUID> findUserIdsByRoleAfter(@Param("role") Role role, @Param("after") String after);
+
+    @Query("select u from User u where u.userName in :userNames or lower(u.email) in :emails")
+    List<User> findByUserNameInOrLowerEmailIn(@Param("userNames") Collection<String> userNames,
+                                              @Param("emails") Collection<String> emails);
+
+    @Transactional
+    @Modifying
+    @Query("delete from User u where u.userId in :userIds")
+    int deleteByUserIdIn(@Param("userIds") Collection<UUID> userIds);
 
 }
@@ -0,0 +1,18 @@
+package com.paralelogram.user.service;
+
+import com.paralelogram.user.model.AddUserRequest;
+import org.springframework.http.ResponseEntity;
+
+import java.util.function.Supplier;
+
+public interface IdempotencyService {
+
+    String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /**
+     * Runs {@code action} once per {@code idempotencyKey} of the caller, retries get the stored outcome of the
+     * first request instead, or {@code 409 Conflict} while it is still running.
+     */
+    ResponseEntity<Object> execute(String idempotencyKey, AddUserRequest request, Supplier<ResponseEntity<Object>> action);
+
+}
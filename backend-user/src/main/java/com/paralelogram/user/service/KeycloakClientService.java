@@ -11,9 +11,27 @@ public interface KeycloakClientService {
 
     UUID createUser(UserRepresentation user);
 
+    /**
+     * The user with exactly this username, {@code null} when there is none.
+     */
+    UserRepresentation findUserByUserName(String userName);
+
     boolean addUserRole(UUID userId, List<RoleRepresentation> role);
 
     boolean deleteUser(UUID userId);
 
+    RoleRepresentation getRole(String roleName);
+
+    /**
+     * Users holding the realm role, ordered by username, starting at {@code first}.
+     */
+    List<UserRepresentation> getRoleUsers(String roleName, int first, int max);
+
+    /**
+     * Realm roles mapped to the user, throws a {@code NOT_FOUND} {@link com.paralelogram.user.exception.UserException}
+     * when the user does not exist.
+     */
+    List<RoleRepresentation> getUserRoles(UUID userId);
+
     KeycloakAccessToken getAccessToken(String clientId, String clientSecret);
 }
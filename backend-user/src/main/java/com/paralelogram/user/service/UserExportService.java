@@ -0,0 +1,14 @@
+package com.paralelogram.user.service;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+public interface UserExportService {
+
+    /**
+     * Returns a body writing every user as NDJSON or CSV, rows are streamed from the database while the
+     * body is written.
+     */
+    StreamingResponseBody exportUsers(MediaType format);
+
+}
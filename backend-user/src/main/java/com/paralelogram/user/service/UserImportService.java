@@ -0,0 +1,23 @@
+package com.paralelogram.user.service;
+
+import com.paralelogram.user.model.ImportUserResult;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface UserImportService {
+
+    String TEXT_CSV_VALUE = "text/csv";
+
+    MediaType TEXT_CSV = MediaType.parseMediaType(TEXT_CSV_VALUE);
+
+    /**
+     * Imports every row of {@code input}, handing the results of each processed chunk of rows to
+     * {@code results} before the next chunk is read.
+     */
+    void importUsers(InputStream input, MediaType format, Consumer<List<ImportUserResult>> results) throws IOException;
+
+}
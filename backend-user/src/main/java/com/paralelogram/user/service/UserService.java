@@ -3,11 +3,33 @@ package com.paralelogram.user.service;
 
 import com.paralelogram.user.entity.User;
 import com.paralelogram.user.model.AddUserRequest;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.UserPage;
+import com.paralelogram.user.model.UserProvisioningResponse;
+import com.paralelogram.user.model.UserResponse;
+
+import java.util.UUID;
 
 public interface UserService {
 
-    User getUser(String userName);
+    UserResponse getUser(String userName);
+
+    UserResponse getUserByEmail(String email);
+
+    UserPage getUsers(RoleRequest role, String cursor, Integer size);
 
     User addUser(AddUserRequest user);
 
+    /**
+     * Whether {@link #addUserAsync(AddUserRequest)} is available, it needs a key to encrypt passwords with.
+     */
+    boolean isAddUserAsyncEnabled();
+
+    /**
+     * Reserves the userName and queues the keycloak provisioning of the user in one local transaction.
+     */
+    UserProvisioningResponse addUserAsync(AddUserRequest user);
+
+    UserProvisioningResponse getProvisioning(UUID provisioningId);
+
 }
@@ -0,0 +1,155 @@
+package com.paralelogram.user.service.impl;
+
+import com.paralelogram.user.model.keycloak.KeycloakAccessToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Caches the client credentials access token until shortly before it expires.
+ * <p>
+ * A token inside the refresh-ahead window is still handed out while a single background refresh
+ * replaces it, a failed background refresh is retried no sooner than {@code REFRESH_RETRY_BACKOFF} later.
+ * Callers that find no usable token wait on one shared fetch instead of each calling keycloak.
+ */
+@Slf4j
+public class ClientCredentialsTokenHolder {
+
+    private static final String METRIC_TOKEN = "keycloak.client.token";
+    private static final String METRIC_TOKEN_REFRESH = "keycloak.client.token.refresh";
+    private static final Duration REFRESH_RETRY_BACKOFF = Duration.ofSeconds(5);
+
+    private final Supplier<KeycloakAccessToken> tokenSupplier;
+    private final Duration refreshAhead;
+    private final Duration minValidity;
+    private final Clock clock;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile CachedToken current;
+    private final AtomicBoolean backgroundRefreshScheduled = new AtomicBoolean();
+    private volatile Instant nextBackgroundRefreshAt = Instant.MIN;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter refreshSuccessCounter;
+    private final Counter refreshFailureCounter;
+
+    public ClientCredentialsTokenHolder(Supplier<KeycloakAccessToken> tokenSupplier, Duration refreshAhead, Duration minValidity,
+                                        MeterRegistry meterRegistry) {
+        this(tokenSupplier, refreshAhead, minValidity, meterRegistry, Clock.systemUTC());
+    }
+
+    public ClientCredentialsTokenHolder(Supplier<KeycloakAccessToken> tokenSupplier, Duration refreshAhead, Duration minValidity,
+                                        MeterRegistry meterRegistry, Clock clock) {
+        this.tokenSupplier = tokenSupplier;
+        this.refreshAhead = refreshAhead;
+        this.minValidity = minValidity;
+        this.clock = clock;
+        this.hitCounter = meterRegistry.counter(METRIC_TOKEN, "result", "hit");
+        this.missCounter = meterRegistry.counter(METRIC_TOKEN, "result", "miss");
+        this.refreshSuccessCounter = meterRegistry.counter(METRIC_TOKEN_REFRESH, "outcome", "success");
+        this.refreshFailureCounter = meterRegistry.counter(METRIC_TOKEN_REFRESH, "outcome", "failure");
+    }
+
+    public String getToken() {
+        CachedToken token = current;
+        Instant now = clock.instant();
+        if (token != null && token.isUsable(now)) {
+            hitCounter.increment();
+            if (token.isDueForRefresh(now) && !now.isBefore(nextBackgroundRefreshAt)) {
+                refreshInBackground();
+            }
+            return token.value();
+        }
+        missCounter.increment();
+        return refresh().value();
+    }
+
+    public void invalidate() {
+        log.debug("invalidating client credentials token");
+        current = null;
+    }
+
+    private CachedToken refresh() {
+        refreshLock.lock();
+        try {
+            // another caller may have refreshed while this one was waiting for the lock
+            CachedToken token = current;
+            if (token != null && token.isUsable(clock.instant())) {
+                return token;
+            }
+            return fetch();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void refreshInBackground() {
+        // hits in the refresh window share one scheduled refresh instead of scheduling one each
+        if (!backgroundRefreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Schedulers.boundedElastic().schedule(() -> {
+                if (!refreshLock.tryLock()) {
+                    backgroundRefreshScheduled.set(false);
+                    return;
+                }
+                try {
+                    CachedToken token = current;
+                    if (token == null || token.isDueForRefresh(clock.instant())) {
+                        fetch();
+                    }
+                } catch (RuntimeException e) {
+                    nextBackgroundRefreshAt = clock.instant().plus(REFRESH_RETRY_BACKOFF);
+                    log.warn("unable to refresh client credentials token in background, retrying in {}", REFRESH_RETRY_BACKOFF, e);
+                } finally {
+                    refreshLock.unlock();
+                    backgroundRefreshScheduled.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            backgroundRefreshScheduled.set(false);
+            throw e;
+        }
+    }
+
+    private CachedToken fetch() {
+        Instant fetchedAt = clock.instant();
+        KeycloakAccessToken accessToken;
+        try {
+            accessToken = tokenSupplier.get();
+        } catch (RuntimeException e) {
+            refreshFailureCounter.increment();
+            throw e;
+        }
+        refreshSuccessCounter.increment();
+
+        long expiresIn = accessToken.getExpiresIn() != null ? accessToken.getExpiresIn() : 0L;
+        Instant expiresAt = fetchedAt.plusSeconds(expiresIn).minus(minValidity);
+        CachedToken token = new CachedToken(accessToken.getAccessToken(), expiresAt, expiresAt.minus(refreshAhead));
+        current = token;
+        log.debug("client credentials token refreshed, expiresAt={}", expiresAt);
+        return token;
+    }
+
+    private record CachedToken(String value, Instant expiresAt, Instant refreshAt) {
+
+        boolean isUsable(Instant now) {
+            return now.isBefore(expiresAt);
+        }
+
+        boolean isDueForRefresh(Instant now) {
+            return !now.isBefore(refreshAt);
+        }
+    }
+
+}
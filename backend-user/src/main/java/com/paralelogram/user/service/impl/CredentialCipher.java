@@ -0,0 +1,83 @@
+package com.paralelogram.user.service.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Encrypts passwords with AES-GCM for as long as they wait in the outbox, so keycloak still receives and
+ * checks them against its password policy while the database never holds them in clear.
+ * <p>
+ * The owner of a password is bound to its ciphertext, a ciphertext copied to another row does not decrypt.
+ * Without a configured key the cipher is disabled and asynchronous provisioning with it.
+ */
+@Component
+public class CredentialCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    public CredentialCipher(@Value("${user.provisioning.credential-key}") String key) {
+        if (StringUtils.isBlank(key)) {
+            this.key = null;
+            return;
+        }
+        byte[] bytes = Base64.getDecoder().decode(key);
+        if (bytes.length != 16 && bytes.length != 24 && bytes.length != 32) {
+            throw new IllegalArgumentException("user.provisioning.credential-key must be a base64 AES key of 16, 24 or 32 bytes");
+        }
+        this.key = new SecretKeySpec(bytes, "AES");
+    }
+
+    public boolean isEnabled() {
+        return key != null;
+    }
+
+    public String encrypt(String credential, UUID owner) {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = init(Cipher.ENCRYPT_MODE, iv, owner);
+            byte[] encrypted = cipher.doFinal(credential.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("unable to encrypt credential", e);
+        }
+    }
+
+    public String decrypt(String encrypted, UUID owner) {
+        try {
+            byte[] bytes = Base64.getDecoder().decode(encrypted);
+            Cipher cipher = init(Cipher.DECRYPT_MODE, Arrays.copyOf(bytes, IV_LENGTH), owner);
+            return new String(cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("unable to decrypt credential", e);
+        }
+    }
+
+    private Cipher init(int mode, byte[] iv, UUID owner) throws GeneralSecurityException {
+        if (key == null) {
+            throw new IllegalStateException("user.provisioning.credential-key is not configured");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        cipher.updateAAD(owner.toString().getBytes(StandardCharsets.UTF_8));
+        return cipher;
+    }
+
+}
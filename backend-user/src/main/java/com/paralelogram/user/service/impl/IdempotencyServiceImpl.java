@@ -0,0 +1,219 @@
+package com.paralelogram.user.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paralelogram.user.entity.IdempotentRequest;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.AddUserRequest;
+import com.paralelogram.user.repository.IdempotentRequestRepository;
+import com.paralelogram.user.service.IdempotencyService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Stores the outcome of requests sent with an {@code Idempotency-Key} in postgres, so a retry reaching any
+ * instance gets the first response replayed without calling keycloak again.
+ * <p>
+ * Keys are scoped to the caller and only their sha-256 is kept, next to a hash of the request without its
+ * password, which tells a retry from a different request reusing the key. A key is held {@code in-progress-timeout}
+ * while its request runs and the outcome {@code ttl} afterwards, expired rows are deleted every
+ * {@code eviction-interval} and can be claimed again before. Successful responses and client errors are stored,
+ * server errors release the key so the retry runs the request again.
+ */
+@Slf4j
+@Service
+public class IdempotencyServiceImpl implements IdempotencyService {
+
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final List<String> REPLAYED_HEADERS = List.of(HttpHeaders.LOCATION, "Preference-Applied");
+    private static final TypeReference<Map<String, String>> HEADERS_TYPE = new TypeReference<>() { };
+
+    private final IdempotentRequestRepository idempotentRequestRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final Duration inProgressTimeout;
+    private final Duration evictionInterval;
+    private final int evictionBatchSize;
+    private Disposable scheduledEviction;
+
+    public IdempotencyServiceImpl(IdempotentRequestRepository idempotentRequestRepository,
+                                  TransactionTemplate transactionTemplate,
+                                  ObjectMapper objectMapper,
+                                  @Value("${user.idempotency.ttl}") Duration ttl,
+                                  @Value("${user.idempotency.in-progress-timeout}") Duration inProgressTimeout,
+                                  @Value("${user.idempotency.eviction-interval}") Duration evictionInterval,
+                                  @Value("${user.idempotency.eviction-batch-size}") int evictionBatchSize) {
+        this.idempotentRequestRepository = idempotentRequestRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.ttl = ttl;
+        this.inProgressTimeout = inProgressTimeout;
+        this.evictionInterval = evictionInterval;
+        this.evictionBatchSize = evictionBatchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduledEviction = Schedulers.boundedElastic().schedulePeriodically(() -> {
+            try {
+                evictExpired();
+            } catch (RuntimeException e) {
+                log.warn("unable to evict expired idempotency keys: {}", e.getMessage());
+            }
+        }, evictionInterval.toMillis(), evictionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduledEviction != null) {
+            scheduledEviction.dispose();
+        }
+    }
+
+    /**
+     * Deletes the expired keys in batches, returns how many were deleted.
+     */
+    public int evictExpired() {
+        Instant now = Instant.now();
+        int evicted = 0;
+        int deleted;
+        do {
+            deleted = idempotentRequestRepository.deleteExpired(now, evictionBatchSize);
+            evicted += deleted;
+        } while (deleted == evictionBatchSize);
+        if (evicted > 0) {
+            log.info("evicted {} expired idempotency keys", evicted);
+        }
+        return evicted;
+    }
+
+    @Override
+    public ResponseEntity<Object> execute(String idempotencyKey, AddUserRequest request, Supplier<ResponseEntity<Object>> action) {
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new UserException(HttpStatus.BAD_REQUEST, IDEMPOTENCY_KEY + " must have 1 to " + MAX_KEY_LENGTH + " characters", null);
+        }
+        String keyHash = sha256(currentCaller() + "\n" + idempotencyKey);
+        String requestHash = sha256(String.join("\n", Objects.toString(request.getUserName(), ""),
+                Objects.toString(request.getFirstName(), ""), Objects.toString(request.getLastName(), ""),
+                Objects.toString(request.getEmail(), ""), Objects.toString(request.getRole(), "")));
+
+        // a row that vanished between the claim and its read expired meanwhile and can be claimed again
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Instant now = Instant.now();
+            if (idempotentRequestRepository.claim(keyHash, requestHash, now.plus(inProgressTimeout), now) == 1) {
+                return run(keyHash, action);
+            }
+            // read in a read-write transaction so it is served by the primary, a replica may not have the row yet
+            Optional<IdempotentRequest> stored = transactionTemplate.execute(status -> idempotentRequestRepository.findById(keyHash));
+            if (stored != null && stored.isPresent()) {
+                return replay(stored.get(), requestHash);
+            }
+        }
+        throw new UserException(HttpStatus.CONFLICT, "request with this " + IDEMPOTENCY_KEY + " is in progress", null);
+    }
+
+    private ResponseEntity<Object> run(String keyHash, Supplier<ResponseEntity<Object>> action) {
+        ResponseEntity<Object> response;
+        try {
+            response = action.get();
+        } catch (UserException e) {
+            HttpStatus status = e.getStatus();
+            if (status != null && status.is4xxClientError() && status != HttpStatus.TOO_MANY_REQUESTS) {
+                idempotentRequestRepository.complete(keyHash, status.value(), null, null, e.getMessage(), Instant.now().plus(ttl));
+            } else {
+                release(keyHash);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            release(keyHash);
+            throw e;
+        }
+        try {
+            Map<String, String> headers = new LinkedHashMap<>();
+            REPLAYED_HEADERS.forEach(header -> Optional.ofNullable(response.getHeaders().getFirst(header))
+                    .ifPresent(value -> headers.put(header, value)));
+            idempotentRequestRepository.complete(keyHash, response.getStatusCode().value(),
+                    objectMapper.writeValueAsString(headers), objectMapper.writeValueAsString(response.getBody()),
+                    null, Instant.now().plus(ttl));
+        } catch (JsonProcessingException | RuntimeException e) {
+            // the request succeeded, a retry will find the key in progress until it times out
+            log.warn("unable to store the outcome of an idempotent request: {}", e.getMessage());
+        }
+        return response;
+    }
+
+    private ResponseEntity<Object> replay(IdempotentRequest stored, String requestHash) {
+        if (!stored.getRequestHash().equals(requestHash)) {
+            throw new UserException(HttpStatus.UNPROCESSABLE_ENTITY, IDEMPOTENCY_KEY + " was already used for a different request", null);
+        }
+        if (stored.getStatus() == IdempotentRequest.Status.IN_PROGRESS) {
+            throw new UserException(HttpStatus.CONFLICT, "request with this " + IDEMPOTENCY_KEY + " is in progress", null);
+        }
+        if (stored.getError() != null) {
+            throw new UserException(HttpStatus.valueOf(stored.getResponseStatus()), stored.getError(), null);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        try {
+            objectMapper.readValue(stored.getResponseHeaders(), HEADERS_TYPE).forEach(headers::set);
+        } catch (JsonProcessingException e) {
+            throw new UserException(HttpStatus.INTERNAL_SERVER_ERROR, "unable to replay the stored response", e);
+        }
+        headers.set(IDEMPOTENT_REPLAYED, Boolean.TRUE.toString());
+        return ResponseEntity.status(stored.getResponseStatus())
+                .headers(headers)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(stored.getResponseBody());
+    }
+
+    private void release(String keyHash) {
+        try {
+            idempotentRequestRepository.release(keyHash);
+        } catch (RuntimeException e) {
+            log.warn("unable to release an idempotency key: {}", e.getMessage());
+        }
+    }
+
+    private static String currentCaller() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? "" : authentication.getName();
+    }
+
+    private static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
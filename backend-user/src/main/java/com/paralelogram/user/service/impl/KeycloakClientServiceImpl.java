@@ -1,11 +1,15 @@
 package com.paralelogram.user.service.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.paralelogram.keycloak.client.KeycloakClient;
+import com.paralelogram.keycloak.client.KeycloakClientMetrics;
+import com.paralelogram.keycloak.client.KeycloakResilience;
+import com.paralelogram.keycloak.client.KeycloakUnavailableException;
 import com.paralelogram.user.exception.UserException;
 import com.paralelogram.user.model.keycloak.KeycloakAccessToken;
 import com.paralelogram.user.model.keycloak.RoleRepresentation;
 import com.paralelogram.user.model.keycloak.UserRepresentation;
 import com.paralelogram.user.service.KeycloakClientService;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,9 +18,9 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.UUID;
 
@@ -29,32 +33,45 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
     private static final String CLIENT_SECRET_KEY = "client_secret";
     private static final String GRANT_TYPE_KEY = "grant_type";
     private static final String GRANT_TYPE_CLIENT_CREDENTIALS = "client_credentials";
+    private static final String OPERATION_CREATE_USER = "createUser";
+    private static final String OPERATION_FIND_USER_BY_USER_NAME = "findUserByUserName";
+    private static final String OPERATION_ADD_USER_ROLE = "addUserRole";
+    private static final String OPERATION_DELETE_USER = "deleteUser";
+    private static final String OPERATION_GET_ROLE = "getRole";
+    private static final String OPERATION_GET_ROLE_USERS = "getRoleUsers";
+    private static final String OPERATION_GET_USER_ROLES = "getUserRoles";
+    private static final String OPERATION_GET_ACCESS_TOKEN = "getAccessToken";
 
-    private final String baseUrl;
-    private final String realm;
+    private final KeycloakClient keycloakClient;
+    private final KeycloakResilience keycloakResilience;
+    private final KeycloakClientMetrics keycloakClientMetrics;
     private final String clientId;
     private final String clientSecret;
-
-    private String clientCredentialsToken;
+    private final ClientCredentialsTokenHolder clientCredentialsTokenHolder;
 
     public KeycloakClientServiceImpl(
-            @Value("${KEYCLOAK_URI}") String baseUrl,
-            @Value("${KEYCLOAK_REALM}") String realm,
+            KeycloakClient keycloakClient,
+            KeycloakResilience keycloakResilience,
+            KeycloakClientMetrics keycloakClientMetrics,
             @Value("${KEYCLOAK_CLIENT_ID}") String clientId,
             @Value("${KEYCLOAK_CLIENT_SECRET}") String clientSecret,
-            String clientCredentialsToken) {
-        this.baseUrl = baseUrl;
-        this.realm = realm;
+            @Value("${keycloak.client.token.refresh-ahead}") Duration tokenRefreshAhead,
+            @Value("${keycloak.client.token.min-validity}") Duration tokenMinValidity,
+            MeterRegistry meterRegistry) {
+        this.keycloakClient = keycloakClient;
+        this.keycloakResilience = keycloakResilience;
+        this.keycloakClientMetrics = keycloakClientMetrics;
         this.clientId = clientId;
         this.clientSecret = clientSecret;
-        this.clientCredentialsToken = clientCredentialsToken;
+        this.clientCredentialsTokenHolder = new ClientCredentialsTokenHolder(
+                () -> getAccessToken(clientId, clientSecret), tokenRefreshAhead, tokenMinValidity, meterRegistry);
     }
 
     @Override
     public UUID createUser(UserRepresentation user) {
         log.info("creating keycloak user={}", user);
-        return WebClient.create(baseUrl).post()
-                .uri(baseUrl + "/admin/realms/" + realm + "/users")
+        return keycloakClient.getWebClient().post()
+                .uri(keycloakClient.getAdminUsersUri())
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + getClientCredentialsToken())
@@ -68,16 +85,48 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
                     }
                     throw new UserException(HttpStatus.resolve(response.getStatusCode().value()), "unable to create user");
                 })
+                .transform(call -> keycloakResilience.decorate(OPERATION_CREATE_USER, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_CREATE_USER, call))
+                .doOnError(WebClientResponseException.class, this::invalidateClientCredentialsToken)
                 .onErrorMap(WebClientResponseException.class, error ->
                         new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while creating user", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
                 .block();
     }
 
+    @Override
+    public UserRepresentation findUserByUserName(String userName) {
+        log.debug("finding keycloak user={}", userName);
+        return keycloakClient.getWebClient().get()
+                .uri(keycloakClient.getAdminUsersUri() + "?username={userName}&exact=true", userName)
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + getClientCredentialsToken())
+                .retrieve()
+                .toEntityList(UserRepresentation.class)
+                .map(response -> {
+                    if (HttpStatus.OK.equals(response.getStatusCode())) {
+                        return response.getBody();
+                    }
+                    throw new UserException(HttpStatus.resolve(response.getStatusCode().value()), "unable to find user", null);
+                })
+                .transform(call -> keycloakResilience.decorateIdempotent(OPERATION_FIND_USER_BY_USER_NAME, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_FIND_USER_BY_USER_NAME, call))
+                .doOnError(WebClientResponseException.class, this::invalidateClientCredentialsToken)
+                .onErrorMap(WebClientResponseException.class, error ->
+                        new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while finding user", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
+                .blockOptional()
+                .flatMap(users -> users.stream().filter(user -> userName.equalsIgnoreCase(user.getUsername())).findFirst())
+                .orElse(null);
+    }
+
     @Override
     public boolean addUserRole(UUID userId, List<RoleRepresentation> role) {
         log.info("adding user={} role={}", userId, role);
-        return WebClient.create(baseUrl).post()
-                .uri(baseUrl + "/admin/realms/" + realm + "/users/" + userId + "/role-mappings/realm")
+        return keycloakClient.getWebClient().post()
+                .uri(keycloakClient.getAdminUsersUri() + "/" + userId + "/role-mappings/realm")
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + getClientCredentialsToken())
@@ -90,16 +139,21 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
                     }
                     return false;
                 })
+                .transform(call -> keycloakResilience.decorate(OPERATION_ADD_USER_ROLE, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_ADD_USER_ROLE, call))
+                .doOnError(WebClientResponseException.class, this::invalidateClientCredentialsToken)
                 .onErrorMap(WebClientResponseException.class, error ->
                         new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while adding user role", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
                 .block();
     }
 
     @Override
     public boolean deleteUser(UUID userId) {
         log.info("deleting user={}", userId);
-        return WebClient.create(baseUrl).delete()
-                .uri(baseUrl + "/admin/realms/" + realm + "/users/" + userId)
+        return keycloakClient.getWebClient().delete()
+                .uri(keycloakClient.getAdminUsersUri() + "/" + userId)
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + getClientCredentialsToken())
@@ -111,16 +165,97 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
                     }
                     return false;
                 })
+                .transform(call -> keycloakResilience.decorateIdempotent(OPERATION_DELETE_USER, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_DELETE_USER, call))
+                .doOnError(WebClientResponseException.class, this::invalidateClientCredentialsToken)
                 .onErrorMap(WebClientResponseException.class, error ->
                         new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while deleting user", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
+                .block();
+    }
+
+    @Override
+    public RoleRepresentation getRole(String roleName) {
+        log.info("getting keycloak realm role={}", roleName);
+        return keycloakClient.getWebClient().get()
+                .uri(keycloakClient.getAdminRolesUri() + "/{roleName}", roleName)
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + getClientCredentialsToken())
+                .retrieve()
+                .toEntity(RoleRepresentation.class)
+                .map(response -> {
+                    if (HttpStatus.OK.equals(response.getStatusCode())) {
+                        return response.getBody();
+                    }
+                    throw new UserException(HttpStatus.resolve(response.getStatusCode().value()), "unable to get role", null);
+                })
+                .transform(call -> keycloakResilience.decorateIdempotent(OPERATION_GET_ROLE, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_GET_ROLE, call))
+                .doOnError(WebClientResponseException.class, this::invalidateClientCredentialsToken)
+                .onErrorMap(WebClientResponseException.class, error ->
+                        new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while getting role", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
+                .block();
+    }
+
+    @Override
+    public List<UserRepresentation> getRoleUsers(String roleName, int first, int max) {
+        log.debug("getting users of keycloak realm role={} first={} max={}", roleName, first, max);
+        return keycloakClient.getWebClient().get()
+                .uri(keycloakClient.getAdminRolesUri() + "/{roleName}/users?first={first}&max={max}&briefRepresentation=true",
+                        roleName, first, max)
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + getClientCredentialsToken())
+                .retrieve()
+                .toEntityList(UserRepresentation.class)
+                .map(response -> {
+                    if (HttpStatus.OK.equals(response.getStatusCode())) {
+                        return response.getBody();
+                    }
+                    throw new UserException(HttpStatus.resolve(response.getStatusCode().value()), "unable to get role users", null);
+                })
+                .transform(call -> keycloakResilience.decorateIdempotent(OPERATION_GET_ROLE_USERS, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_GET_ROLE_USERS, call))
+                .doOnError(WebClientResponseException.class, this::invalidateClientCredentialsToken)
+                .onErrorMap(WebClientResponseException.class, error ->
+                        new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while getting role users", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
+                .block();
+    }
+
+    @Override
+    public List<RoleRepresentation> getUserRoles(UUID userId) {
+        log.debug("getting realm roles of keycloak user={}", userId);
+        return keycloakClient.getWebClient().get()
+                .uri(keycloakClient.getAdminUsersUri() + "/" + userId + "/role-mappings/realm")
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + getClientCredentialsToken())
+                .retrieve()
+                .toEntityList(RoleRepresentation.class)
+                .map(response -> {
+                    if (HttpStatus.OK.equals(response.getStatusCode())) {
+                        return response.getBody();
+                    }
+                    throw new UserException(HttpStatus.resolve(response.getStatusCode().value()), "unable to get user roles", null);
+                })
+                .transform(call -> keycloakResilience.decorateIdempotent(OPERATION_GET_USER_ROLES, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_GET_USER_ROLES, call))
+                .doOnError(WebClientResponseException.class, this::invalidateClientCredentialsToken)
+                .onErrorMap(WebClientResponseException.class, error ->
+                        new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while getting user roles", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
                 .block();
     }
 
     @Override
     public KeycloakAccessToken getAccessToken(String clientId, String clientSecret) {
         log.info("getting client credentials access token for {}", clientId);
-        return WebClient.create(baseUrl).post()
-                .uri(baseUrl + "/realms/" + realm + "/protocol/openid-connect/token")
+        return keycloakClient.getWebClient().post()
+                .uri(keycloakClient.getTokenUri())
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED_VALUE)
                 .body(BodyInserters
@@ -136,43 +271,23 @@ public class KeycloakClientServiceImpl implements KeycloakClientService {
                     }
                     throw new UserException(HttpStatus.resolve(response.getStatusCode().value()), "unable to get client token");
                 })
+                .transform(call -> keycloakResilience.decorateIdempotent(OPERATION_GET_ACCESS_TOKEN, call))
+                .transform(call -> keycloakClientMetrics.record(OPERATION_GET_ACCESS_TOKEN, call))
                 .onErrorMap(WebClientResponseException.class, error ->
                         new UserException(HttpStatus.resolve(error.getStatusCode().value()), "error encountered while getting client token", error))
+                .onErrorMap(KeycloakUnavailableException.class, error ->
+                        new UserException(error.getStatus(), error.getMessage(), error))
                 .block();
     }
 
     private String getClientCredentialsToken() {
-        try {
-            if (!isTokenValid(clientCredentialsToken)) {
-                clientCredentialsToken = getAccessToken(clientId, clientSecret).getAccessToken();
-            }
-        } catch (UserException ue) {
-            clientCredentialsToken = getAccessToken(clientId, clientSecret).getAccessToken();
-        }
-        return clientCredentialsToken;
+        return clientCredentialsTokenHolder.getToken();
     }
 
-    private boolean isTokenValid(String bearerToken) {
-        if (StringUtils.isNotBlank(bearerToken)) {
-            return WebClient.create(baseUrl).get()
-                    .uri(baseUrl + "/realms/" + realm + "/protocol/openid-connect/userinfo")
-                    .accept(MediaType.APPLICATION_JSON)
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED_VALUE)
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + bearerToken)
-                    .retrieve()
-                    .toEntity(JsonNode.class)
-                    .map(response -> {
-                        if (HttpStatus.OK.equals(response.getStatusCode())) {
-                            log.debug("token is valid");
-                            return true;
-                        }
-                        throw new UserException(HttpStatus.resolve(response.getStatusCode().value()), "invalid token");
-                    })
-                    .onErrorMap(WebClientResponseException.class, error ->
-                            new UserException(HttpStatus.resolve(error.getStatusCode().value()), "unable to get client userinfo", error))
-                    .block();
+    private void invalidateClientCredentialsToken(WebClientResponseException error) {
+        if (HttpStatus.UNAUTHORIZED.equals(HttpStatus.resolve(error.getStatusCode().value()))) {
+            clientCredentialsTokenHolder.invalidate();
         }
-        return false;
     }
 
 }
@@ -0,0 +1,166 @@
+package com.paralelogram.user.service.impl;
+
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.keycloak.RoleRepresentation;
+import com.paralelogram.user.repository.RoleRepository;
+import com.paralelogram.user.service.KeycloakClientService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory copy of {@code paralelogram_roles}, indexed by {@link RoleRequest} and by roleId.
+ * <p>
+ * Roles are loaded once the application is ready and reloaded every {@code refreshInterval}. A lookup that
+ * misses reloads on demand, at most once per {@code minRefreshInterval}, so a role added after startup is
+ * picked up without querying the database on every request. When {@code verifyInKeycloak} is set, startup
+ * fails unless every {@link RoleRequest} exists in keycloak with the same id.
+ */
+@Slf4j
+@Component
+public class RoleRegistry {
+
+    private final RoleRepository roleRepository;
+    private final KeycloakClientService keycloakClientService;
+    private final Duration refreshInterval;
+    private final Duration minRefreshInterval;
+    private final boolean verifyInKeycloak;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile Roles roles = new Roles(Map.of(), Map.of());
+    private volatile long lastRefreshNanos;
+    private Disposable scheduledRefresh;
+
+    public RoleRegistry(RoleRepository roleRepository,
+                        KeycloakClientService keycloakClientService,
+                        @Value("${user.roles.refresh-interval}") Duration refreshInterval,
+                        @Value("${user.roles.min-refresh-interval}") Duration minRefreshInterval,
+                        @Value("${user.roles.verify-in-keycloak}") boolean verifyInKeycloak) {
+        this.roleRepository = roleRepository;
+        this.keycloakClientService = keycloakClientService;
+        this.refreshInterval = refreshInterval;
+        this.minRefreshInterval = minRefreshInterval;
+        this.verifyInKeycloak = verifyInKeycloak;
+        this.lastRefreshNanos = System.nanoTime() - minRefreshInterval.toNanos();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        refresh();
+        if (verifyInKeycloak) {
+            verifyInKeycloak();
+        }
+        scheduledRefresh = Schedulers.boundedElastic().schedulePeriodically(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                log.warn("unable to refresh roles, serving last known roles: {}", e.getMessage());
+            }
+        }, refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.dispose();
+        }
+    }
+
+    public Optional<Role> get(RoleRequest roleRequest) {
+        Role role = roles.byRoleRequest().get(roleRequest);
+        if (role == null && refreshIfAllowed()) {
+            role = roles.byRoleRequest().get(roleRequest);
+        }
+        return Optional.ofNullable(role);
+    }
+
+    public Optional<Role> getByRoleId(UUID roleId) {
+        Role role = roles.byRoleId().get(roleId);
+        if (role == null && refreshIfAllowed()) {
+            role = roles.byRoleId().get(roleId);
+        }
+        return Optional.ofNullable(role);
+    }
+
+    /**
+     * Reloads every role from the database.
+     */
+    public void refresh() {
+        refreshLock.lock();
+        try {
+            lastRefreshNanos = System.nanoTime();
+            List<Role> loaded = roleRepository.findAll();
+            Map<RoleRequest, Role> byRoleRequest = new EnumMap<>(RoleRequest.class);
+            Map<UUID, Role> byRoleId = new HashMap<>();
+            for (Role role : loaded) {
+                byRoleId.put(role.getRoleId(), role);
+                for (RoleRequest roleRequest : RoleRequest.values()) {
+                    if (roleRequest.getValue().equals(role.getRoleName())) {
+                        byRoleRequest.put(roleRequest, role);
+                    }
+                }
+            }
+            roles = new Roles(byRoleRequest, byRoleId);
+            log.info("loaded {} roles", loaded.size());
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private boolean refreshIfAllowed() {
+        if (System.nanoTime() - lastRefreshNanos < minRefreshInterval.toNanos() || !refreshLock.tryLock()) {
+            return false;
+        }
+        try {
+            refresh();
+            return true;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void verifyInKeycloak() {
+        for (RoleRequest roleRequest : RoleRequest.values()) {
+            Role role = roles.byRoleRequest().get(roleRequest);
+            if (role == null) {
+                throw new IllegalStateException("role " + roleRequest.getValue() + " is missing in paralelogram_roles");
+            }
+            RoleRepresentation keycloakRole;
+            try {
+                keycloakRole = keycloakClientService.getRole(roleRequest.getValue());
+            } catch (UserException e) {
+                if (HttpStatus.NOT_FOUND.equals(e.getStatus())) {
+                    throw new IllegalStateException("role " + roleRequest.getValue() + " does not exist in keycloak", e);
+                }
+                throw e;
+            }
+            if (!role.getRoleId().toString().equals(keycloakRole.getId())) {
+                throw new IllegalStateException("role " + roleRequest.getValue() + " id " + role.getRoleId()
+                        + " does not match keycloak id " + keycloakRole.getId());
+            }
+        }
+        log.info("verified {} roles in keycloak", RoleRequest.values().length);
+    }
+
+    private record Roles(Map<RoleRequest, Role> byRoleRequest, Map<UUID, Role> byRoleId) {
+    }
+
+}
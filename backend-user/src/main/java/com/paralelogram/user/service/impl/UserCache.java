@@ -0,0 +1,92 @@
+package com.paralelogram.user.service.impl;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.paralelogram.user.model.UserResponse;
+import com.paralelogram.user.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Bounded read-through cache of users by userName.
+ * <p>
+ * Entries are immutable {@link UserResponse} projections rather than entities, so a cached user is never
+ * attached to a persistence context and holds only the columns the lookup returns.
+ * <p>
+ * Concurrent misses for the same userName share a single database load. Unknown userNames are cached
+ * for the shorter {@code negativeTtl} so repeated lookups of a missing user do not reach the database
+ * either. Every mutation of a user must {@link #invalidate(String)} its userName.
+ * <p>
+ * Users are loaded in a read-write transaction, which the routing data source serves from the primary. A load
+ * following an invalidation from a replica still behind the write would cache the stale row for the whole ttl.
+ */
+@Slf4j
+@Component
+public class UserCache {
+
+    private static final String CACHE_NAME = "users";
+
+    private final LoadingCache<String, Optional<UserResponse>> cache;
+
+    @Autowired
+    public UserCache(UserRepository userRepository,
+                     TransactionTemplate transactionTemplate,
+                     @Value("${user.cache.maximum-size}") long maximumSize,
+                     @Value("${user.cache.ttl}") Duration ttl,
+                     @Value("${user.cache.negative-ttl}") Duration negativeTtl,
+                     MeterRegistry meterRegistry) {
+        this(userRepository, transactionTemplate, maximumSize, ttl, negativeTtl, meterRegistry, Ticker.systemTicker());
+    }
+
+    public UserCache(UserRepository userRepository, TransactionTemplate transactionTemplate, long maximumSize, Duration ttl,
+                     Duration negativeTtl, MeterRegistry meterRegistry, Ticker ticker) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new PositiveNegativeExpiry(ttl, negativeTtl))
+                .ticker(ticker)
+                .recordStats()
+                .build(userName -> {
+                    log.debug("loading user {} into cache", userName);
+                    return transactionTemplate.execute(status -> userRepository.findUserResponseByUserName(userName));
+                });
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public Optional<UserResponse> get(String userName) {
+        return cache.get(userName);
+    }
+
+    public void invalidate(String userName) {
+        cache.invalidate(userName);
+    }
+
+    private record PositiveNegativeExpiry(Duration ttl, Duration negativeTtl) implements Expiry<String, Optional<UserResponse>> {
+
+        @Override
+        public long expireAfterCreate(String userName, Optional<UserResponse> user, long currentTime) {
+            return user.isPresent() ? ttl.toNanos() : negativeTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String userName, Optional<UserResponse> user, long currentTime, long currentDuration) {
+            return expireAfterCreate(userName, user, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String userName, Optional<UserResponse> user, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.paralelogram.user.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.UserResponse;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.UserExportService;
+import com.paralelogram.user.service.UserImportService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Streams every user straight from a database cursor into the response.
+ * <p>
+ * Rows are read as {@link UserResponse} projections, which are never added to a persistence context, and
+ * written as they arrive, so heap use does not grow with the number of users. An export keeps a database
+ * connection for as long as it streams, at most {@code maxConcurrentExports} run at once.
+ * <p>
+ * The permit of an export is taken before the response starts, so a busy service still answers {@code 429}. It is
+ * given back when the body completes, or when the async request ends without running it, e.g. because the
+ * executor rejected it, it timed out before being dispatched or the client went away first.
+ */
+@Slf4j
+@Service
+public class UserExportServiceImpl implements UserExportService {
+
+    private static final String CSV_HEADER = "userId,userName,email,firstName,lastName,role";
+    private static final int FLUSH_INTERVAL = 500;
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Semaphore exports;
+
+    public UserExportServiceImpl(UserRepository userRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 ObjectMapper objectMapper,
+                                 @Value("${user.export.max-concurrent-exports}") int maxConcurrentExports) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.exports = new Semaphore(maxConcurrentExports);
+    }
+
+    @Override
+    public StreamingResponseBody exportUsers(MediaType format) {
+        boolean csv = UserImportService.TEXT_CSV.isCompatibleWith(format);
+        if (!csv && !MediaType.APPLICATION_NDJSON.isCompatibleWith(format)) {
+            throw new UserException(HttpStatus.NOT_ACCEPTABLE, format + " media type is not supported", null);
+        }
+        if (!exports.tryAcquire()) {
+            throw new UserException(HttpStatus.TOO_MANY_REQUESTS, "too many exports in progress", null);
+        }
+        ExportPermit permit = new ExportPermit();
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes instanceof ServletRequestAttributes servletRequestAttributes) {
+            WebAsyncUtils.getAsyncManager(servletRequestAttributes.getRequest())
+                    .registerCallableInterceptor(ExportPermit.class.getName(), permit);
+        }
+        return output -> {
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                // postgres only honours the fetch size, and keeps the cursor open, inside a transaction
+                long exported = transactionTemplate.execute(status -> write(writer, csv));
+                writer.flush();
+                log.info("exported {} users", exported);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                permit.release();
+            }
+        };
+    }
+
+    private long write(Writer writer, boolean csv) {
+        long exported = 0;
+        try (Stream<UserResponse> users = userRepository.streamUserResponses()) {
+            if (csv) {
+                writer.write(CSV_HEADER);
+                writer.write('\n');
+            }
+            Iterator<UserResponse> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                UserResponse user = iterator.next();
+                writer.write(csv ? toCsv(user) : objectMapper.writeValueAsString(user));
+                writer.write('\n');
+                if (++exported % FLUSH_INTERVAL == 0) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return exported;
+    }
+
+    /**
+     * Releases the export permit once, from whichever of the body or the end of the async request comes first.
+     */
+    private class ExportPermit implements CallableProcessingInterceptor {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                exports.release();
+            }
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+            release();
+        }
+
+    }
+
+    private static String toCsv(UserResponse user) {
+        return String.join(",",
+                user.userId() == null ? "" : user.userId().toString(),
+                escapeCsv(user.userName()),
+                escapeCsv(user.email()),
+                escapeCsv(user.firstName()),
+                escapeCsv(user.lastName()),
+                escapeCsv(user.role()));
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+}
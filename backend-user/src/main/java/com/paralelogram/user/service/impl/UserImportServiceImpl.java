@@ -0,0 +1,454 @@
+package com.paralelogram.user.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paralelogram.user.entity.OutboxEvent;
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.AddUserRequest;
+import com.paralelogram.user.model.ImportUserResult;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.keycloak.CredentialRepresentation;
+import com.paralelogram.user.model.keycloak.RoleRepresentation;
+import com.paralelogram.user.model.keycloak.UserRepresentation;
+import com.paralelogram.user.repository.OutboxEventRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.KeycloakClientService;
+import com.paralelogram.user.service.UserImportService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Streams a bulk import through keycloak and the database one chunk of {@code batchSize} rows at a time.
+ * <p>
+ * The next chunk is only read once the results of the previous one have been handed over, so memory is
+ * bounded by the chunk size and a slow client reading the results slows the import down instead of
+ * buffering them. Rows of a chunk are provisioned in keycloak at most {@code concurrency} at a time and
+ * inserted with a single JDBC batch, an import therefore holds at most one database connection and at
+ * most {@code maxConcurrentImports} imports run at once.
+ * <p>
+ * The userNames of a chunk are reserved before any keycloak call, the same way a single user is added, so an
+ * import racing another import or an added user never creates a second keycloak user for a userName. A failed
+ * row never fails the import, it is reported with its line, its reservation is marked failed and the keycloak
+ * user created for it, if any, is deleted by the outbox workers.
+ */
+@Slf4j
+@Service
+public class UserImportServiceImpl implements UserImportService {
+
+    private static final List<String> REQUIRED_CSV_COLUMNS = List.of("userName", "email", "password", "role");
+
+    private final RoleRegistry roleRegistry;
+    private final UserRepository userRepository;
+    private final UserProvisioningRepository userProvisioningRepository;
+    private final OutboxEventRepository outboxEventRepository;
+    private final KeycloakClientService keycloakClientService;
+    private final UserCache userCache;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int concurrency;
+    private final Semaphore imports;
+
+    public UserImportServiceImpl(RoleRegistry roleRegistry,
+                                 UserRepository userRepository,
+                                 UserProvisioningRepository userProvisioningRepository,
+                                 OutboxEventRepository outboxEventRepository,
+                                 KeycloakClientService keycloakClientService,
+                                 UserCache userCache,
+                                 TransactionTemplate transactionTemplate,
+                                 ObjectMapper objectMapper,
+                                 @Value("${user.import.batch-size}") int batchSize,
+                                 @Value("${user.import.concurrency}") int concurrency,
+                                 @Value("${user.import.max-concurrent-imports}") int maxConcurrentImports) {
+        this.roleRegistry = roleRegistry;
+        this.userRepository = userRepository;
+        this.userProvisioningRepository = userProvisioningRepository;
+        this.outboxEventRepository = outboxEventRepository;
+        this.keycloakClientService = keycloakClientService;
+        this.userCache = userCache;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.imports = new Semaphore(maxConcurrentImports);
+    }
+
+    @Override
+    public void importUsers(InputStream input, MediaType format, Consumer<List<ImportUserResult>> results) throws IOException {
+        RowParser parser = getRowParser(format);
+        if (!imports.tryAcquire()) {
+            throw new UserException(HttpStatus.TOO_MANY_REQUESTS, "too many imports in progress", null);
+        }
+        long rows = 0;
+        long created = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            List<Row> chunk = new ArrayList<>(batchSize);
+            long line = 0;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                Row row = StringUtils.isBlank(text) ? null : parser.parse(line, text);
+                if (row == null) {
+                    continue;
+                }
+                chunk.add(row);
+                if (chunk.size() == batchSize) {
+                    rows += chunk.size();
+                    created += importChunk(chunk, results);
+                    chunk = new ArrayList<>(batchSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                rows += chunk.size();
+                created += importChunk(chunk, results);
+            }
+        } finally {
+            imports.release();
+            log.info("imported users, rows={} created={}", rows, created);
+        }
+    }
+
+    private long importChunk(List<Row> rows, Consumer<List<ImportUserResult>> chunkResults) {
+        List<ImportUserResult> results = new ArrayList<>(rows.size());
+        List<Candidate> candidates = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            AddUserRequest request = row.request();
+            if (row.error() != null) {
+                results.add(ImportUserResult.failed(row.line(), request == null ? null : request.getUserName(), row.error()));
+            } else {
+                roleRegistry.get(request.getRole()).ifPresentOrElse(
+                        role -> candidates.add(new Candidate(row.line(), request, role, UUID.randomUUID())),
+                        () -> results.add(ImportUserResult.failed(row.line(), request.getUserName(), "invalid role " + request.getRole().name())));
+            }
+        }
+
+        List<Provisioned> provisioned = Flux.fromIterable(reserve(candidates, results))
+                .flatMapSequential(candidate -> Mono.fromCallable(() -> provision(candidate))
+                        .subscribeOn(Schedulers.boundedElastic()), concurrency)
+                .collectList()
+                .block();
+
+        List<Provisioned> toSave = new ArrayList<>(provisioned.size());
+        List<Provisioned> failed = new ArrayList<>();
+        provisioned.forEach(row -> (row.error() == null ? toSave : failed).add(row));
+        results.addAll(save(toSave, failed));
+        release(failed);
+        failed.forEach(row -> results.add(ImportUserResult.failed(row.candidate().line(), row.candidate().request().getUserName(), row.error())));
+        results.sort(Comparator.comparingLong(ImportUserResult::line));
+        chunkResults.accept(results);
+        return results.stream().filter(result -> result.status() == ImportUserResult.Status.CREATED).count();
+    }
+
+    /**
+     * Claims the userNames of the chunk with one insert each in a single transaction instead of looking them up
+     * first, a row whose userName is taken, also by an earlier row of the chunk, is reported failed.
+     */
+    private List<Candidate> reserve(List<Candidate> candidates, List<ImportUserResult> results) {
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        List<Candidate> reserved = new ArrayList<>(candidates.size());
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Candidate candidate : candidates) {
+                AddUserRequest request = candidate.request();
+                if (userProvisioningRepository.reserve(UserProvisioning.builder()
+                        .provisioningId(candidate.provisioningId())
+                        .status(ProvisioningStatus.PENDING)
+                        .userName(request.getUserName())
+                        .firstName(request.getFirstName())
+                        .lastName(request.getLastName())
+                        .email(request.getEmail())
+                        .role(candidate.role())
+                        .build()) == 0) {
+                    results.add(ImportUserResult.failed(candidate.line(), request.getUserName(), "userName " + request.getUserName() + " already exists"));
+                } else {
+                    reserved.add(candidate);
+                }
+            }
+        });
+        return reserved;
+    }
+
+    private Provisioned provision(Candidate candidate) {
+        AddUserRequest request = candidate.request();
+        UUID userId;
+        try {
+            userId = keycloakClientService.createUser(UserRepresentation.builder()
+                    .username(request.getUserName())
+                    .firstName(request.getFirstName())
+                    .lastName(request.getLastName())
+                    .email(request.getEmail())
+                    .credentials(List.of(CredentialRepresentation.builder()
+                            .type("password")
+                            .value(request.getPassword())
+                            .build()))
+                    .enabled(Boolean.TRUE)
+                    .build());
+        } catch (RuntimeException e) {
+            return new Provisioned(candidate, null, getErrorMessage(e, "unable to create user"));
+        }
+        if (userId == null) {
+            return new Provisioned(candidate, null, "unable to create user");
+        }
+
+        String error = "unable to add user role";
+        try {
+            if (keycloakClientService.addUserRole(userId, List.of(RoleRepresentation.builder()
+                    .id(candidate.role().getRoleId().toString()).name(candidate.role().getRoleName()).build()))) {
+                return new Provisioned(candidate, userId, null);
+            }
+        } catch (RuntimeException e) {
+            error = getErrorMessage(e, error);
+        }
+        return new Provisioned(candidate, userId, error);
+    }
+
+    /**
+     * Inserts the users and marks their reservations provisioned, the rows that could not be inserted are added
+     * to {@code failed}.
+     */
+    private List<ImportUserResult> save(List<Provisioned> toSave, List<Provisioned> failed) {
+        if (toSave.isEmpty()) {
+            return List.of();
+        }
+        List<ImportUserResult> results = new ArrayList<>(toSave.size());
+        try {
+            List<User> users = toSave.stream().map(this::toUser).toList();
+            transactionTemplate.executeWithoutResult(status -> {
+                userRepository.saveAll(users);
+                Instant now = Instant.now();
+                toSave.forEach(row -> userProvisioningRepository.updateStatus(row.candidate().provisioningId(),
+                        ProvisioningStatus.PROVISIONED, row.userId(), null, now));
+            });
+            toSave.forEach(row -> results.add(saved(row)));
+            return results;
+        } catch (RuntimeException e) {
+            log.warn("batch insert of {} users failed, inserting one by one: {}", toSave.size(), e.getMessage());
+        }
+        // isolates the offending rows so a single conflict does not fail the whole chunk
+        toSave.forEach(row -> {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    userRepository.save(toUser(row));
+                    userProvisioningRepository.updateStatus(row.candidate().provisioningId(), ProvisioningStatus.PROVISIONED,
+                            row.userId(), null, Instant.now());
+                });
+                results.add(saved(row));
+            } catch (RuntimeException e) {
+                log.error("unable to save imported user={}", row.candidate().request().getUserName(), e);
+                failed.add(new Provisioned(row.candidate(), row.userId(), "unable to save user"));
+            }
+        });
+        return results;
+    }
+
+    private ImportUserResult saved(Provisioned row) {
+        // drops a negative entry cached while the userName did not exist yet
+        userCache.invalidate(row.candidate().request().getUserName());
+        return ImportUserResult.created(row.candidate().line(), row.candidate().request().getUserName(), row.userId());
+    }
+
+    /**
+     * Frees the userNames of the failed rows in one transaction, the keycloak users created for them are deleted
+     * by the outbox workers with retries.
+     */
+    private void release(List<Provisioned> failed) {
+        if (failed.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Instant now = Instant.now();
+                List<OutboxEvent> events = new ArrayList<>();
+                for (Provisioned row : failed) {
+                    userProvisioningRepository.updateStatus(row.candidate().provisioningId(), ProvisioningStatus.FAILED, row.userId(),
+                            StringUtils.abbreviate(row.error(), 255), now);
+                    if (row.userId() != null) {
+                        events.add(OutboxEvent.builder()
+                                .eventType(OutboxEvent.Type.DELETE_KEYCLOAK_USER)
+                                .aggregateId(row.candidate().provisioningId())
+                                .nextAttemptAt(now)
+                                .build());
+                    }
+                }
+                if (!events.isEmpty()) {
+                    outboxEventRepository.saveAll(events);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("unable to release the userNames of {} failed import rows", failed.size(), e);
+        }
+    }
+
+    private User toUser(Provisioned row) {
+        AddUserRequest request = row.candidate().request();
+        return User.builder()
+                .userId(row.userId())
+                .userName(request.getUserName())
+                .firstName(request.getFirstName())
+                .lastName(request.getLastName())
+                .email(request.getEmail())
+                .role(row.candidate().role())
+                .build();
+    }
+
+    private static String getErrorMessage(RuntimeException e, String defaultMessage) {
+        return e instanceof UserException userException && userException.getMessage() != null
+                ? userException.getMessage() : defaultMessage;
+    }
+
+    private RowParser getRowParser(MediaType format) {
+        if (MediaType.APPLICATION_NDJSON.isCompatibleWith(format)) {
+            return this::parseJson;
+        }
+        if (TEXT_CSV.isCompatibleWith(format)) {
+            return new CsvRowParser();
+        }
+        throw new UserException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, format + " media type is not supported", null);
+    }
+
+    private Row parseJson(long line, String text) {
+        try {
+            return Row.of(line, objectMapper.readValue(text, AddUserRequest.class));
+        } catch (JsonProcessingException e) {
+            return new Row(line, null, "malformed row");
+        }
+    }
+
+    static List<String> splitCsv(String text) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private interface RowParser {
+
+        /**
+         * Returns {@code null} for lines that are not a user, such as a header.
+         */
+        Row parse(long line, String text);
+
+    }
+
+    /**
+     * Parses RFC 4180 style rows without line breaks inside quoted values, the first line is a header
+     * naming the {@link AddUserRequest} field of every column.
+     */
+    private static final class CsvRowParser implements RowParser {
+
+        private List<String> header;
+
+        @Override
+        public Row parse(long line, String text) {
+            List<String> values = splitCsv(text);
+            if (header == null) {
+                header = values.stream().map(String::trim).toList();
+                if (!header.containsAll(REQUIRED_CSV_COLUMNS)) {
+                    throw new UserException(HttpStatus.BAD_REQUEST, "csv header must contain " + String.join(",", REQUIRED_CSV_COLUMNS), null);
+                }
+                return null;
+            }
+            if (values.size() != header.size()) {
+                return new Row(line, null, "expected " + header.size() + " columns but found " + values.size());
+            }
+            Map<String, String> fields = new HashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                fields.put(header.get(i), StringUtils.trimToNull(values.get(i)));
+            }
+            AddUserRequest request = AddUserRequest.builder()
+                    .userName(fields.get("userName"))
+                    .firstName(fields.get("firstName"))
+                    .lastName(fields.get("lastName"))
+                    .email(fields.get("email"))
+                    .password(fields.get("password"))
+                    .build();
+            String role = fields.get("role");
+            if (role != null) {
+                try {
+                    request.setRole(RoleRequest.valueOf(role.toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    return new Row(line, request, "invalid role " + role);
+                }
+            }
+            return Row.of(line, request);
+        }
+
+    }
+
+    private record Row(long line, AddUserRequest request, String error) {
+
+        static Row of(long line, AddUserRequest request) {
+            // a json line holding the literal null
+            if (request == null) {
+                return new Row(line, null, "malformed row");
+            }
+            if (StringUtils.isAnyBlank(request.getUserName(), request.getEmail(), request.getPassword()) || request.getRole() == null) {
+                return new Row(line, request, "userName, email, password and role are required");
+            }
+            request.setUserName(UserNames.normalize(request.getUserName()));
+            return new Row(line, request, null);
+        }
+
+    }
+
+    private record Candidate(long line, AddUserRequest request, Role role, UUID provisioningId) {
+    }
+
+    /**
+     * A reserved row after its keycloak calls, {@code error} is {@code null} once the keycloak user has its role.
+     */
+    private record Provisioned(Candidate candidate, UUID userId, String error) {
+    }
+
+}
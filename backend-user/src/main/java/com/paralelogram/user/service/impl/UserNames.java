@@ -0,0 +1,18 @@
+package com.paralelogram.user.service.impl;
+
+import java.util.Locale;
+
+/**
+ * Keycloak matches userNames case-insensitively and stores them lowercased, local rows and lookups use
+ * the same canonical form so they can be matched exactly on the user_name index.
+ */
+final class UserNames {
+
+    private UserNames() {
+    }
+
+    static String normalize(String userName) {
+        return userName == null ? null : userName.trim().toLowerCase(Locale.ROOT);
+    }
+
+}
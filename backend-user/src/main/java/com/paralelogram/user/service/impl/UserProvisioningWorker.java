@@ -0,0 +1,332 @@
+package com.paralelogram.user.service.impl;
+
+import com.paralelogram.user.entity.OutboxEvent;
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.keycloak.CredentialRepresentation;
+import com.paralelogram.user.model.keycloak.RoleRepresentation;
+import com.paralelogram.user.model.keycloak.UserRepresentation;
+import com.paralelogram.user.repository.OutboxEventRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.KeycloakClientService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries out the outbox events written by an asynchronous {@code POST /user}.
+ * <p>
+ * Every {@code pollInterval} up to {@code batchSize} due events are locked with {@code skip locked}, so several
+ * instances never claim the same event, and leased for {@code lease} by pushing their next attempt back. The
+ * claimed events run at most {@code concurrency} at a time, which bounds the keycloak load provisioning adds,
+ * and a full batch is followed by the next one at once.
+ * <p>
+ * A provisioning records the keycloak userId as soon as the user is created, so a retry only repeats the
+ * steps that did not complete. When an attempt failed before recording it, the retry gets a {@code 409} for the
+ * userName and continues with the keycloak user the earlier attempt created. Keycloak outages, that is network
+ * errors, {@code 5xx} and {@code 429} responses, and database errors are retried with jittered exponential
+ * backoff up to {@code maxAttempts}. Any other failure, or running out of attempts, marks the provisioning
+ * {@link ProvisioningStatus#FAILED} and queues the deletion of the keycloak user created for it, if any. That
+ * deletion is never given up, once out of attempts it stays in the outbox and is retried after at most
+ * {@code maxBackoff}.
+ */
+@Slf4j
+@Component
+public class UserProvisioningWorker {
+
+    // tolerated difference between the clocks of keycloak and postgres
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final UserProvisioningRepository userProvisioningRepository;
+    private final UserRepository userRepository;
+    private final KeycloakClientService keycloakClientService;
+    private final UserCache userCache;
+    private final CredentialCipher credentialCipher;
+    private final TransactionTemplate transactionTemplate;
+    private final int concurrency;
+    private final int batchSize;
+    private final Duration pollInterval;
+    private final Duration lease;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private Disposable scheduledPoll;
+
+    public UserProvisioningWorker(OutboxEventRepository outboxEventRepository,
+                                  UserProvisioningRepository userProvisioningRepository,
+                                  UserRepository userRepository,
+                                  KeycloakClientService keycloakClientService,
+                                  UserCache userCache,
+                                  CredentialCipher credentialCipher,
+                                  TransactionTemplate transactionTemplate,
+                                  @Value("${user.provisioning.concurrency}") int concurrency,
+                                  @Value("${user.provisioning.batch-size}") int batchSize,
+                                  @Value("${user.provisioning.poll-interval}") Duration pollInterval,
+                                  @Value("${user.provisioning.lease}") Duration lease,
+                                  @Value("${user.provisioning.max-attempts}") int maxAttempts,
+                                  @Value("${user.provisioning.initial-backoff}") Duration initialBackoff,
+                                  @Value("${user.provisioning.max-backoff}") Duration maxBackoff) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.userProvisioningRepository = userProvisioningRepository;
+        this.userRepository = userRepository;
+        this.keycloakClientService = keycloakClientService;
+        this.userCache = userCache;
+        this.credentialCipher = credentialCipher;
+        this.transactionTemplate = transactionTemplate;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.pollInterval = pollInterval;
+        this.lease = lease;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduledPoll = Schedulers.boundedElastic().schedulePeriodically(() -> {
+            try {
+                while (poll() == batchSize) {
+                    log.debug("outbox batch was full, polling again");
+                }
+            } catch (RuntimeException e) {
+                log.warn("unable to poll the outbox: {}", e.getMessage());
+            }
+        }, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduledPoll != null) {
+            scheduledPoll.dispose();
+        }
+    }
+
+    /**
+     * Claims the due events and carries them out, returns how many were claimed.
+     */
+    public int poll() {
+        List<OutboxEvent> events = claim();
+        if (!events.isEmpty()) {
+            Flux.fromIterable(events)
+                    .flatMap(event -> Mono.fromRunnable(() -> handle(event))
+                            .subscribeOn(Schedulers.boundedElastic()), concurrency)
+                    .blockLast();
+        }
+        return events.size();
+    }
+
+    private List<OutboxEvent> claim() {
+        return transactionTemplate.execute(status -> {
+            Instant now = Instant.now();
+            List<OutboxEvent> events = outboxEventRepository.findDueForUpdate(now, Limit.of(batchSize));
+            for (OutboxEvent event : events) {
+                // the lease, an event whose worker died is picked up again once it expires
+                event.setAttempts(event.getAttempts() + 1);
+                event.setNextAttemptAt(now.plus(lease));
+            }
+            return events;
+        });
+    }
+
+    private void handle(OutboxEvent event) {
+        try {
+            switch (event.getEventType()) {
+                case PROVISION_USER -> provision(event);
+                case DELETE_KEYCLOAK_USER -> deleteKeycloakUser(event);
+            }
+        } catch (RuntimeException e) {
+            if (event.getEventType() == OutboxEvent.Type.DELETE_KEYCLOAK_USER) {
+                // never dropped, the keycloak user would be left behind, retried after at most maxBackoff once out of attempts
+                retryLater(event, e);
+            } else if (isTransient(e) && event.getAttempts() < maxAttempts) {
+                retryLater(event, e);
+            } else {
+                giveUp(event, e);
+            }
+        }
+    }
+
+    private void provision(OutboxEvent event) {
+        // read in a read-write transaction so it comes from the primary, a replica may lag behind the last attempt
+        UserProvisioning provisioning = transactionTemplate.execute(status ->
+                userProvisioningRepository.findByProvisioningId(event.getAggregateId()).orElse(null));
+        if (provisioning == null || provisioning.getStatus() != ProvisioningStatus.PENDING) {
+            transactionTemplate.executeWithoutResult(status -> outboxEventRepository.deleteById(event.getId()));
+            return;
+        }
+
+        if (provisioning.getUserId() == null) {
+            UUID userId = createKeycloakUser(event, provisioning);
+            if (userId == null) {
+                throw new UserException(HttpStatus.BAD_REQUEST, "unable to create user", null);
+            }
+            provisioning.setUserId(userId);
+            // recorded at once so a retry continues with this user instead of creating another one
+            transactionTemplate.executeWithoutResult(status -> userProvisioningRepository.save(provisioning));
+        }
+
+        if (!keycloakClientService.addUserRole(provisioning.getUserId(), List.of(RoleRepresentation.builder()
+                .id(provisioning.getRole().getRoleId().toString()).name(provisioning.getRole().getRoleName()).build()))) {
+            throw new UserException(HttpStatus.BAD_REQUEST, "unable to add user role", null);
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            userRepository.save(User.builder()
+                    .userId(provisioning.getUserId())
+                    .userName(provisioning.getUserName())
+                    .firstName(provisioning.getFirstName())
+                    .lastName(provisioning.getLastName())
+                    .email(provisioning.getEmail())
+                    .role(provisioning.getRole())
+                    .build());
+            provisioning.setStatus(ProvisioningStatus.PROVISIONED);
+            userProvisioningRepository.save(provisioning);
+            outboxEventRepository.deleteById(event.getId());
+        });
+        // drops a negative entry cached while the userName did not exist yet
+        userCache.invalidate(provisioning.getUserName());
+        log.info("provisioned user={} userId={} after {} attempts", provisioning.getUserName(), provisioning.getUserId(), event.getAttempts());
+    }
+
+    private UUID createKeycloakUser(OutboxEvent event, UserProvisioning provisioning) {
+        try {
+            return keycloakClientService.createUser(UserRepresentation.builder()
+                    .username(provisioning.getUserName())
+                    .firstName(provisioning.getFirstName())
+                    .lastName(provisioning.getLastName())
+                    .email(provisioning.getEmail())
+                    .credentials(List.of(CredentialRepresentation.builder()
+                            .type("password")
+                            .value(credentialCipher.decrypt(event.getPayload(), provisioning.getProvisioningId()))
+                            .build()))
+                    .enabled(Boolean.TRUE)
+                    .build());
+        } catch (UserException e) {
+            if (e.getStatus() != HttpStatus.CONFLICT || event.getAttempts() <= 1) {
+                throw e;
+            }
+            // an earlier attempt may have created the user and failed before recording its id, continue with it
+            UUID userId = findCreatedKeycloakUser(provisioning);
+            if (userId == null) {
+                throw e;
+            }
+            log.info("continuing provisioning={} with keycloak user={} created by an earlier attempt",
+                    provisioning.getProvisioningId(), userId);
+            return userId;
+        }
+    }
+
+    private UUID findCreatedKeycloakUser(UserProvisioning provisioning) {
+        UserRepresentation user = keycloakClientService.findUserByUserName(provisioning.getUserName());
+        // never a user that held the userName before this provisioning was accepted
+        if (user == null || user.getCreatedTimestamp() == null
+                || Instant.ofEpochMilli(user.getCreatedTimestamp()).isBefore(provisioning.getCreatedAt().minus(CLOCK_SKEW))
+                || !StringUtils.equalsIgnoreCase(user.getEmail(), provisioning.getEmail())) {
+            return null;
+        }
+        return UUID.fromString(user.getId());
+    }
+
+    private void deleteKeycloakUser(OutboxEvent event) {
+        UserProvisioning provisioning = transactionTemplate.execute(status ->
+                userProvisioningRepository.findByProvisioningId(event.getAggregateId()).orElse(null));
+        if (provisioning != null && provisioning.getUserId() != null) {
+            try {
+                keycloakClientService.deleteUser(provisioning.getUserId());
+            } catch (UserException e) {
+                if (e.getStatus() != HttpStatus.NOT_FOUND) {
+                    throw e;
+                }
+            }
+            log.info("deleted keycloak user={} of failed provisioning={}", provisioning.getUserId(), provisioning.getProvisioningId());
+        }
+        transactionTemplate.executeWithoutResult(status -> outboxEventRepository.deleteById(event.getId()));
+    }
+
+    private void retryLater(OutboxEvent event, RuntimeException e) {
+        Duration backoff = backoff(event.getAttempts());
+        if (event.getAttempts() >= maxAttempts) {
+            log.error("{} of {} still failing after {} attempts, retrying in {}", event.getEventType(),
+                    event.getAggregateId(), event.getAttempts(), backoff, e);
+        } else {
+            log.warn("{} of {} failed on attempt {}, retrying in {}: {}", event.getEventType(), event.getAggregateId(),
+                    event.getAttempts(), backoff, e.getMessage());
+        }
+        transactionTemplate.executeWithoutResult(status -> outboxEventRepository.findById(event.getId())
+                .ifPresent(current -> current.setNextAttemptAt(Instant.now().plus(backoff))));
+    }
+
+    private void giveUp(OutboxEvent event, RuntimeException e) {
+        String error = getErrorMessage(e);
+        log.error("provisioning={} failed after {} attempts: {}", event.getAggregateId(), event.getAttempts(), error, e);
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxEventRepository.deleteById(event.getId());
+            userProvisioningRepository.findByProvisioningId(event.getAggregateId()).ifPresent(provisioning -> {
+                provisioning.setStatus(ProvisioningStatus.FAILED);
+                provisioning.setError(error);
+                if (provisioning.getUserId() != null) {
+                    // compensates through the outbox so a keycloak outage cannot leave the user behind
+                    outboxEventRepository.save(OutboxEvent.builder()
+                            .eventType(OutboxEvent.Type.DELETE_KEYCLOAK_USER)
+                            .aggregateId(provisioning.getProvisioningId())
+                            .nextAttemptAt(Instant.now())
+                            .build());
+                }
+            });
+        });
+    }
+
+    private Duration backoff(int attempts) {
+        long exponential = initialBackoff.toMillis() << Math.min(attempts - 1, 20);
+        long capped = Math.min(exponential, maxBackoff.toMillis());
+        // between half and the full backoff, spreads the retries of events that failed together
+        return Duration.ofMillis(capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1));
+    }
+
+    private static boolean isTransient(RuntimeException e) {
+        if (e instanceof UserException userException) {
+            HttpStatus status = userException.getStatus();
+            return status != null && (status.is5xxServerError() || status == HttpStatus.TOO_MANY_REQUESTS);
+        }
+        // a connection to keycloak that failed before any response
+        return e instanceof WebClientRequestException
+                || (e instanceof DataAccessException && !(e instanceof DataIntegrityViolationException))
+                || e instanceof TransactionException;
+    }
+
+    private static String getErrorMessage(RuntimeException e) {
+        if (e instanceof DataIntegrityViolationException) {
+            return "userName or email already exists";
+        }
+        return e instanceof UserException userException && userException.getMessage() != null
+                ? userException.getMessage() : "unable to provision user";
+    }
+
+}
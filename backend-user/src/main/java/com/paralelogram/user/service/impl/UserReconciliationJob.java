@@ -0,0 +1,428 @@
+package com.paralelogram.user.service.impl;
+
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.ReconciliationCheckpoint;
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.keycloak.RoleRepresentation;
+import com.paralelogram.user.model.keycloak.UserRepresentation;
+import com.paralelogram.user.repository.ReconciliationCheckpointRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.KeycloakClientService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Repairs the drift between keycloak and paralelogram_user, such as users deleted in the keycloak console,
+ * keycloak users left behind without a local user and roles changed out of band.
+ * <p>
+ * A run pages through the users of every managed realm role, which keycloak returns ordered by username, with up
+ * to {@code concurrency} pages of {@code pageSize} fetched at once. A page is matched with the local users on
+ * user_id: missing users are inserted and changed ones updated. Local users of the role whose userName falls within
+ * the page but which keycloak did not return are looked up one by one, then deleted or given their current role.
+ * The fixes of a page are written with JDBC batches in the transaction that also stores the checkpoint, so a
+ * restarted instance resumes the run at the next page instead of starting over. Deleting or renaming a user also
+ * releases the userName its provisioning reserved.
+ * <p>
+ * Keycloak users younger than {@code gracePeriod}, or whose provisioning has not finished, are left to it. A user
+ * holding several managed roles keeps the first one in {@link RoleRequest} order. Runs start {@code period} after
+ * the previous one completed and are carried forward by the one instance holding the checkpoint lock.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "user.reconciliation.enabled", havingValue = "true")
+public class UserReconciliationJob {
+
+    static final String CHECKPOINT = "keycloak-users";
+
+    private final ReconciliationCheckpointRepository checkpointRepository;
+    private final UserRepository userRepository;
+    private final UserProvisioningRepository userProvisioningRepository;
+    private final KeycloakClientService keycloakClientService;
+    private final RoleRegistry roleRegistry;
+    private final UserCache userCache;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration period;
+    private final Duration pollInterval;
+    private final int pageSize;
+    private final int concurrency;
+    private final Duration gracePeriod;
+    private final Duration lease;
+    private final Counter created;
+    private final Counter updated;
+    private final Counter deleted;
+    private final String owner = UUID.randomUUID().toString();
+    private volatile boolean stopped;
+    private Disposable scheduledRun;
+
+    public UserReconciliationJob(ReconciliationCheckpointRepository checkpointRepository,
+                                 UserRepository userRepository,
+                                 UserProvisioningRepository userProvisioningRepository,
+                                 KeycloakClientService keycloakClientService,
+                                 RoleRegistry roleRegistry,
+                                 UserCache userCache,
+                                 TransactionTemplate transactionTemplate,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${user.reconciliation.period}") Duration period,
+                                 @Value("${user.reconciliation.poll-interval}") Duration pollInterval,
+                                 @Value("${user.reconciliation.page-size}") int pageSize,
+                                 @Value("${user.reconciliation.concurrency}") int concurrency,
+                                 @Value("${user.reconciliation.grace-period}") Duration gracePeriod,
+                                 @Value("${user.reconciliation.lease}") Duration lease) {
+        this.checkpointRepository = checkpointRepository;
+        this.userRepository = userRepository;
+        this.userProvisioningRepository = userProvisioningRepository;
+        this.keycloakClientService = keycloakClientService;
+        this.roleRegistry = roleRegistry;
+        this.userCache = userCache;
+        this.transactionTemplate = transactionTemplate;
+        this.period = period;
+        this.pollInterval = pollInterval;
+        this.pageSize = pageSize;
+        this.concurrency = concurrency;
+        this.gracePeriod = gracePeriod;
+        this.lease = lease;
+        this.created = fixes(meterRegistry, "created");
+        this.updated = fixes(meterRegistry, "updated");
+        this.deleted = fixes(meterRegistry, "deleted");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduledRun = Schedulers.boundedElastic().schedulePeriodically(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                log.warn("keycloak reconciliation interrupted, resuming at the next poll: {}", e.getMessage());
+            }
+        }, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        if (scheduledRun != null) {
+            scheduledRun.dispose();
+        }
+    }
+
+    /**
+     * Starts a run when one is due, or resumes the current one, and carries it forward until it completes.
+     */
+    public void reconcile() {
+        Instant now = Instant.now();
+        if (checkpointRepository.lock(CHECKPOINT, owner, now.plus(lease), now) == 0) {
+            log.debug("keycloak reconciliation is carried out by another instance");
+            return;
+        }
+        try {
+            ReconciliationCheckpoint checkpoint = transactionTemplate.execute(status -> checkpointRepository.findById(CHECKPOINT))
+                    .orElseThrow(() -> new IllegalStateException("reconciliation checkpoint " + CHECKPOINT + " is missing"));
+            if (checkpoint.getRoleName() == null) {
+                if (checkpoint.getCompletedAt() != null && checkpoint.getCompletedAt().plus(period).isAfter(now)) {
+                    return;
+                }
+                checkpoint = transactionTemplate.execute(status -> {
+                    ReconciliationCheckpoint locked = lockedCheckpoint();
+                    locked.setRunStartedAt(now);
+                    locked.setRoleName(RoleRequest.values()[0].name());
+                    locked.setFirstResult(0);
+                    locked.setLastUserName(null);
+                    return locked;
+                });
+                log.info("starting keycloak reconciliation");
+            } else {
+                log.info("resuming keycloak reconciliation at role={} first={}", checkpoint.getRoleName(), checkpoint.getFirstResult());
+            }
+            while (checkpoint.getRoleName() != null && !stopped) {
+                checkpoint = reconcilePages(checkpoint);
+            }
+        } finally {
+            checkpointRepository.unlock(CHECKPOINT, owner);
+        }
+    }
+
+    private ReconciliationCheckpoint reconcilePages(ReconciliationCheckpoint checkpoint) {
+        RoleRequest roleRequest = RoleRequest.valueOf(checkpoint.getRoleName());
+        int first = checkpoint.getFirstResult();
+        List<List<UserRepresentation>> pages = Flux.range(0, concurrency)
+                .flatMapSequential(page -> Mono.fromCallable(() -> keycloakClientService.getRoleUsers(roleRequest.getValue(),
+                                first + page * pageSize, pageSize))
+                        .subscribeOn(Schedulers.boundedElastic()), concurrency)
+                .collectList()
+                .block();
+        for (List<UserRepresentation> page : pages) {
+            checkpoint = reconcilePage(checkpoint, roleRequest, page);
+            if (page.size() < pageSize || stopped) {
+                break;
+            }
+        }
+        return checkpoint;
+    }
+
+    private ReconciliationCheckpoint reconcilePage(ReconciliationCheckpoint checkpoint, RoleRequest roleRequest,
+                                                   List<UserRepresentation> page) {
+        Role role = roleRegistry.get(roleRequest)
+                .orElseThrow(() -> new IllegalStateException("role " + roleRequest.getValue() + " is not loaded"));
+        Map<UUID, UserRepresentation> keycloakUsers = new LinkedHashMap<>();
+        page.forEach(user -> keycloakUsers.put(UUID.fromString(user.getId()), user));
+        boolean lastPage = page.size() < pageSize;
+        String after = Objects.requireNonNullElse(checkpoint.getLastUserName(), "");
+        String until = lastPage ? null : UserNames.normalize(page.get(page.size() - 1).getUsername());
+
+        // local users of the role within the page that keycloak did not return, looked up outside any transaction
+        List<UUID> missing = transactionTemplate.execute(status -> until == null
+                        ? userRepository.findUserIdsByRoleAfter(role, after)
+                        : userRepository.findUserIdsByRoleBetween(role, after, until))
+                .stream()
+                .filter(userId -> !keycloakUsers.containsKey(userId))
+                .toList();
+        Map<UUID, CurrentRole> currentRoles = Flux.fromIterable(missing)
+                .flatMap(userId -> Mono.fromCallable(() -> Map.entry(userId, currentRole(userId)))
+                        .subscribeOn(Schedulers.boundedElastic()), concurrency)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .block();
+
+        Set<String> changedUserNames = new HashSet<>();
+        ReconciliationCheckpoint next = transactionTemplate.execute(status -> {
+            ReconciliationCheckpoint locked = lockedCheckpoint();
+            changedUserNames.addAll(applyFixes(role, roleRequest, keycloakUsers, currentRoles));
+            advance(locked, roleRequest, page, lastPage);
+            return locked;
+        });
+        changedUserNames.forEach(userCache::invalidate);
+        return next;
+    }
+
+    /**
+     * Writes the fixes of one page and returns the userNames they touched.
+     */
+    private Set<String> applyFixes(Role role, RoleRequest roleRequest, Map<UUID, UserRepresentation> keycloakUsers,
+                                   Map<UUID, CurrentRole> currentRoles) {
+        Set<String> userNames = keycloakUsers.values().stream()
+                .map(user -> UserNames.normalize(user.getUsername()))
+                .collect(Collectors.toSet());
+        Set<String> pendingUserNames = new HashSet<>();
+        Set<UUID> failedUserIds = new HashSet<>();
+        for (UserProvisioning provisioning : userProvisioningRepository.findUnfinished(userNames, keycloakUsers.keySet())) {
+            if (provisioning.getStatus() == ProvisioningStatus.PENDING) {
+                pendingUserNames.add(provisioning.getUserName());
+            } else {
+                failedUserIds.add(provisioning.getUserId());
+            }
+        }
+        Set<UUID> userIds = new HashSet<>(keycloakUsers.keySet());
+        userIds.addAll(currentRoles.keySet());
+        Map<UUID, User> localUsers = new HashMap<>();
+        userRepository.findByUserIdIn(userIds).forEach(user -> localUsers.put(user.getUserId(), user));
+
+        // decide every fix before changing an entity, the queries below would flush changed entities early
+        Instant createdBefore = Instant.now().minus(gracePeriod);
+        List<UserRepresentation> toCreate = new ArrayList<>();
+        List<User> toUpdate = new ArrayList<>();
+        boolean identityChanged = false;
+        for (Map.Entry<UUID, UserRepresentation> entry : keycloakUsers.entrySet()) {
+            UserRepresentation keycloakUser = entry.getValue();
+            User localUser = localUsers.get(entry.getKey());
+            if (localUser == null) {
+                boolean recent = keycloakUser.getCreatedTimestamp() != null
+                        && Instant.ofEpochMilli(keycloakUser.getCreatedTimestamp()).isAfter(createdBefore);
+                if (!recent && !pendingUserNames.contains(UserNames.normalize(keycloakUser.getUsername()))
+                        && !failedUserIds.contains(entry.getKey())) {
+                    toCreate.add(keycloakUser);
+                }
+            } else if (!matches(localUser, keycloakUser, targetRole(localUser, role, roleRequest))) {
+                toUpdate.add(localUser);
+                identityChanged |= !Objects.equals(localUser.getUserName(), UserNames.normalize(keycloakUser.getUsername()))
+                        || !Objects.equals(localUser.getEmail(), keycloakUser.getEmail());
+            }
+        }
+        Map<UUID, User> toDelete = new HashMap<>();
+        currentRoles.forEach((userId, currentRole) -> {
+            User localUser = localUsers.get(userId);
+            if (localUser != null && currentRole.deleted()) {
+                toDelete.put(userId, localUser);
+            }
+        });
+        if (!toCreate.isEmpty() || identityChanged) {
+            // local users keycloak no longer knows under a userName or email it gave to another user
+            Set<String> emails = keycloakUsers.values().stream()
+                    .map(UserRepresentation::getEmail)
+                    .filter(Objects::nonNull)
+                    .map(email -> email.toLowerCase(Locale.ROOT))
+                    .collect(Collectors.toSet());
+            userRepository.findByUserNameInOrLowerEmailIn(userNames, emails).stream()
+                    .filter(user -> !keycloakUsers.containsKey(user.getUserId()))
+                    .forEach(user -> toDelete.put(user.getUserId(), user));
+        }
+
+        Set<String> changedUserNames = new HashSet<>();
+        Set<UUID> releasedUserIds = new HashSet<>(toDelete.keySet());
+        if (!toDelete.isEmpty()) {
+            userRepository.deleteByUserIdIn(List.copyOf(toDelete.keySet()));
+            toDelete.values().forEach(user -> changedUserNames.add(user.getUserName()));
+        }
+        for (User localUser : toUpdate) {
+            UserRepresentation keycloakUser = keycloakUsers.get(localUser.getUserId());
+            changedUserNames.add(localUser.getUserName());
+            if (!Objects.equals(localUser.getUserName(), UserNames.normalize(keycloakUser.getUsername()))) {
+                releasedUserIds.add(localUser.getUserId());
+            }
+            localUser.setRole(targetRole(localUser, role, roleRequest));
+            localUser.setUserName(UserNames.normalize(keycloakUser.getUsername()));
+            localUser.setEmail(keycloakUser.getEmail());
+            localUser.setFirstName(keycloakUser.getFirstName());
+            localUser.setLastName(keycloakUser.getLastName());
+            changedUserNames.add(localUser.getUserName());
+        }
+        currentRoles.forEach((userId, currentRole) -> {
+            User localUser = localUsers.get(userId);
+            if (localUser != null && !currentRole.deleted() && !sameRole(localUser.getRole(), currentRole.role())) {
+                localUser.setRole(currentRole.role());
+                toUpdate.add(localUser);
+                changedUserNames.add(localUser.getUserName());
+            }
+        });
+        userRepository.saveAll(toCreate.stream()
+                .map(keycloakUser -> User.builder()
+                        .userId(UUID.fromString(keycloakUser.getId()))
+                        .userName(UserNames.normalize(keycloakUser.getUsername()))
+                        .email(keycloakUser.getEmail())
+                        .firstName(keycloakUser.getFirstName())
+                        .lastName(keycloakUser.getLastName())
+                        .role(role)
+                        .build())
+                .peek(user -> changedUserNames.add(user.getUserName()))
+                .toList());
+        if (!releasedUserIds.isEmpty()) {
+            // the userNames of deleted and renamed users would otherwise stay reserved by their provisioning
+            userProvisioningRepository.release(releasedUserIds, Instant.now());
+        }
+
+        if (!toCreate.isEmpty() || !toUpdate.isEmpty() || !toDelete.isEmpty()) {
+            log.info("reconciled role={} created={} updated={} deleted={}", roleRequest.getValue(), toCreate.size(),
+                    toUpdate.size(), toDelete.size());
+        }
+        created.increment(toCreate.size());
+        updated.increment(toUpdate.size());
+        deleted.increment(toDelete.size());
+        return changedUserNames;
+    }
+
+    private void advance(ReconciliationCheckpoint checkpoint, RoleRequest roleRequest, List<UserRepresentation> page,
+                         boolean lastPage) {
+        if (!lastPage) {
+            checkpoint.setFirstResult(checkpoint.getFirstResult() + page.size());
+            checkpoint.setLastUserName(UserNames.normalize(page.get(page.size() - 1).getUsername()));
+        } else if (roleRequest.ordinal() + 1 < RoleRequest.values().length) {
+            checkpoint.setRoleName(RoleRequest.values()[roleRequest.ordinal() + 1].name());
+            checkpoint.setFirstResult(0);
+            checkpoint.setLastUserName(null);
+        } else {
+            checkpoint.setRoleName(null);
+            checkpoint.setFirstResult(0);
+            checkpoint.setLastUserName(null);
+            checkpoint.setCompletedAt(Instant.now());
+            log.info("completed keycloak reconciliation started at {}", checkpoint.getRunStartedAt());
+        }
+        checkpoint.setLockedUntil(Instant.now().plus(lease));
+    }
+
+    private ReconciliationCheckpoint lockedCheckpoint() {
+        ReconciliationCheckpoint checkpoint = checkpointRepository.findForUpdate(CHECKPOINT)
+                .orElseThrow(() -> new IllegalStateException("reconciliation checkpoint " + CHECKPOINT + " is missing"));
+        if (!owner.equals(checkpoint.getLockedBy())) {
+            throw new IllegalStateException("reconciliation lock was taken over by " + checkpoint.getLockedBy());
+        }
+        return checkpoint;
+    }
+
+    private CurrentRole currentRole(UUID userId) {
+        List<RoleRepresentation> roles;
+        try {
+            roles = keycloakClientService.getUserRoles(userId);
+        } catch (UserException e) {
+            if (HttpStatus.NOT_FOUND.equals(e.getStatus())) {
+                return new CurrentRole(true, null);
+            }
+            throw e;
+        }
+        Set<String> roleNames = roles.stream().map(RoleRepresentation::getName).collect(Collectors.toSet());
+        Role role = Arrays.stream(RoleRequest.values())
+                .filter(roleRequest -> roleNames.contains(roleRequest.getValue()))
+                .findFirst()
+                .flatMap(roleRegistry::get)
+                .orElse(null);
+        return new CurrentRole(false, role);
+    }
+
+    /**
+     * The role of a user found among the users of {@code role}, a managed role earlier in {@link RoleRequest} order
+     * is kept, its own part of the run checks it.
+     */
+    private static Role targetRole(User user, Role role, RoleRequest roleRequest) {
+        boolean keepsEarlierRole = user.getRole() != null && Arrays.stream(RoleRequest.values())
+                .filter(earlier -> earlier.ordinal() < roleRequest.ordinal())
+                .anyMatch(earlier -> earlier.getValue().equals(user.getRole().getRoleName()));
+        return keepsEarlierRole ? user.getRole() : role;
+    }
+
+    private static boolean matches(User user, UserRepresentation keycloakUser, Role role) {
+        return Objects.equals(user.getUserName(), UserNames.normalize(keycloakUser.getUsername()))
+                && Objects.equals(user.getEmail(), keycloakUser.getEmail())
+                && Objects.equals(user.getFirstName(), keycloakUser.getFirstName())
+                && Objects.equals(user.getLastName(), keycloakUser.getLastName())
+                && sameRole(user.getRole(), role);
+    }
+
+    private static boolean sameRole(Role a, Role b) {
+        return Objects.equals(a == null ? null : a.getRoleId(), b == null ? null : b.getRoleId());
+    }
+
+    private static Counter fixes(MeterRegistry meterRegistry, String action) {
+        return Counter.builder("user.reconciliation.fixes")
+                .description("local users fixed to match keycloak")
+                .tag("action", action)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Realm role of a user looked up in keycloak, {@code role} is null when it holds no managed role.
+     */
+    private record CurrentRole(boolean deleted, Role role) {
+    }
+
+}
@@ -1,76 +1,254 @@
 package com.paralelogram.user.service.impl;
 
+import com.paralelogram.user.entity.OutboxEvent;
+import com.paralelogram.user.entity.ProvisioningStatus;
 import com.paralelogram.user.entity.Role;
 import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
 import com.paralelogram.user.exception.UserException;
 import com.paralelogram.user.model.AddUserRequest;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.UserPage;
+import com.paralelogram.user.model.UserProvisioningResponse;
+import com.paralelogram.user.model.UserResponse;
 import com.paralelogram.user.model.keycloak.CredentialRepresentation;
 import com.paralelogram.user.model.keycloak.RoleRepresentation;
 import com.paralelogram.user.model.keycloak.UserRepresentation;
-import com.paralelogram.user.repository.RoleRepository;
+import com.paralelogram.user.repository.OutboxEventRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
 import com.paralelogram.user.repository.UserRepository;
 import com.paralelogram.user.service.KeycloakClientService;
 import com.paralelogram.user.service.UserService;
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.UUID;
 
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class UserServiceImpl implements UserService {
 
-    private final RoleRepository roleRepository;
+    private final RoleRegistry roleRegistry;
     private final UserRepository userRepository;
     private final KeycloakClientService keycloakClientService;
+    private final UserCache userCache;
+    private final UserProvisioningRepository userProvisioningRepository;
+    private final OutboxEventRepository outboxEventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final CredentialCipher credentialCipher;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    public UserServiceImpl(RoleRegistry roleRegistry,
+                           UserRepository userRepository,
+                           KeycloakClientService keycloakClientService,
+                           UserCache userCache,
+                           UserProvisioningRepository userProvisioningRepository,
+                           OutboxEventRepository outboxEventRepository,
+                           TransactionTemplate transactionTemplate,
+                           CredentialCipher credentialCipher,
+                           @Value("${user.list.default-page-size}") int defaultPageSize,
+                           @Value("${user.list.max-page-size}") int maxPageSize) {
+        this.roleRegistry = roleRegistry;
+        this.userRepository = userRepository;
+        this.keycloakClientService = keycloakClientService;
+        this.userCache = userCache;
+        this.userProvisioningRepository = userProvisioningRepository;
+        this.outboxEventRepository = outboxEventRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.credentialCipher = credentialCipher;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+    }
 
     @Override
-    public User getUser(String userName) {
-        return userRepository.findByUserName(userName)
+    public UserResponse getUser(String userName) {
+        return userCache.get(UserNames.normalize(userName))
                 .orElseThrow(() -> new UserException(HttpStatus.BAD_REQUEST, "unable to find user " + userName));
     }
 
+    @Override
+    public UserResponse getUserByEmail(String email) {
+        return userRepository.findUserResponseByEmailIgnoreCase(email)
+                .orElseThrow(() -> new UserException(HttpStatus.BAD_REQUEST, "unable to find user with email " + email, null));
+    }
+
+    @Override
+    public UserPage getUsers(RoleRequest role, String cursor, Integer size) {
+        if (size != null && size < 1) {
+            throw new UserException(HttpStatus.BAD_REQUEST, "size must be at least 1", null);
+        }
+        int pageSize = size == null ? defaultPageSize : Math.min(size, maxPageSize);
+        String after = cursor == null ? "" : decodeCursor(cursor);
+        // one extra row tells whether another page follows without a count query
+        Limit limit = Limit.of(pageSize + 1);
+        List<UserResponse> users = role == null
+                ? userRepository.findUserResponsesAfter(after, limit)
+                : userRepository.findUserResponsesByRoleNameAfter(role.getValue(), after, limit);
+        if (users.size() <= pageSize) {
+            return new UserPage(users, null);
+        }
+        List<UserResponse> page = users.subList(0, pageSize);
+        return new UserPage(page, encodeCursor(page.get(pageSize - 1).userName()));
+    }
+
+    /**
+     * Reserves the userName before calling keycloak, a concurrent request for the same userName fails before any
+     * remote call. The reservation is marked provisioned in the transaction inserting the user, or failed when the
+     * user could not be created, which frees the userName and queues the deletion of a keycloak user created for it.
+     */
     @Override
     public User addUser(AddUserRequest request) {
-        if (userRepository.findByUserName(request.getUserName()).isPresent()) {
-            throw new UserException(HttpStatus.BAD_REQUEST, "userName " + request.getUserName() + " already exists");
+        UserProvisioning reservation = reserve(request);
+
+        UUID userId = null;
+        try {
+            userId = keycloakClientService.createUser(UserRepresentation.builder()
+                    .username(reservation.getUserName())
+                    .firstName(request.getFirstName())
+                    .lastName(request.getLastName())
+                    .email(request.getEmail())
+                    .credentials(Arrays.asList(CredentialRepresentation.builder()
+                            .type("password")
+                            .value(request.getPassword())
+                            .build()))
+                    .enabled(Boolean.TRUE)
+                    .build());
+
+            if (userId != null && keycloakClientService.addUserRole(userId, new ArrayList<>() {{ add(RoleRepresentation.builder()
+                    .id(reservation.getRole().getRoleId().toString()).name(reservation.getRole().getRoleName()).build()); }} )) {
+                UUID createdUserId = userId;
+                User user = transactionTemplate.execute(status -> {
+                    User saved = userRepository.save(User.builder()
+                            .userId(createdUserId)
+                            .userName(reservation.getUserName())
+                            .firstName(request.getFirstName())
+                            .lastName(request.getLastName())
+                            .email(request.getEmail())
+                            .role(reservation.getRole())
+                            .build());
+                    userProvisioningRepository.updateStatus(reservation.getProvisioningId(), ProvisioningStatus.PROVISIONED,
+                            createdUserId, null, Instant.now());
+                    return saved;
+                });
+                // drops a negative entry cached while the userName did not exist yet
+                userCache.invalidate(reservation.getUserName());
+                return user;
+            }
+        } catch (RuntimeException e) {
+            release(reservation, userId, e.getMessage());
+            if (e instanceof DataIntegrityViolationException) {
+                // the email was taken by a concurrent request after the check
+                throw new UserException(HttpStatus.BAD_REQUEST, "email " + request.getEmail() + " already exists", e);
+            }
+            throw e;
         }
+        release(reservation, userId, "unable to create user");
+        throw new UserException(HttpStatus.BAD_REQUEST, "unable to create user");
+    }
 
-        Role role = roleRepository.findByRoleName(request.getRole().getValue())
-                .orElseThrow(() -> new UserException(HttpStatus.BAD_REQUEST, "invalid role " + request.getRole().name()));
+    @Override
+    public boolean isAddUserAsyncEnabled() {
+        return credentialCipher.isEnabled();
+    }
 
-        UUID userId = keycloakClientService.createUser(UserRepresentation.builder()
-                .username(request.getUserName())
+    @Override
+    public UserProvisioningResponse addUserAsync(AddUserRequest request) {
+        UUID provisioningId = UUID.randomUUID();
+        OutboxEvent event = OutboxEvent.builder()
+                .eventType(OutboxEvent.Type.PROVISION_USER)
+                .aggregateId(provisioningId)
+                .payload(credentialCipher.encrypt(request.getPassword(), provisioningId))
+                .nextAttemptAt(Instant.now())
+                .build();
+        UserProvisioning provisioning = transactionTemplate.execute(status -> {
+            UserProvisioning reserved = reserve(provisioningId, request);
+            outboxEventRepository.save(event);
+            return reserved;
+        });
+        return UserProvisioningResponse.of(provisioning);
+    }
+
+    @Override
+    public UserProvisioningResponse getProvisioning(UUID provisioningId) {
+        return userProvisioningRepository.findByProvisioningId(provisioningId)
+                .map(UserProvisioningResponse::of)
+                .orElseThrow(() -> new UserException(HttpStatus.BAD_REQUEST, "unable to find provisioning " + provisioningId, null));
+    }
+
+    private UserProvisioning reserve(AddUserRequest request) {
+        return reserve(UUID.randomUUID(), request);
+    }
+
+    /**
+     * Claims the userName with a single insert instead of looking it up first, throws when it is taken.
+     */
+    private UserProvisioning reserve(UUID provisioningId, AddUserRequest request) {
+        if (userRepository.existsByEmailIgnoreCase(request.getEmail())) {
+            throw new UserException(HttpStatus.BAD_REQUEST, "email " + request.getEmail() + " already exists", null);
+        }
+        Role role = roleRegistry.get(request.getRole())
+                .orElseThrow(() -> new UserException(HttpStatus.BAD_REQUEST, "invalid role " + request.getRole().name()));
+        UserProvisioning provisioning = UserProvisioning.builder()
+                .provisioningId(provisioningId)
+                .status(ProvisioningStatus.PENDING)
+                .userName(UserNames.normalize(request.getUserName()))
                 .firstName(request.getFirstName())
                 .lastName(request.getLastName())
                 .email(request.getEmail())
-                .credentials(Arrays.asList(CredentialRepresentation.builder()
-                        .type("password")
-                        .value(request.getPassword())
-                        .build()))
-                .enabled(Boolean.TRUE)
-                .build());
-
-        if (userId != null) {
-            boolean roleAdded = keycloakClientService.addUserRole(userId, new ArrayList<>() {{ add(RoleRepresentation.builder()
-                    .id(role.getRoleId().toString()).name(role.getRoleName()).build()); }} );
-            if (roleAdded) {
-                return userRepository.save(User.builder()
-                        .userId(userId)
-                        .userName(request.getUserName())
-                        .firstName(request.getFirstName())
-                        .lastName(request.getLastName())
-                        .email(request.getEmail())
-                        .role(role)
-                        .build());
-            } else {
-                keycloakClientService.deleteUser(userId);
-            }
+                .role(role)
+                .build();
+        if (userProvisioningRepository.reserve(provisioning) == 0) {
+            throw new UserException(HttpStatus.BAD_REQUEST, "userName " + request.getUserName() + " already exists", null);
+        }
+        return provisioning;
+    }
+
+    /**
+     * Frees the userName of a failed {@link #addUser(AddUserRequest)}, the keycloak user created for it is deleted
+     * by the outbox workers with retries.
+     */
+    private void release(UserProvisioning reservation, UUID userId, String error) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                userProvisioningRepository.updateStatus(reservation.getProvisioningId(), ProvisioningStatus.FAILED, userId,
+                        StringUtils.abbreviate(error, 255), Instant.now());
+                if (userId != null) {
+                    outboxEventRepository.save(OutboxEvent.builder()
+                            .eventType(OutboxEvent.Type.DELETE_KEYCLOAK_USER)
+                            .aggregateId(reservation.getProvisioningId())
+                            .nextAttemptAt(Instant.now())
+                            .build());
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("unable to release userName={} of provisioning={}, keycloak user={}", reservation.getUserName(),
+                    reservation.getProvisioningId(), userId, e);
+        }
+    }
+
+    private static String encodeCursor(String userName) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(userName.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new UserException(HttpStatus.BAD_REQUEST, "invalid cursor " + cursor, e);
         }
-        throw new UserException(HttpStatus.BAD_REQUEST, "unable to create user");
     }
 
 }
@@ -0,0 +1,37 @@
+-- Schema as previously generated by hibernate ddl-auto, databases created that way are baselined at this version
+
+create sequence if not exists paralelogram_roles_seq start with 1 increment by 50;
+
+create sequence if not exists paralelogram_user_seq start with 1 increment by 50;
+
+create table paralelogram_roles (
+    id bigint not null,
+    created_at timestamp(6) with time zone,
+    created_by varchar(50),
+    updated_at timestamp(6) with time zone,
+    updated_by varchar(50),
+    role_id uuid not null,
+    role_name varchar(50) not null,
+    constraint paralelogram_roles_pkey primary key (id),
+    constraint paralelogram_roles_role_id_key unique (role_id),
+    constraint paralelogram_roles_role_name_key unique (role_name)
+);
+
+-- user_name uniqueness is enforced by the covering index of V2
+create table paralelogram_user (
+    id bigint not null,
+    created_at timestamp(6) with time zone,
+    created_by varchar(50),
+    updated_at timestamp(6) with time zone,
+    updated_by varchar(50),
+    user_id uuid not null,
+    user_name varchar(50) not null,
+    email varchar(50),
+    first_name varchar(100),
+    last_name varchar(100),
+    role_id bigint,
+    constraint paralelogram_user_pkey primary key (id),
+    constraint paralelogram_user_user_id_key unique (user_id),
+    constraint paralelogram_user_email_key unique (email),
+    constraint paralelogram_user_role_id_fkey foreign key (role_id) references paralelogram_roles (id)
+);
@@ -0,0 +1,33 @@
+-- GET /user/{userName}, the user listing and the export only read these columns, the index answers them
+-- without visiting the table
+create unique index if not exists paralelogram_user_user_name_idx
+    on paralelogram_user (user_name) include (user_id, email, first_name, last_name, role_id);
+
+-- the covering index enforces user_name uniqueness, drop the plain unique constraint hibernate created, as
+-- well as the unique role_id constraint left by the former one-to-one role mapping that allowed one user per role
+do $$
+declare
+    redundant record;
+begin
+    for redundant in
+        select c.conname
+        from pg_constraint c
+        join pg_attribute a on a.attrelid = c.conrelid and a.attnum = c.conkey[1]
+        where c.conrelid = 'paralelogram_user'::regclass
+          and c.contype = 'u'
+          and array_length(c.conkey, 1) = 1
+          and a.attname in ('user_name', 'role_id')
+    loop
+        execute format('alter table paralelogram_user drop constraint %I', redundant.conname);
+    end loop;
+end
+$$;
+
+create index if not exists paralelogram_user_lower_email_idx
+    on paralelogram_user (lower(email));
+
+-- backs the role_id foreign key and the role filtered user listing, which seeks by user_name within a role
+create index if not exists paralelogram_user_role_id_user_name_idx
+    on paralelogram_user (role_id, user_name);
+
+-- user_id lookups are served by the index of its unique constraint
@@ -0,0 +1,29 @@
+-- keycloak stores userNames lowercased, store them the same way so lookups match them exactly on the user_name
+-- index, fails on userNames only differing by case, which keycloak would not have allowed either
+update paralelogram_user set user_name = lower(user_name) where user_name <> lower(user_name);
+
+-- emails keep the casing they were entered with and are unique and looked up case-insensitively, the included
+-- columns let the lookup be answered from the index alone
+create unique index paralelogram_user_lower_email_key
+    on paralelogram_user (lower(email)) include (email, user_id, user_name, first_name, last_name, role_id);
+
+drop index if exists paralelogram_user_lower_email_idx;
+
+-- superseded by the case-insensitive unique index
+do $$
+declare
+    redundant record;
+begin
+    for redundant in
+        select c.conname
+        from pg_constraint c
+        join pg_attribute a on a.attrelid = c.conrelid and a.attnum = c.conkey[1]
+        where c.conrelid = 'paralelogram_user'::regclass
+          and c.contype = 'u'
+          and array_length(c.conkey, 1) = 1
+          and a.attname = 'email'
+    loop
+        execute format('alter table paralelogram_user drop constraint %I', redundant.conname);
+    end loop;
+end
+$$;
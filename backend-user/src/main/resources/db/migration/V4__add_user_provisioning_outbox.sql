@@ -0,0 +1,45 @@
+-- users accepted by an asynchronous POST /user, kept after provisioning so their status can still be looked up
+create sequence if not exists paralelogram_user_provisioning_seq start with 1 increment by 50;
+
+create table paralelogram_user_provisioning (
+    id bigint not null,
+    created_at timestamp(6) with time zone,
+    created_by varchar(50),
+    updated_at timestamp(6) with time zone,
+    updated_by varchar(50),
+    provisioning_id uuid not null,
+    status varchar(20) not null,
+    user_name varchar(50) not null,
+    email varchar(50),
+    first_name varchar(100),
+    last_name varchar(100),
+    role_id bigint,
+    user_id uuid,
+    error varchar(255),
+    constraint paralelogram_user_provisioning_pkey primary key (id),
+    constraint paralelogram_user_provisioning_provisioning_id_key unique (provisioning_id),
+    constraint paralelogram_user_provisioning_role_id_fkey foreign key (role_id) references paralelogram_roles (id)
+);
+
+-- a userName is reserved while it is pending, two concurrent requests for it cannot both be accepted
+create unique index paralelogram_user_provisioning_pending_user_name_key
+    on paralelogram_user_provisioning (user_name) where status = 'PENDING';
+
+-- work written in the same transaction as the change it belongs to and carried out by the outbox workers
+create sequence if not exists paralelogram_outbox_seq start with 1 increment by 50;
+
+create table paralelogram_outbox (
+    id bigint not null,
+    created_at timestamp(6) with time zone,
+    created_by varchar(50),
+    updated_at timestamp(6) with time zone,
+    updated_by varchar(50),
+    event_type varchar(50) not null,
+    aggregate_id uuid not null,
+    payload text,
+    attempts integer not null,
+    next_attempt_at timestamp(6) with time zone not null,
+    constraint paralelogram_outbox_pkey primary key (id)
+);
+
+create index paralelogram_outbox_event_type_next_attempt_at_idx on paralelogram_outbox (event_type, next_attempt_at);
@@ -0,0 +1,15 @@
+-- outcomes of POST /user requests sent with an Idempotency-Key, the key is stored hashed together with its
+-- caller and every row is evicted once it expires
+create table paralelogram_idempotent_request (
+    key_hash varchar(64) not null,
+    request_hash varchar(64) not null,
+    status varchar(20) not null,
+    response_status integer,
+    response_headers text,
+    response_body text,
+    error varchar(255),
+    expires_at timestamp(6) with time zone not null,
+    constraint paralelogram_idempotent_request_pkey primary key (key_hash)
+);
+
+create index paralelogram_idempotent_request_expires_at_idx on paralelogram_idempotent_request (expires_at);
@@ -0,0 +1,6 @@
+-- every POST /user reserves its userName here before calling keycloak, a userName stays reserved once its
+-- user is provisioned, so a reservation racing the insert of that user still conflicts
+drop index paralelogram_user_provisioning_pending_user_name_key;
+
+create unique index paralelogram_user_provisioning_user_name_key
+    on paralelogram_user_provisioning (user_name) where status in ('PENDING', 'PROVISIONED');
@@ -0,0 +1,14 @@
+-- progress of the keycloak reconciliation, committed with the fixes of every page so a restart resumes the run
+create table paralelogram_reconciliation_checkpoint (
+    name varchar(50) not null,
+    run_started_at timestamp(6) with time zone,
+    role_name varchar(50),
+    first_result integer not null,
+    last_user_name varchar(50),
+    completed_at timestamp(6) with time zone,
+    locked_by varchar(50),
+    locked_until timestamp(6) with time zone,
+    constraint paralelogram_reconciliation_checkpoint_pkey primary key (name)
+);
+
+insert into paralelogram_reconciliation_checkpoint (name, first_result) values ('keycloak-users', 0);
@@ -0,0 +1,5 @@
+-- a provisioned userName is only reserved while its user still holds it, releases those of users deleted or
+-- renamed before the reconciliation job released them itself
+update paralelogram_user_provisioning p set status = 'RELEASED', updated_at = now()
+where p.status = 'PROVISIONED'
+  and not exists (select 1 from paralelogram_user u where u.user_id = p.user_id and u.user_name = p.user_name);
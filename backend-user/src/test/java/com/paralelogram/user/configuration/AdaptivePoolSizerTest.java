@@ -0,0 +1,133 @@
+package com.paralelogram.user.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+
+public class AdaptivePoolSizerTest {
+
+    private static final String POOL = "primary";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final HikariPoolMXBean pool = Mockito.mock(HikariPoolMXBean.class);
+
+    private HikariDataSource dataSource;
+
+    @BeforeEach
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setPoolName(POOL);
+        dataSource.setMaximumPoolSize(5);
+        dataSource.setMinimumIdle(2);
+        dataSource = Mockito.spy(dataSource);
+        Mockito.lenient().when(dataSource.getHikariPoolMXBean()).thenReturn(pool);
+    }
+
+    @Test
+    public void givenCallersWaitingForConnections_whenAdjust_thenGrowUpToCeiling() {
+        AdaptivePoolSizer sizer = createSizer(7);
+        Mockito.when(pool.getThreadsAwaitingConnection()).thenReturn(3);
+
+        for (int i = 0; i < 5; i++) {
+            sizer.adjust();
+        }
+
+        Assertions.assertEquals(7, dataSource.getMaximumPoolSize());
+    }
+
+    @Test
+    public void givenSlowAcquireAndFastQueries_whenAdjust_thenGrow() {
+        AdaptivePoolSizer sizer = createSizer(20);
+        record("hikaricp.connections.acquire", Duration.ofMillis(50));
+        record(StatementTimingDataSource.STATEMENT_TIMER, Duration.ofMillis(5));
+
+        sizer.adjust();
+
+        Assertions.assertEquals(6, dataSource.getMaximumPoolSize());
+    }
+
+    @Test
+    public void givenSlowQueries_whenAdjust_thenShrinkDownToMinimumIdle() {
+        AdaptivePoolSizer sizer = createSizer(20);
+        dataSource.setMaximumPoolSize(12);
+        Mockito.when(pool.getThreadsAwaitingConnection()).thenReturn(10);
+
+        record(StatementTimingDataSource.STATEMENT_TIMER, Duration.ofMillis(500));
+        sizer.adjust();
+        Assertions.assertEquals(9, dataSource.getMaximumPoolSize());
+
+        for (int i = 0; i < 10; i++) {
+            record(StatementTimingDataSource.STATEMENT_TIMER, Duration.ofMillis(500));
+            sizer.adjust();
+        }
+        Assertions.assertEquals(2, dataSource.getMaximumPoolSize());
+    }
+
+    @Test
+    public void givenLongHeldConnectionsAndFastQueries_whenAdjust_thenDoNotShrink() {
+        AdaptivePoolSizer sizer = createSizer(20);
+        record("hikaricp.connections.usage", Duration.ofMinutes(5));
+        record(StatementTimingDataSource.STATEMENT_TIMER, Duration.ofMillis(5));
+
+        sizer.adjust();
+
+        Assertions.assertEquals(5, dataSource.getMaximumPoolSize());
+    }
+
+    @Test
+    public void givenSlowQueriesOnlyBeforeLastAdjust_whenAdjust_thenIgnoreThem() {
+        AdaptivePoolSizer sizer = createSizer(20);
+        record(StatementTimingDataSource.STATEMENT_TIMER, Duration.ofMillis(500));
+        sizer.adjust();
+        Assertions.assertEquals(4, dataSource.getMaximumPoolSize());
+
+        Mockito.when(pool.getThreadsAwaitingConnection()).thenReturn(1);
+        sizer.adjust();
+
+        Assertions.assertEquals(5, dataSource.getMaximumPoolSize());
+    }
+
+    @Test
+    public void givenIdlePoolAboveConfiguredSize_whenAdjust_thenShrinkBackToConfiguredSize() {
+        AdaptivePoolSizer sizer = createSizer(20);
+        dataSource.setMaximumPoolSize(8);
+
+        for (int i = 0; i < 5; i++) {
+            sizer.adjust();
+        }
+
+        Assertions.assertEquals(5, dataSource.getMaximumPoolSize());
+    }
+
+    @Test
+    public void givenPoolNotStarted_whenAdjust_thenKeepSize() {
+        AdaptivePoolSizer sizer = createSizer(20);
+        Mockito.when(dataSource.getHikariPoolMXBean()).thenReturn(null);
+
+        sizer.adjust();
+
+        Assertions.assertEquals(5, dataSource.getMaximumPoolSize());
+    }
+
+    @Test
+    public void givenPoolLargerThanCeiling_whenCreateSizer_thenThrowIllegalArgumentException() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> createSizer(4));
+    }
+
+    private AdaptivePoolSizer createSizer(int ceiling) {
+        return new AdaptivePoolSizer(dataSource, meterRegistry, ceiling, Duration.ofMillis(10), Duration.ofMillis(100));
+    }
+
+    private void record(String name, Duration duration) {
+        Timer.builder(name).tag("pool", POOL).register(meterRegistry).record(duration);
+    }
+
+}
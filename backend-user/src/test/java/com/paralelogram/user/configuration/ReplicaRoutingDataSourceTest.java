@@ -0,0 +1,97 @@
+package com.paralelogram.user.configuration;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.TransactionExecution;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReplicaRoutingDataSourceTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Connection primaryConnection = Mockito.mock(Connection.class);
+    private final Connection replicaConnection = Mockito.mock(Connection.class);
+
+    private ReadYourWrites readYourWrites;
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        DataSource primary = Mockito.mock(DataSource.class);
+        DataSource replica = Mockito.mock(DataSource.class);
+        Mockito.when(primary.getConnection()).thenReturn(primaryConnection);
+        Mockito.when(replica.getConnection()).thenReturn(replicaConnection);
+        Ticker ticker = nanos::get;
+        readYourWrites = new ReadYourWrites(Duration.ofSeconds(5), ticker);
+        replicaRoutingDataSource = new ReplicaRoutingDataSource(primary, replica, readYourWrites);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void givenCallerWithoutRecentWrite_whenGetConnection_thenUseReplica() throws Exception {
+        authenticate("reader");
+
+        Assertions.assertSame(replicaConnection, replicaRoutingDataSource.getConnection());
+    }
+
+    @Test
+    public void givenCallerCommittedWrite_whenGetConnection_thenUsePrimaryWithinWindow() throws Exception {
+        authenticate("writer");
+        readYourWrites.afterCommit(transaction(false), null);
+
+        Assertions.assertSame(primaryConnection, replicaRoutingDataSource.getConnection());
+
+        nanos.addAndGet(Duration.ofSeconds(6).toNanos());
+        Assertions.assertSame(replicaConnection, replicaRoutingDataSource.getConnection());
+    }
+
+    @Test
+    public void givenOtherCallerCommittedWrite_whenGetConnection_thenUseReplica() throws Exception {
+        authenticate("writer");
+        readYourWrites.afterCommit(transaction(false), null);
+
+        authenticate("reader");
+        Assertions.assertSame(replicaConnection, replicaRoutingDataSource.getConnection());
+    }
+
+    @Test
+    public void givenReadOnlyOrFailedCommit_whenGetConnection_thenUseReplica() throws Exception {
+        authenticate("reader");
+        readYourWrites.afterCommit(transaction(true), null);
+        readYourWrites.afterCommit(transaction(false), new IllegalStateException("commit failed"));
+
+        Assertions.assertSame(replicaConnection, replicaRoutingDataSource.getConnection());
+    }
+
+    @Test
+    public void givenNoCaller_whenWriteCommitted_thenNeverPinToPrimary() throws Exception {
+        readYourWrites.afterCommit(transaction(false), null);
+
+        Assertions.assertSame(replicaConnection, replicaRoutingDataSource.getConnection());
+    }
+
+    private static void authenticate(String name) {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(name, null));
+    }
+
+    private static TransactionExecution transaction(boolean readOnly) {
+        TransactionExecution transaction = Mockito.mock(TransactionExecution.class);
+        Mockito.when(transaction.isNewTransaction()).thenReturn(true);
+        Mockito.when(transaction.isReadOnly()).thenReturn(readOnly);
+        return transaction;
+    }
+
+}
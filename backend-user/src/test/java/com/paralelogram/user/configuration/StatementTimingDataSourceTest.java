@@ -0,0 +1,67 @@
+package com.paralelogram.user.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class StatementTimingDataSourceTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final HikariDataSource pool = Mockito.mock(HikariDataSource.class);
+    private final Connection connection = Mockito.mock(Connection.class);
+
+    private StatementTimingDataSource dataSource;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        Mockito.when(pool.getPoolName()).thenReturn("primary");
+        Mockito.when(pool.getConnection()).thenReturn(connection);
+        dataSource = new StatementTimingDataSource(pool, meterRegistry);
+    }
+
+    @Test
+    public void givenPreparedStatement_whenExecuteQuery_thenRecordOnlyExecution() throws SQLException {
+        PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        ResultSet resultSet = Mockito.mock(ResultSet.class);
+        Mockito.when(connection.prepareStatement("select 1")).thenReturn(statement);
+        Mockito.when(statement.executeQuery()).thenReturn(resultSet);
+
+        try (Connection timed = dataSource.getConnection()) {
+            PreparedStatement prepared = timed.prepareStatement("select 1");
+            prepared.setFetchSize(100);
+            Assertions.assertSame(resultSet, prepared.executeQuery());
+        }
+
+        Assertions.assertEquals(1, timer().count());
+        Mockito.verify(statement).setFetchSize(100);
+        Mockito.verify(connection).close();
+    }
+
+    @Test
+    public void givenFailingStatement_whenExecute_thenRecordAndRethrow() throws SQLException {
+        Statement statement = Mockito.mock(Statement.class);
+        Mockito.when(connection.createStatement()).thenReturn(statement);
+        Mockito.when(statement.execute("select 1")).thenThrow(new SQLException("canceling statement"));
+
+        Connection timed = dataSource.getConnection();
+
+        Assertions.assertThrows(SQLException.class, () -> timed.createStatement().execute("select 1"));
+        Assertions.assertEquals(1, timer().count());
+    }
+
+    private Timer timer() {
+        return meterRegistry.get(StatementTimingDataSource.STATEMENT_TIMER).tag("pool", "primary").timer();
+    }
+
+}
@@ -1,18 +1,42 @@
 package com.paralelogram.user.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.Role;
 import com.paralelogram.user.entity.User;
 import com.paralelogram.user.model.AddUserRequest;
+import com.paralelogram.user.model.ImportUserResult;
 import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.UserPage;
+import com.paralelogram.user.model.UserProvisioningResponse;
+import com.paralelogram.user.model.UserResponse;
+import com.paralelogram.user.service.IdempotencyService;
+import com.paralelogram.user.service.UserExportService;
+import com.paralelogram.user.service.UserImportService;
 import com.paralelogram.user.service.UserService;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @ExtendWith(MockitoExtension.class)
 public class UserControllerTest {
@@ -20,31 +44,150 @@ public class UserControllerTest {
     @Mock
     private UserService userService;
 
+    @Mock
+    private UserImportService userImportService;
+
+    @Mock
+    private UserExportService userExportService;
+
+    @Mock
+    private IdempotencyService idempotencyService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @InjectMocks
     private UserController userController;
 
     @Test
     public void givenUserName_whenGetUser_thenReturnUser() {
         String userName = "user";
-        Mockito.when(userService.getUser(userName)).thenReturn(getDefaultUser(userName));
+        Mockito.when(userService.getUser(userName)).thenReturn(new UserResponse(UUID.randomUUID(), userName, null, null, null, null));
 
-        User actual = userController.getUser(userName);
+        UserResponse actual = userController.getUser(userName);
 
         Mockito.verify(userService, Mockito.times(1)).getUser(userName);
-        Assertions.assertEquals(userName, actual.getUserName());
+        Assertions.assertEquals(userName, actual.userName());
 
     }
 
     @Test
-    public void givenUserRequest_whenAddUser_thenReturnUser() {
+    public void givenEmail_whenGetUserByEmail_thenReturnUser() {
+        Mockito.when(userService.getUserByEmail("user@test.com")).thenReturn(new UserResponse(UUID.randomUUID(), "user", "user@test.com", null, null, null));
+
+        UserResponse actual = userController.getUserByEmail("user@test.com");
+
+        Assertions.assertEquals("user", actual.userName());
+    }
+
+    @Test
+    public void givenRoleAndCursor_whenGetUsers_thenReturnPage() {
+        UserPage page = new UserPage(List.of(new UserResponse(UUID.randomUUID(), "user", null, null, null, null)), "cursor");
+        Mockito.when(userService.getUsers(RoleRequest.ADMIN, "previous", 10)).thenReturn(page);
+
+        UserPage actual = userController.getUsers(RoleRequest.ADMIN, "previous", 10);
+
+        Mockito.verify(userService, Mockito.times(1)).getUsers(RoleRequest.ADMIN, "previous", 10);
+        Assertions.assertEquals(page, actual);
+    }
+
+    @Test
+    public void givenUserRequest_whenAddUser_thenReturnUserResponse() {
         String userName = "user";
         AddUserRequest input = getDefaultAddUserRequest(userName, RoleRequest.ADMIN);
-        Mockito.when(userService.addUser(input)).thenReturn(getDefaultUser(userName));
+        User user = getDefaultUser(userName);
+        user.setRole(Role.builder().roleName(RoleRequest.ADMIN.getValue()).build());
+        Mockito.when(userService.addUser(input)).thenReturn(user);
 
-        User actual = userController.addUser(input);
+        ResponseEntity<Object> actual = userController.addUser(input, null);
 
         Mockito.verify(userService, Mockito.times(1)).addUser(input);
-        Assertions.assertEquals(userName, actual.getUserName());
+        Mockito.verifyNoInteractions(idempotencyService);
+        UserResponse response = (UserResponse) actual.getBody();
+        Assertions.assertEquals(userName, response.userName());
+        Assertions.assertEquals(user.getUserId(), response.userId());
+        Assertions.assertEquals(RoleRequest.ADMIN.getValue(), response.role());
+    }
+
+    @Test
+    public void givenIdempotencyKey_whenAddUser_thenAddUserThroughIdempotencyService() {
+        AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
+        ResponseEntity<Object> replayed = ResponseEntity.ok("{\"userName\":\"user\"}");
+        Mockito.when(idempotencyService.execute(ArgumentMatchers.eq("key"), ArgumentMatchers.eq(input), ArgumentMatchers.any()))
+                .thenReturn(replayed);
+
+        ResponseEntity<Object> actual = userController.addUser(input, "key");
+
+        Assertions.assertSame(replayed, actual);
+        Mockito.verifyNoInteractions(userService);
+    }
+
+    @Test
+    public void givenUserRequestPreferringAsync_whenAddUserAsync_thenReturnAcceptedWithStatusLocation() {
+        AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
+        UserProvisioningResponse provisioning = new UserProvisioningResponse(UUID.randomUUID(), "user", ProvisioningStatus.PENDING, null, null);
+        Mockito.when(userService.isAddUserAsyncEnabled()).thenReturn(true);
+        Mockito.when(userService.addUserAsync(input)).thenReturn(provisioning);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest("POST", "/user")));
+
+        try {
+            ResponseEntity<Object> actual = userController.addUserAsync(input, null);
+
+            Assertions.assertEquals(HttpStatus.ACCEPTED, actual.getStatusCode());
+            Assertions.assertEquals("http://localhost/user/provisioning/" + provisioning.provisioningId(), actual.getHeaders().getLocation().toString());
+            Assertions.assertEquals("respond-async", actual.getHeaders().getFirst("Preference-Applied"));
+            Assertions.assertEquals(provisioning, actual.getBody());
+            Mockito.verify(userService, Mockito.never()).addUser(input);
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    @Test
+    public void givenAsyncProvisioningDisabled_whenAddUserAsync_thenAddUserSynchronously() {
+        AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
+        Mockito.when(userService.addUser(input)).thenReturn(getDefaultUser("user"));
+
+        ResponseEntity<Object> actual = userController.addUserAsync(input, null);
+
+        Assertions.assertEquals(HttpStatus.OK, actual.getStatusCode());
+        Assertions.assertNull(actual.getHeaders().getFirst("Preference-Applied"));
+        Mockito.verify(userService, Mockito.never()).addUserAsync(input);
+    }
+
+    @Test
+    public void givenImportResults_whenImportUsers_thenStreamNdjson() throws Exception {
+        UUID userId = UUID.randomUUID();
+        InputStream body = new ByteArrayInputStream(new byte[0]);
+        Mockito.doAnswer(invocation -> {
+            Consumer<List<ImportUserResult>> results = invocation.getArgument(2);
+            results.accept(List.of(ImportUserResult.created(1, "user", userId)));
+            results.accept(List.of(ImportUserResult.failed(2, "other", "userName other already exists")));
+            return null;
+        }).when(userImportService).importUsers(ArgumentMatchers.eq(body), ArgumentMatchers.eq(MediaType.APPLICATION_NDJSON), ArgumentMatchers.any());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        userController.importUsers(MediaType.APPLICATION_NDJSON, body, response);
+
+        Assertions.assertEquals(MediaType.APPLICATION_NDJSON_VALUE, response.getContentType());
+        Assertions.assertEquals("{\"line\":1,\"userName\":\"user\",\"status\":\"CREATED\",\"userId\":\"" + userId + "\"}\n"
+                + "{\"line\":2,\"userName\":\"other\",\"status\":\"FAILED\",\"error\":\"userName other already exists\"}\n",
+                response.getContentAsString());
+    }
+
+    @Test
+    public void givenAcceptHeader_whenExportUsers_thenExportInFirstSupportedFormat() {
+        StreamingResponseBody body = output -> { };
+        Mockito.when(userExportService.exportUsers(ArgumentMatchers.any(MediaType.class))).thenReturn(body);
+
+        ResponseEntity<StreamingResponseBody> csv = userController.exportUsers("text/csv, application/x-ndjson");
+        ResponseEntity<StreamingResponseBody> ndjson = userController.exportUsers("*/*");
+
+        Assertions.assertEquals(UserImportService.TEXT_CSV, csv.getHeaders().getContentType());
+        Assertions.assertEquals(MediaType.APPLICATION_NDJSON, ndjson.getHeaders().getContentType());
+        Assertions.assertEquals(body, csv.getBody());
+        Mockito.verify(userExportService, Mockito.times(1)).exportUsers(UserImportService.TEXT_CSV);
+        Mockito.verify(userExportService, Mockito.times(1)).exportUsers(MediaType.APPLICATION_NDJSON);
     }
 
     private User getDefaultUser(String userName) {
@@ -0,0 +1,188 @@
+package com.paralelogram.user.repository;
+
+import com.paralelogram.user.entity.IdempotentRequest;
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.model.RoleRequest;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Runs the flyway migrations on a real postgres and lets hibernate validate the entities against them, then
+ * exercises the native queries that rely on postgres only features such as {@code on conflict} and partial indexes.
+ */
+@ActiveProfiles(value = { "test" })
+@TestPropertySource(locations = "/test.properties")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class PostgresSchemaTest {
+
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @Autowired
+    private Flyway flyway;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserProvisioningRepository userProvisioningRepository;
+
+    @Autowired
+    private IdempotentRequestRepository idempotentRequestRepository;
+
+    @Autowired
+    private ReconciliationCheckpointRepository checkpointRepository;
+
+    private Role role;
+
+    @DynamicPropertySource
+    static void postgresProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+    }
+
+    @AfterAll
+    public static void stopPostgres() throws IOException {
+        POSTGRES.close();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        jdbcTemplate.execute("truncate paralelogram_user, paralelogram_user_provisioning, paralelogram_idempotent_request, paralelogram_roles cascade");
+        role = roleRepository.save(Role.builder().roleId(UUID.randomUUID()).roleName(RoleRequest.ADMIN.getValue()).build());
+    }
+
+    @Test
+    public void givenEmptyDatabase_whenStart_thenApplyEveryMigration() {
+        // the context only starts when hibernate validated every entity against the migrated schema
+        Assertions.assertEquals(0, flyway.info().pending().length);
+        Assertions.assertTrue(flyway.info().applied().length >= 8);
+    }
+
+    @Test
+    public void givenReservedUserName_whenReserve_thenReturnZeroUntilReservationFails() {
+        UserProvisioning first = provisioning("user");
+
+        Assertions.assertEquals(1, userProvisioningRepository.reserve(first));
+        Assertions.assertEquals(0, userProvisioningRepository.reserve(provisioning("user")));
+
+        userProvisioningRepository.updateStatus(first.getProvisioningId(), ProvisioningStatus.FAILED, null, "error", Instant.now());
+        Assertions.assertEquals(1, userProvisioningRepository.reserve(provisioning("user")));
+    }
+
+    @Test
+    public void givenProvisionedUserDeletedOrRenamed_whenRelease_thenReserveUserNameAgain() {
+        UserProvisioning deleted = provisioned("deleted");
+        UserProvisioning renamed = provisioned("renamed");
+        UserProvisioning kept = provisioned("kept");
+        Assertions.assertEquals(0, userProvisioningRepository.reserve(provisioning("deleted")));
+
+        userRepository.deleteByUserIdIn(List.of(deleted.getUserId()));
+        User user = userRepository.findByUserIdIn(List.of(renamed.getUserId())).get(0);
+        user.setUserName("other");
+        userRepository.save(user);
+
+        Assertions.assertEquals(2, userProvisioningRepository.release(
+                List.of(deleted.getUserId(), renamed.getUserId(), kept.getUserId()), Instant.now()));
+        Assertions.assertEquals(1, userProvisioningRepository.reserve(provisioning("deleted")));
+        Assertions.assertEquals(1, userProvisioningRepository.reserve(provisioning("renamed")));
+        Assertions.assertEquals(0, userProvisioningRepository.reserve(provisioning("kept")));
+        Assertions.assertEquals(ProvisioningStatus.RELEASED,
+                userProvisioningRepository.findByProvisioningId(renamed.getProvisioningId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    public void givenUserNameOfExistingUser_whenReserve_thenReturnZero() {
+        userRepository.save(User.builder().userId(UUID.randomUUID()).userName("legacy").email("legacy@test.com").role(role).build());
+
+        Assertions.assertEquals(0, userProvisioningRepository.reserve(provisioning("legacy")));
+    }
+
+    @Test
+    public void givenClaimedKey_whenClaim_thenReturnZeroUntilItExpires() {
+        Instant now = Instant.now();
+
+        Assertions.assertEquals(1, idempotentRequestRepository.claim("key", "request", now.plusSeconds(60), now));
+        Assertions.assertEquals(0, idempotentRequestRepository.claim("key", "request", now.plusSeconds(60), now));
+        Assertions.assertEquals(IdempotentRequest.Status.IN_PROGRESS, idempotentRequestRepository.findById("key").orElseThrow().getStatus());
+
+        Instant later = now.plus(Duration.ofMinutes(2));
+        Assertions.assertEquals(1, idempotentRequestRepository.claim("key", "other", later.plusSeconds(60), later));
+        Assertions.assertEquals("other", idempotentRequestRepository.findById("key").orElseThrow().getRequestHash());
+    }
+
+    @Test
+    public void givenCheckpointLockedByOneOwner_whenLock_thenRejectOtherOwnersUntilUnlocked() {
+        Instant now = Instant.now();
+
+        Assertions.assertEquals(1, checkpointRepository.lock("keycloak-users", "first", now.plusSeconds(60), now));
+        Assertions.assertEquals(1, checkpointRepository.lock("keycloak-users", "first", now.plusSeconds(60), now));
+        Assertions.assertEquals(0, checkpointRepository.lock("keycloak-users", "second", now.plusSeconds(60), now));
+
+        Assertions.assertEquals(1, checkpointRepository.unlock("keycloak-users", "first"));
+        Assertions.assertEquals(1, checkpointRepository.lock("keycloak-users", "second", now.plusSeconds(60), now));
+        Assertions.assertEquals(1, checkpointRepository.unlock("keycloak-users", "second"));
+    }
+
+    private UserProvisioning provisioned(String userName) {
+        UserProvisioning provisioning = provisioning(userName);
+        provisioning.setUserId(UUID.randomUUID());
+        Assertions.assertEquals(1, userProvisioningRepository.reserve(provisioning));
+        userRepository.save(User.builder().userId(provisioning.getUserId()).userName(userName)
+                .email(provisioning.getEmail()).role(role).build());
+        userProvisioningRepository.updateStatus(provisioning.getProvisioningId(), ProvisioningStatus.PROVISIONED,
+                provisioning.getUserId(), null, Instant.now());
+        return provisioning;
+    }
+
+    private UserProvisioning provisioning(String userName) {
+        return UserProvisioning.builder()
+                .provisioningId(UUID.randomUUID())
+                .status(ProvisioningStatus.PENDING)
+                .userName(userName)
+                .email(userName + "@test.com")
+                .role(role)
+                .build();
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.paralelogram.user.repository;
+
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.UserResponse;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+@ActiveProfiles(value = { "test" })
+@TestPropertySource(locations = "/test.properties")
+@DataJpaTest(properties = {
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class UserRepositoryTest {
+
+    private static final int USERS = 200;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    public void setUp() {
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    public void givenInterleavedUsersAndProvisionings_whenFlush_thenBatchInsertsPerTable() {
+        long statements = prepareStatementsToInsertInterleaved(entityManager, roleRepository);
+
+        // one sequence call and one batch per 50 rows of each table
+        Assertions.assertTrue(statements <= 4 * USERS / 50,
+                "prepared " + statements + " statements, " + (double) statements / USERS + " per user");
+    }
+
+    @Test
+    public void givenSavedUsers_whenSave_thenAllocateUniqueIdsFromPool() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            users.add(User.builder().userId(UUID.randomUUID()).userName("user" + i).build());
+        }
+
+        List<User> saved = userRepository.saveAll(users);
+        entityManager.flush();
+
+        Assertions.assertEquals(120, saved.stream().map(User::getId).distinct().count());
+        Assertions.assertEquals(120, userRepository.count());
+    }
+
+    @Test
+    public void givenUsers_whenFindUserResponsesAfter_thenSeekInUserNameOrder() {
+        Role admin = roleRepository.save(Role.builder().roleId(UUID.randomUUID()).roleName(RoleRequest.ADMIN.getValue()).build());
+        Role visitor = roleRepository.save(Role.builder().roleId(UUID.randomUUID()).roleName(RoleRequest.VISITOR.getValue()).build());
+        for (String userName : List.of("d", "b", "e", "a", "c")) {
+            userRepository.save(User.builder().userId(UUID.randomUUID()).userName(userName)
+                    .role("b".equals(userName) || "d".equals(userName) ? visitor : admin).build());
+        }
+        entityManager.flush();
+
+        List<UserResponse> first = userRepository.findUserResponsesAfter("", Limit.of(2));
+        List<UserResponse> second = userRepository.findUserResponsesAfter(first.get(1).userName(), Limit.of(2));
+        List<UserResponse> admins = userRepository.findUserResponsesByRoleNameAfter(RoleRequest.ADMIN.getValue(), "a", Limit.of(10));
+
+        Assertions.assertEquals(List.of("a", "b"), first.stream().map(UserResponse::userName).toList());
+        Assertions.assertEquals(List.of("c", "d"), second.stream().map(UserResponse::userName).toList());
+        Assertions.assertEquals(List.of("c", "e"), admins.stream().map(UserResponse::userName).toList());
+        Assertions.assertEquals(RoleRequest.ADMIN.getValue(), admins.get(0).role());
+    }
+
+    @Test
+    public void givenUsers_whenStreamUserResponses_thenStreamWithoutManagingEntities() {
+        for (String userName : List.of("b", "a", "c")) {
+            userRepository.save(User.builder().userId(UUID.randomUUID()).userName(userName).build());
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        try (Stream<UserResponse> users = userRepository.streamUserResponses()) {
+            Assertions.assertEquals(List.of("a", "b", "c"), users.map(UserResponse::userName).toList());
+        }
+        Assertions.assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+    }
+
+    @Test
+    public void givenUser_whenLookUpByEmailInOtherCase_thenFindUser() {
+        userRepository.save(User.builder().userId(UUID.randomUUID()).userName("user").email("User@Test.com").build());
+        entityManager.flush();
+
+        Assertions.assertTrue(userRepository.existsByEmailIgnoreCase("user@test.COM"));
+        Assertions.assertEquals("user", userRepository.findUserResponseByEmailIgnoreCase("USER@test.com").get().userName());
+        Assertions.assertTrue(userRepository.findUserResponseByEmailIgnoreCase("other@test.com").isEmpty());
+    }
+
+    /**
+     * Persists a provisioning after every user in one flush, the way the entities are written together.
+     */
+    private static long prepareStatementsToInsertInterleaved(EntityManager entityManager, RoleRepository roleRepository) {
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        Role role = roleRepository.save(Role.builder().roleId(UUID.randomUUID()).roleName(RoleRequest.ADMIN.getValue()).build());
+        entityManager.flush();
+        statistics.clear();
+
+        for (int i = 0; i < USERS; i++) {
+            User user = User.builder().userId(UUID.randomUUID()).userName("user" + i).email("user" + i + "@test.com").role(role).build();
+            entityManager.persist(user);
+            entityManager.persist(UserProvisioning.builder().provisioningId(UUID.randomUUID()).status(ProvisioningStatus.PROVISIONED)
+                    .userName(user.getUserName()).userId(user.getUserId()).role(role).build());
+        }
+        entityManager.flush();
+
+        Assertions.assertEquals(2 * USERS, statistics.getEntityInsertCount());
+        return statistics.getPrepareStatementCount();
+    }
+
+    /**
+     * The id mapping every entity had before, a per-table sequence pooled by 50, with the inserts left in
+     * persist order.
+     */
+    @Nested
+    @DataJpaTest(properties = {
+            "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+            "spring.flyway.enabled=false",
+            "spring.jpa.hibernate.ddl-auto=create-drop",
+            "spring.jpa.properties.hibernate.generate_statistics=true",
+            "spring.jpa.properties.hibernate.order_inserts=false"
+    })
+    public class WithoutOrderedInserts {
+
+        @Autowired
+        private RoleRepository roleRepository;
+
+        @Autowired
+        private EntityManager entityManager;
+
+        @Test
+        public void givenInterleavedUsersAndProvisionings_whenFlush_thenPrepareStatementPerInsert() {
+            long statements = prepareStatementsToInsertInterleaved(entityManager, roleRepository);
+
+            // every insert switches the table and sends the pending batch of a single row
+            Assertions.assertTrue(statements >= 2 * USERS,
+                    "prepared " + statements + " statements, " + (double) statements / USERS + " per user");
+        }
+
+    }
+
+}
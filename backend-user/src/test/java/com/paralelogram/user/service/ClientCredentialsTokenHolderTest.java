@@ -0,0 +1,199 @@
+package com.paralelogram.user.service;
+
+import com.paralelogram.user.model.keycloak.KeycloakAccessToken;
+import com.paralelogram.user.service.impl.ClientCredentialsTokenHolder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClientCredentialsTokenHolderTest {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+    private final AtomicInteger fetches = new AtomicInteger();
+    private SimpleMeterRegistry meterRegistry;
+    private ClientCredentialsTokenHolder tokenHolder;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        tokenHolder = new ClientCredentialsTokenHolder(this::fetchToken, Duration.ofSeconds(30), Duration.ofSeconds(5), meterRegistry, clock);
+    }
+
+    @Test
+    public void givenCachedToken_whenGetToken_thenReturnCachedTokenWithoutFetching() {
+        String first = tokenHolder.getToken();
+        String second = tokenHolder.getToken();
+
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals(1, fetches.get());
+        Assertions.assertEquals(1.0, meterRegistry.counter("keycloak.client.token", "result", "hit").count());
+        Assertions.assertEquals(1.0, meterRegistry.counter("keycloak.client.token", "result", "miss").count());
+        Assertions.assertEquals(1.0, meterRegistry.counter("keycloak.client.token.refresh", "outcome", "success").count());
+    }
+
+    @Test
+    public void givenExpiredToken_whenGetToken_thenFetchNewToken() {
+        String first = tokenHolder.getToken();
+        clock.advance(Duration.ofSeconds(600));
+
+        String second = tokenHolder.getToken();
+
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void givenTokenInRefreshAheadWindow_whenGetToken_thenReturnCurrentTokenAndRefreshInBackground() throws Exception {
+        String first = tokenHolder.getToken();
+        clock.advance(Duration.ofSeconds(570));
+
+        Assertions.assertEquals(first, tokenHolder.getToken());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetches.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(2, fetches.get());
+        Assertions.assertNotEquals(first, tokenHolder.getToken());
+    }
+
+    @Test
+    public void givenFailingBackgroundRefresh_whenGetTokenRepeatedly_thenRetryOnlyAfterBackoff() throws Exception {
+        tokenHolder = new ClientCredentialsTokenHolder(() -> {
+            if (fetches.get() > 0) {
+                fetches.incrementAndGet();
+                throw new IllegalStateException("keycloak unavailable");
+            }
+            return fetchToken();
+        }, Duration.ofSeconds(30), Duration.ofSeconds(5), meterRegistry, clock);
+        String first = tokenHolder.getToken();
+        clock.advance(Duration.ofSeconds(570));
+
+        Assertions.assertEquals(first, tokenHolder.getToken());
+        awaitFetches(2);
+        // the failed background refresh backs off, the hits in between keep the current token without refreshing
+        Thread.sleep(50);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(first, tokenHolder.getToken());
+        }
+        Thread.sleep(100);
+        Assertions.assertEquals(2, fetches.get());
+
+        clock.advance(Duration.ofSeconds(5));
+        tokenHolder.getToken();
+        awaitFetches(3);
+        Assertions.assertEquals(3, fetches.get());
+    }
+
+    @Test
+    public void givenConcurrentCallersWithoutToken_whenGetToken_thenShareSingleFetch() throws Exception {
+        tokenHolder = new ClientCredentialsTokenHolder(() -> {
+            sleep(200);
+            return fetchToken();
+        }, Duration.ofSeconds(30), Duration.ofSeconds(5), meterRegistry, clock);
+
+        int callers = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return tokenHolder.getToken();
+            }));
+        }
+        start.countDown();
+
+        String expected = results.get(0).get();
+        for (Future<String> result : results) {
+            Assertions.assertEquals(expected, result.get());
+        }
+        executor.shutdown();
+        Assertions.assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void givenInvalidatedToken_whenGetToken_thenFetchNewToken() {
+        String first = tokenHolder.getToken();
+        tokenHolder.invalidate();
+
+        Assertions.assertNotEquals(first, tokenHolder.getToken());
+        Assertions.assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void givenFailingFetch_whenGetToken_thenThrowAndCountFailure() {
+        tokenHolder = new ClientCredentialsTokenHolder(() -> {
+            throw new IllegalStateException("keycloak unavailable");
+        }, Duration.ofSeconds(30), Duration.ofSeconds(5), meterRegistry, clock);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> tokenHolder.getToken());
+        Assertions.assertEquals(1.0, meterRegistry.counter("keycloak.client.token.refresh", "outcome", "failure").count());
+    }
+
+    private KeycloakAccessToken fetchToken() {
+        fetches.incrementAndGet();
+        return KeycloakAccessToken.builder()
+                .accessToken(UUID.randomUUID().toString())
+                .expiresIn(600L).tokenType("bearer").build();
+    }
+
+    private void awaitFetches(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetches.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class MutableClock extends Clock {
+
+        private volatile Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+
+}
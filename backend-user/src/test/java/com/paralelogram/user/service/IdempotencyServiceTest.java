@@ -0,0 +1,170 @@
+package com.paralelogram.user.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paralelogram.user.entity.IdempotentRequest;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.AddUserRequest;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.repository.IdempotentRequestRepository;
+import com.paralelogram.user.service.impl.IdempotencyServiceImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+@ExtendWith(MockitoExtension.class)
+public class IdempotencyServiceTest {
+
+    @Mock
+    private IdempotentRequestRepository idempotentRequestRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Supplier<ResponseEntity<Object>> addUser = () -> {
+        calls.incrementAndGet();
+        return ResponseEntity.accepted().location(URI.create("/user/provisioning/1")).body(Map.of("userName", "user"));
+    };
+
+    private IdempotencyServiceImpl idempotencyService;
+
+    @BeforeEach
+    public void setUp() {
+        idempotencyService = new IdempotencyServiceImpl(idempotentRequestRepository, new TransactionTemplate(transactionManager),
+                objectMapper, Duration.ofHours(24), Duration.ofMinutes(2), Duration.ofMinutes(10), 2);
+    }
+
+    @Test
+    public void givenNewKey_whenExecute_thenRunRequestAndStoreResponse() {
+        Mockito.when(idempotentRequestRepository.claim(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(1);
+
+        ResponseEntity<Object> actual = idempotencyService.execute("key", addUserRequest("user"), addUser);
+
+        ArgumentCaptor<String> headersCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> bodyCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(idempotentRequestRepository).complete(ArgumentMatchers.anyString(), ArgumentMatchers.eq(202),
+                headersCaptor.capture(), bodyCaptor.capture(), ArgumentMatchers.isNull(), ArgumentMatchers.any());
+        Assertions.assertEquals(HttpStatus.ACCEPTED, actual.getStatusCode());
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals("{\"Location\":\"/user/provisioning/1\"}", headersCaptor.getValue());
+        Assertions.assertEquals("{\"userName\":\"user\"}", bodyCaptor.getValue());
+    }
+
+    @Test
+    public void givenCompletedKey_whenExecute_thenReplayStoredResponse() {
+        givenStoredKey(IdempotentRequest.Status.COMPLETED, true);
+
+        ResponseEntity<Object> actual = idempotencyService.execute("key", addUserRequest("user"), addUser);
+
+        Assertions.assertEquals(0, calls.get());
+        Assertions.assertEquals(HttpStatus.ACCEPTED, actual.getStatusCode());
+        Assertions.assertEquals("/user/provisioning/1", actual.getHeaders().getLocation().toString());
+        Assertions.assertEquals("true", actual.getHeaders().getFirst("Idempotent-Replayed"));
+        Assertions.assertEquals("{\"userName\":\"user\"}", actual.getBody());
+    }
+
+    @Test
+    public void givenKeyInProgress_whenExecute_thenThrowConflict() {
+        givenStoredKey(IdempotentRequest.Status.IN_PROGRESS, true);
+
+        UserException actual = Assertions.assertThrows(UserException.class,
+                () -> idempotencyService.execute("key", addUserRequest("user"), addUser));
+
+        Assertions.assertEquals(HttpStatus.CONFLICT, actual.getStatus());
+        Assertions.assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void givenKeyUsedForDifferentRequest_whenExecute_thenThrowUnprocessableEntity() {
+        givenStoredKey(IdempotentRequest.Status.COMPLETED, false);
+
+        UserException actual = Assertions.assertThrows(UserException.class,
+                () -> idempotencyService.execute("key", addUserRequest("user"), addUser));
+
+        Assertions.assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, actual.getStatus());
+        Assertions.assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void givenClientError_whenExecute_thenStoreError() {
+        Mockito.when(idempotentRequestRepository.claim(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(1);
+
+        Assertions.assertThrows(UserException.class, () -> idempotencyService.execute("key", addUserRequest("user"), () -> {
+            throw new UserException(HttpStatus.BAD_REQUEST, "email test@test.com already exists", null);
+        }));
+
+        Mockito.verify(idempotentRequestRepository).complete(ArgumentMatchers.anyString(), ArgumentMatchers.eq(400),
+                ArgumentMatchers.isNull(), ArgumentMatchers.isNull(), ArgumentMatchers.eq("email test@test.com already exists"),
+                ArgumentMatchers.any());
+        Mockito.verify(idempotentRequestRepository, Mockito.never()).release(ArgumentMatchers.anyString());
+    }
+
+    @Test
+    public void givenServerError_whenExecute_thenReleaseKey() {
+        Mockito.when(idempotentRequestRepository.claim(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(1);
+
+        Assertions.assertThrows(UserException.class, () -> idempotencyService.execute("key", addUserRequest("user"), () -> {
+            throw new UserException(HttpStatus.SERVICE_UNAVAILABLE, "keycloak createUser unavailable", null);
+        }));
+
+        Mockito.verify(idempotentRequestRepository).release(ArgumentMatchers.anyString());
+        Mockito.verify(idempotentRequestRepository, Mockito.never()).complete(ArgumentMatchers.anyString(), ArgumentMatchers.anyInt(),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenExpiredKeys_whenEvictExpired_thenDeleteInBatches() {
+        Mockito.when(idempotentRequestRepository.deleteExpired(ArgumentMatchers.any(), ArgumentMatchers.eq(2))).thenReturn(2, 2, 1);
+
+        Assertions.assertEquals(5, idempotencyService.evictExpired());
+    }
+
+    private void givenStoredKey(IdempotentRequest.Status status, boolean sameRequest) {
+        // the stored request hash is the one claimed by the retry unless the key was used for another request
+        ArgumentCaptor<String> requestHashCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.when(idempotentRequestRepository.claim(ArgumentMatchers.anyString(), requestHashCaptor.capture(),
+                ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(0);
+        Mockito.when(idempotentRequestRepository.findById(ArgumentMatchers.anyString())).thenAnswer(invocation -> Optional.of(
+                IdempotentRequest.builder()
+                        .keyHash(invocation.getArgument(0))
+                        .requestHash(sameRequest ? requestHashCaptor.getValue() : "other")
+                        .status(status)
+                        .responseStatus(status == IdempotentRequest.Status.COMPLETED ? 202 : null)
+                        .responseHeaders("{\"Location\":\"/user/provisioning/1\"}")
+                        .responseBody("{\"userName\":\"user\"}")
+                        .expiresAt(Instant.now().plusSeconds(60))
+                        .build()));
+    }
+
+    private static AddUserRequest addUserRequest(String userName) {
+        return AddUserRequest.builder()
+                .userName(userName)
+                .email("test@test.com")
+                .password("pass")
+                .role(RoleRequest.ADMIN)
+                .build();
+    }
+
+}
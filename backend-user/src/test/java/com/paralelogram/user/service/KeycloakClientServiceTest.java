@@ -5,12 +5,18 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.paralelogram.keycloak.client.KeycloakClient;
+import com.paralelogram.keycloak.client.KeycloakClientMetrics;
+import com.paralelogram.keycloak.client.KeycloakClientProperties;
+import com.paralelogram.keycloak.client.KeycloakResilience;
+import com.paralelogram.keycloak.client.KeycloakResilienceProperties;
 import com.paralelogram.user.exception.UserException;
 import com.paralelogram.user.model.keycloak.CredentialRepresentation;
 import com.paralelogram.user.model.keycloak.KeycloakAccessToken;
 import com.paralelogram.user.model.keycloak.RoleRepresentation;
 import com.paralelogram.user.model.keycloak.UserRepresentation;
 import com.paralelogram.user.service.impl.KeycloakClientServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -23,18 +29,25 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.boot.test.json.BasicJsonTester;
 import org.springframework.boot.test.json.JsonContent;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class KeycloakClientServiceTest {
 
     private KeycloakClientServiceImpl keycloakClientService;
 
+    private KeycloakClient keycloakClient;
+    private KeycloakResilience keycloakResilience;
+    private SimpleMeterRegistry meterRegistry;
     private MockWebServer mockBackEnd;
     private final ObjectMapper om = new ObjectMapper();
     private final BasicJsonTester json = new BasicJsonTester(this.getClass());
@@ -45,13 +58,19 @@ public class KeycloakClientServiceTest {
         mockBackEnd.start();
 
         String baseUrl = String.format("http://localhost:%s", mockBackEnd.getPort());
-        keycloakClientService = new KeycloakClientServiceImpl(baseUrl, "paralelogram", "test_client", "test_secret", null);
+        keycloakClient = KeycloakClient.create(KeycloakClientProperties.builder().baseUrl(baseUrl).realm("paralelogram").build());
+        meterRegistry = new SimpleMeterRegistry();
+        keycloakResilience = new KeycloakResilience(KeycloakResilienceProperties.builder().build());
+        keycloakClientService = new KeycloakClientServiceImpl(keycloakClient, keycloakResilience,
+                new KeycloakClientMetrics(meterRegistry, List.of()), "test_client", "test_secret",
+                Duration.ofSeconds(30), Duration.ofSeconds(5), meterRegistry);
 
         MockitoAnnotations.openMocks(this);
     }
 
     @AfterEach
     public void tearDown() throws IOException {
+        keycloakClient.close();
         mockBackEnd.shutdown();
     }
 
@@ -110,6 +129,40 @@ public class KeycloakClientServiceTest {
         Assertions.assertEquals("error encountered while creating user", exception.getMessage());
     }
 
+    @Test
+    public void givenOpenCircuitBreaker_whenCreateUser_thenFailFastWithServiceUnavailable() {
+        KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        AtomicInteger userRequests = new AtomicInteger();
+
+        Dispatcher mDispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains("/token")) {
+                    try {
+                        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
+                    } catch (JsonProcessingException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (request.getPath().contains("/users")) {
+                    userRequests.incrementAndGet();
+                    return new MockResponse().setResponseCode(201);
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        };
+        mockBackEnd.setDispatcher(mDispatcher);
+        keycloakResilience.getCircuitBreakerRegistry().circuitBreaker("createUser").transitionToOpenState();
+
+        UserException exception = Assertions.assertThrows(UserException.class,
+                () -> keycloakClientService.createUser(getDefaultUserRepresentation()));
+
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        Assertions.assertEquals(0, userRequests.get());
+        Assertions.assertEquals(1, meterRegistry.get(KeycloakClientMetrics.REQUESTS)
+                .tags("operation", "createUser", "outcome", "rejected").timer().count());
+    }
+
     @Test
     public void givenUserRepresentationAnd204Response_whenCreateUser_thenThrowUserException() {
         KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
@@ -236,38 +289,16 @@ public class KeycloakClientServiceTest {
     }
 
     @Test
-    public void givenValidUserIdWithValidClientToken_whenDeleteUser_thenReturnTrue() {
-        String baseUrl = String.format("http://localhost:%s", mockBackEnd.getPort());
-        keycloakClientService = new KeycloakClientServiceImpl(baseUrl, "paralelogram", "test_client", "test_secret", UUID.randomUUID().toString());
-
-        Dispatcher mDispatcher = new Dispatcher() {
-            @Override
-            public MockResponse dispatch(RecordedRequest request) {
-                if (request.getPath().contains("/userinfo")) {
-                    return new MockResponse().setResponseCode(200);
-                }
-                if ("DELETE".equals(request.getMethod()) && request.getPath().contains("/users")) {
-                    return new MockResponse().setResponseCode(204);
-                }
-                return new MockResponse().setResponseCode(404);
-            }
-        };
-        mockBackEnd.setDispatcher(mDispatcher);
-        boolean actual = keycloakClientService.deleteUser(UUID.randomUUID());
-        Assertions.assertEquals(true, actual);
-    }
-
-    @Test
-    public void givenValidUserIdWithInvalidClientTokenWith201Response_whenDeleteUser_thenReturnTrue() {
-        String baseUrl = String.format("http://localhost:%s", mockBackEnd.getPort());
-        keycloakClientService = new KeycloakClientServiceImpl(baseUrl, "paralelogram", "test_client", "test_secret", UUID.randomUUID().toString());
-
+    public void givenCachedClientToken_whenDeleteUserTwice_thenRequestClientTokenOnce() {
         KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        AtomicInteger tokenRequests = new AtomicInteger();
+        AtomicInteger userInfoRequests = new AtomicInteger();
 
         Dispatcher mDispatcher = new Dispatcher() {
             @Override
             public MockResponse dispatch(RecordedRequest request) {
                 if (request.getPath().contains("/token")) {
+                    tokenRequests.incrementAndGet();
                     try {
                         return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
                     } catch (JsonProcessingException e) {
@@ -275,48 +306,52 @@ public class KeycloakClientServiceTest {
                     }
                 }
                 if (request.getPath().contains("/userinfo")) {
-                    return new MockResponse().setResponseCode(201);
+                    userInfoRequests.incrementAndGet();
+                    return new MockResponse().setResponseCode(200);
                 }
                 if ("DELETE".equals(request.getMethod()) && request.getPath().contains("/users")) {
+                    Assertions.assertEquals("Bearer " + accessToken.getAccessToken(), request.getHeader(HttpHeaders.AUTHORIZATION));
                     return new MockResponse().setResponseCode(204);
                 }
                 return new MockResponse().setResponseCode(404);
             }
         };
         mockBackEnd.setDispatcher(mDispatcher);
-        boolean actual = keycloakClientService.deleteUser(UUID.randomUUID());
-        Assertions.assertEquals(true, actual);
+
+        Assertions.assertTrue(keycloakClientService.deleteUser(UUID.randomUUID()));
+        Assertions.assertTrue(keycloakClientService.deleteUser(UUID.randomUUID()));
+        Assertions.assertEquals(1, tokenRequests.get());
+        Assertions.assertEquals(0, userInfoRequests.get());
     }
 
     @Test
-    public void givenValidUserIdWithInvalidClientTokenWith401Response_whenDeleteUser_thenReturnTrue() {
-        String baseUrl = String.format("http://localhost:%s", mockBackEnd.getPort());
-        keycloakClientService = new KeycloakClientServiceImpl(baseUrl, "paralelogram", "test_client", "test_secret", UUID.randomUUID().toString());
-
+    public void givenClientTokenRejectedWith401Response_whenDeleteUserAgain_thenRequestNewClientToken() {
         KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        AtomicInteger tokenRequests = new AtomicInteger();
+        AtomicInteger deleteRequests = new AtomicInteger();
 
         Dispatcher mDispatcher = new Dispatcher() {
             @Override
             public MockResponse dispatch(RecordedRequest request) {
                 if (request.getPath().contains("/token")) {
+                    tokenRequests.incrementAndGet();
                     try {
                         return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
                     } catch (JsonProcessingException e) {
                         e.printStackTrace();
                     }
                 }
-                if (request.getPath().contains("/userinfo")) {
-                    return new MockResponse().setResponseCode(401);
-                }
                 if ("DELETE".equals(request.getMethod()) && request.getPath().contains("/users")) {
-                    return new MockResponse().setResponseCode(204);
+                    return new MockResponse().setResponseCode(deleteRequests.incrementAndGet() == 1 ? 401 : 204);
                 }
                 return new MockResponse().setResponseCode(404);
             }
         };
         mockBackEnd.setDispatcher(mDispatcher);
-        boolean actual = keycloakClientService.deleteUser(UUID.randomUUID());
-        Assertions.assertEquals(true, actual);
+
+        Assertions.assertThrows(UserException.class, () -> keycloakClientService.deleteUser(UUID.randomUUID()));
+        Assertions.assertTrue(keycloakClientService.deleteUser(UUID.randomUUID()));
+        Assertions.assertEquals(2, tokenRequests.get());
     }
 
     @Test
@@ -418,6 +453,165 @@ public class KeycloakClientServiceTest {
     }
 
 
+
+    @Test
+    public void givenExistingRoleName_whenGetRole_thenReturnRoleRepresentation() {
+        KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        String roleId = UUID.randomUUID().toString();
+        Dispatcher mDispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains("/token")) {
+                    try {
+                        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
+                    } catch (JsonProcessingException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if ("/admin/realms/paralelogram/roles/paralelogram_admin".equals(request.getPath())) {
+                    return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .setBody("{\"id\":\"" + roleId + "\",\"name\":\"paralelogram_admin\",\"composite\":false}");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        };
+        mockBackEnd.setDispatcher(mDispatcher);
+
+        RoleRepresentation actual = keycloakClientService.getRole("paralelogram_admin");
+
+        Assertions.assertEquals(roleId, actual.getId());
+        Assertions.assertEquals("paralelogram_admin", actual.getName());
+    }
+
+    @Test
+    public void givenUnknownRoleName_whenGetRole_thenThrowUserException() {
+        KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        Dispatcher mDispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains("/token")) {
+                    try {
+                        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
+                    } catch (JsonProcessingException e) {
+                        e.printStackTrace();
+                    }
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        };
+        mockBackEnd.setDispatcher(mDispatcher);
+
+        UserException exception = Assertions.assertThrows(UserException.class, () -> keycloakClientService.getRole("unknown"));
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+        Assertions.assertEquals("error encountered while getting role", exception.getMessage());
+    }
+
+    @Test
+    public void givenRoleName_whenGetRoleUsers_thenReturnPageOfUserRepresentations() {
+        KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        String userId = UUID.randomUUID().toString();
+        Dispatcher mDispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains("/token")) {
+                    try {
+                        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
+                    } catch (JsonProcessingException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if ("/admin/realms/paralelogram/roles/paralelogram_admin/users?first=100&max=50&briefRepresentation=true".equals(request.getPath())) {
+                    return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .setBody("[{\"id\":\"" + userId + "\",\"username\":\"admin\",\"createdTimestamp\":1700000000000,\"totp\":false}]");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        };
+        mockBackEnd.setDispatcher(mDispatcher);
+
+        List<UserRepresentation> actual = keycloakClientService.getRoleUsers("paralelogram_admin", 100, 50);
+
+        Assertions.assertEquals(1, actual.size());
+        Assertions.assertEquals(userId, actual.get(0).getId());
+        Assertions.assertEquals(1700000000000L, actual.get(0).getCreatedTimestamp());
+    }
+
+    @Test
+    public void givenExistingUserName_whenFindUserByUserName_thenReturnUserRepresentation() {
+        KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        String userId = UUID.randomUUID().toString();
+        Dispatcher mDispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains("/token")) {
+                    try {
+                        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
+                    } catch (JsonProcessingException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if ("/admin/realms/paralelogram/users?username=user&exact=true".equals(request.getPath())) {
+                    return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .setBody("[{\"id\":\"" + userId + "\",\"username\":\"user\",\"email\":\"test@test.com\"}]");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        };
+        mockBackEnd.setDispatcher(mDispatcher);
+
+        UserRepresentation actual = keycloakClientService.findUserByUserName("user");
+
+        Assertions.assertEquals(userId, actual.getId());
+        Assertions.assertEquals("test@test.com", actual.getEmail());
+    }
+
+    @Test
+    public void givenUnknownUserName_whenFindUserByUserName_thenReturnNull() {
+        KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        Dispatcher mDispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains("/token")) {
+                    try {
+                        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
+                    } catch (JsonProcessingException e) {
+                        e.printStackTrace();
+                    }
+                }
+                return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody("[]");
+            }
+        };
+        mockBackEnd.setDispatcher(mDispatcher);
+
+        Assertions.assertNull(keycloakClientService.findUserByUserName("user"));
+    }
+
+    @Test
+    public void givenUnknownUserId_whenGetUserRoles_thenThrowNotFoundUserException() {
+        KeycloakAccessToken accessToken = getDefaultMockKeycloakAccessToken();
+        Dispatcher mDispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().contains("/token")) {
+                    try {
+                        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody(om.writeValueAsString(accessToken));
+                    } catch (JsonProcessingException e) {
+                        e.printStackTrace();
+                    }
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        };
+        mockBackEnd.setDispatcher(mDispatcher);
+
+        UserException exception = Assertions.assertThrows(UserException.class,
+                () -> keycloakClientService.getUserRoles(UUID.randomUUID()));
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+        Assertions.assertEquals("error encountered while getting user roles", exception.getMessage());
+    }
+
     private KeycloakAccessToken getDefaultMockKeycloakAccessToken() {
         return KeycloakAccessToken.builder()
                 .accessToken(UUID.randomUUID().toString()).refreshToken(UUID.randomUUID().toString())
@@ -0,0 +1,126 @@
+package com.paralelogram.user.service;
+
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.keycloak.RoleRepresentation;
+import com.paralelogram.user.repository.RoleRepository;
+import com.paralelogram.user.service.impl.RoleRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+@ExtendWith(MockitoExtension.class)
+public class RoleRegistryTest {
+
+    @Mock
+    private RoleRepository roleRepository;
+
+    @Mock
+    private KeycloakClientService keycloakClientService;
+
+    private RoleRegistry roleRegistry;
+
+    @AfterEach
+    public void tearDown() {
+        if (roleRegistry != null) {
+            roleRegistry.stop();
+        }
+    }
+
+    @Test
+    public void givenRolesLoaded_whenGet_thenResolveWithoutDatabase() {
+        Role admin = getRole(RoleRequest.ADMIN);
+        Role visitor = getRole(RoleRequest.VISITOR);
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(admin, visitor));
+        roleRegistry = createRoleRegistry(Duration.ofMinutes(1), false);
+        roleRegistry.start();
+
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(admin, roleRegistry.get(RoleRequest.ADMIN).get());
+            Assertions.assertEquals(visitor, roleRegistry.getByRoleId(visitor.getRoleId()).get());
+        }
+
+        Mockito.verify(roleRepository, Mockito.times(1)).findAll();
+    }
+
+    @Test
+    public void givenRoleAddedAfterStart_whenGet_thenRefreshOnDemand() {
+        Role admin = getRole(RoleRequest.ADMIN);
+        Role visitor = getRole(RoleRequest.VISITOR);
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(admin), List.of(admin, visitor));
+        roleRegistry = createRoleRegistry(Duration.ZERO, false);
+        roleRegistry.start();
+
+        Assertions.assertEquals(visitor, roleRegistry.get(RoleRequest.VISITOR).get());
+        Mockito.verify(roleRepository, Mockito.times(2)).findAll();
+    }
+
+    @Test
+    public void givenMissingRoleWithinMinRefreshInterval_whenGet_thenDoNotQueryDatabaseAgain() {
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(getRole(RoleRequest.ADMIN)));
+        roleRegistry = createRoleRegistry(Duration.ofMinutes(1), false);
+        roleRegistry.start();
+
+        Assertions.assertTrue(roleRegistry.get(RoleRequest.VISITOR).isEmpty());
+        Assertions.assertTrue(roleRegistry.get(RoleRequest.VISITOR).isEmpty());
+        Mockito.verify(roleRepository, Mockito.times(1)).findAll();
+    }
+
+    @Test
+    public void givenRolesMatchingKeycloak_whenStartWithVerification_thenStart() {
+        Role admin = getRole(RoleRequest.ADMIN);
+        Role visitor = getRole(RoleRequest.VISITOR);
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(admin, visitor));
+        Mockito.when(keycloakClientService.getRole(RoleRequest.ADMIN.getValue())).thenReturn(getRoleRepresentation(admin));
+        Mockito.when(keycloakClientService.getRole(RoleRequest.VISITOR.getValue())).thenReturn(getRoleRepresentation(visitor));
+        roleRegistry = createRoleRegistry(Duration.ofMinutes(1), true);
+
+        Assertions.assertDoesNotThrow(() -> roleRegistry.start());
+    }
+
+    @Test
+    public void givenRoleMissingInKeycloak_whenStartWithVerification_thenFail() {
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(getRole(RoleRequest.ADMIN), getRole(RoleRequest.VISITOR)));
+        Mockito.when(keycloakClientService.getRole(RoleRequest.ADMIN.getValue()))
+                .thenThrow(new UserException(HttpStatus.NOT_FOUND, "error encountered while getting role", null));
+        roleRegistry = createRoleRegistry(Duration.ofMinutes(1), true);
+
+        IllegalStateException exception = Assertions.assertThrows(IllegalStateException.class, () -> roleRegistry.start());
+
+        Assertions.assertEquals("role " + RoleRequest.ADMIN.getValue() + " does not exist in keycloak", exception.getMessage());
+    }
+
+    @Test
+    public void givenRoleIdNotMatchingKeycloak_whenStartWithVerification_thenFail() {
+        Role admin = getRole(RoleRequest.ADMIN);
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(admin, getRole(RoleRequest.VISITOR)));
+        Mockito.when(keycloakClientService.getRole(RoleRequest.ADMIN.getValue()))
+                .thenReturn(RoleRepresentation.builder().id(UUID.randomUUID().toString()).name(admin.getRoleName()).build());
+        roleRegistry = createRoleRegistry(Duration.ofMinutes(1), true);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> roleRegistry.start());
+    }
+
+    private RoleRegistry createRoleRegistry(Duration minRefreshInterval, boolean verifyInKeycloak) {
+        return new RoleRegistry(roleRepository, keycloakClientService, Duration.ofMinutes(10), minRefreshInterval, verifyInKeycloak);
+    }
+
+    private Role getRole(RoleRequest roleRequest) {
+        return Role.builder().id((long) roleRequest.ordinal() + 1).roleId(UUID.randomUUID()).roleName(roleRequest.getValue()).build();
+    }
+
+    private RoleRepresentation getRoleRepresentation(Role role) {
+        return RoleRepresentation.builder().id(role.getRoleId().toString()).name(role.getRoleName()).build();
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.paralelogram.user.service;
+
+import com.paralelogram.user.model.UserResponse;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.impl.UserCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@ExtendWith(MockitoExtension.class)
+public class UserCacheTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final AtomicLong nanos = new AtomicLong();
+    private SimpleMeterRegistry meterRegistry;
+    private UserCache userCache;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        userCache = new UserCache(userRepository, new TransactionTemplate(transactionManager), 100, Duration.ofMinutes(5),
+                Duration.ofSeconds(10), meterRegistry, nanos::get);
+    }
+
+    @Test
+    public void givenCachedUser_whenGetBeforeTtl_thenServeFromCache() {
+        Mockito.when(userRepository.findUserResponseByUserName("user")).thenReturn(Optional.of(getDefaultUser("user")));
+
+        userCache.get("user");
+        advance(Duration.ofMinutes(4));
+        Optional<UserResponse> actual = userCache.get("user");
+
+        Mockito.verify(userRepository, Mockito.times(1)).findUserResponseByUserName("user");
+        Assertions.assertEquals("user", actual.get().userName());
+    }
+
+    @Test
+    public void givenUncachedUser_whenGet_thenLoadInReadWriteTransaction() {
+        Mockito.when(userRepository.findUserResponseByUserName("user")).thenReturn(Optional.of(getDefaultUser("user")));
+
+        userCache.get("user");
+
+        // a read-write transaction is served by the primary, a lagging replica could cache a stale user
+        Mockito.verify(transactionManager).getTransaction(ArgumentMatchers.<TransactionDefinition>argThat(definition -> !definition.isReadOnly()));
+    }
+
+    @Test
+    public void givenCachedUser_whenGetAfterTtl_thenReload() {
+        Mockito.when(userRepository.findUserResponseByUserName("user")).thenReturn(Optional.of(getDefaultUser("user")));
+
+        userCache.get("user");
+        advance(Duration.ofMinutes(6));
+        userCache.get("user");
+
+        Mockito.verify(userRepository, Mockito.times(2)).findUserResponseByUserName("user");
+    }
+
+    @Test
+    public void givenUnknownUser_whenGetAfterNegativeTtl_thenReload() {
+        Mockito.when(userRepository.findUserResponseByUserName("unknown")).thenReturn(Optional.empty());
+
+        userCache.get("unknown");
+        advance(Duration.ofSeconds(5));
+        Assertions.assertTrue(userCache.get("unknown").isEmpty());
+        Mockito.verify(userRepository, Mockito.times(1)).findUserResponseByUserName("unknown");
+
+        advance(Duration.ofSeconds(6));
+        userCache.get("unknown");
+        Mockito.verify(userRepository, Mockito.times(2)).findUserResponseByUserName("unknown");
+    }
+
+    @Test
+    public void givenCachedUser_whenInvalidate_thenReload() {
+        Mockito.when(userRepository.findUserResponseByUserName("user")).thenReturn(Optional.of(getDefaultUser("user")));
+
+        userCache.get("user");
+        userCache.invalidate("user");
+        userCache.get("user");
+
+        Mockito.verify(userRepository, Mockito.times(2)).findUserResponseByUserName("user");
+    }
+
+    @Test
+    public void givenConcurrentMisses_whenGet_thenLoadOnce() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        Mockito.when(userRepository.findUserResponseByUserName("user")).thenAnswer(invocation -> {
+            loading.await(1, TimeUnit.SECONDS);
+            return Optional.of(getDefaultUser("user"));
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Optional<UserResponse>>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> userCache.get("user")));
+        }
+        loading.countDown();
+        for (Future<Optional<UserResponse>> result : results) {
+            Assertions.assertTrue(result.get(5, TimeUnit.SECONDS).isPresent());
+        }
+        executor.shutdown();
+
+        Mockito.verify(userRepository, Mockito.times(1)).findUserResponseByUserName("user");
+    }
+
+    @Test
+    public void givenHitsAndMisses_whenGet_thenPublishCacheMetrics() {
+        Mockito.when(userRepository.findUserResponseByUserName("user")).thenReturn(Optional.of(getDefaultUser("user")));
+
+        userCache.get("user");
+        userCache.get("user");
+        userCache.get("user");
+
+        Assertions.assertEquals(2, meterRegistry.get("cache.gets").tags("cache", "users", "result", "hit").functionCounter().count());
+        Assertions.assertEquals(1, meterRegistry.get("cache.gets").tags("cache", "users", "result", "miss").functionCounter().count());
+    }
+
+    private void advance(Duration duration) {
+        nanos.addAndGet(duration.toNanos());
+    }
+
+    private UserResponse getDefaultUser(String userName) {
+        return new UserResponse(UUID.randomUUID(), userName, "email@test.com", null, null, null);
+    }
+
+}
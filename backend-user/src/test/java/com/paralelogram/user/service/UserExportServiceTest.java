@@ -0,0 +1,133 @@
+package com.paralelogram.user.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.UserResponse;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.impl.UserExportServiceImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+@ExtendWith(MockitoExtension.class)
+public class UserExportServiceTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final UUID userId = UUID.randomUUID();
+
+    @Test
+    public void givenUsers_whenExportUsersAsNdjson_thenWriteOneLinePerUserAndCloseStream() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        Mockito.when(userRepository.streamUserResponses()).thenReturn(Stream.of(
+                new UserResponse(userId, "user", "user@test.com", null, null, "paralelogram_admin")).onClose(() -> closed.set(true)));
+
+        String actual = export(createUserExportService(1).exportUsers(MediaType.APPLICATION_NDJSON));
+
+        Assertions.assertEquals("{\"userId\":\"" + userId + "\",\"userName\":\"user\",\"email\":\"user@test.com\","
+                + "\"firstName\":null,\"lastName\":null,\"role\":\"paralelogram_admin\"}\n", actual);
+        Assertions.assertTrue(closed.get());
+    }
+
+    @Test
+    public void givenUsers_whenExportUsersAsCsv_thenWriteHeaderAndEscapedRows() throws Exception {
+        Mockito.when(userRepository.streamUserResponses()).thenReturn(Stream.of(
+                new UserResponse(userId, "user", "user@test.com", "Sample, Jr", "The \"User\"", "paralelogram_admin")));
+
+        String actual = export(createUserExportService(1).exportUsers(UserImportService.TEXT_CSV));
+
+        Assertions.assertEquals("userId,userName,email,firstName,lastName,role\n"
+                + userId + ",user,user@test.com,\"Sample, Jr\",\"The \"\"User\"\"\",paralelogram_admin\n", actual);
+    }
+
+    @Test
+    public void givenExportInProgress_whenExportUsers_thenThrowTooManyRequestsUntilDone() throws Exception {
+        Mockito.when(userRepository.streamUserResponses()).thenReturn(Stream.empty());
+        UserExportService userExportService = createUserExportService(1);
+
+        StreamingResponseBody first = userExportService.exportUsers(MediaType.APPLICATION_NDJSON);
+        UserException exception = Assertions.assertThrows(UserException.class,
+                () -> userExportService.exportUsers(MediaType.APPLICATION_NDJSON));
+        export(first);
+
+        Assertions.assertEquals(HttpStatus.TOO_MANY_REQUESTS, exception.getStatus());
+        Assertions.assertDoesNotThrow(() -> userExportService.exportUsers(MediaType.APPLICATION_NDJSON));
+    }
+
+    @Test
+    public void givenExportRejectedBeforeItRuns_whenAsyncRequestCompletes_thenReleasePermit() throws Exception {
+        UserExportService userExportService = createUserExportService(1);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        try {
+            StreamingResponseBody body = userExportService.exportUsers(MediaType.APPLICATION_NDJSON);
+            WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+            asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+            asyncManager.setTaskExecutor(new SimpleAsyncTaskExecutor() {
+                @Override
+                public Future<?> submit(Runnable task) {
+                    throw new RejectedExecutionException("executor is full");
+                }
+            });
+            asyncManager.startCallableProcessing(() -> {
+                body.writeTo(new ByteArrayOutputStream());
+                return null;
+            });
+            Assertions.assertThrows(UserException.class, () -> userExportService.exportUsers(MediaType.APPLICATION_NDJSON));
+
+            request.getAsyncContext().complete();
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        Assertions.assertDoesNotThrow(() -> userExportService.exportUsers(MediaType.APPLICATION_NDJSON));
+    }
+
+    @Test
+    public void givenUnsupportedFormat_whenExportUsers_thenThrowNotAcceptable() {
+        UserException exception = Assertions.assertThrows(UserException.class,
+                () -> createUserExportService(1).exportUsers(MediaType.APPLICATION_XML));
+
+        Assertions.assertEquals(HttpStatus.NOT_ACCEPTABLE, exception.getStatus());
+    }
+
+    private UserExportService createUserExportService(int maxConcurrentExports) {
+        return new UserExportServiceImpl(userRepository, transactionManager, new ObjectMapper(), maxConcurrentExports);
+    }
+
+    private String export(StreamingResponseBody body) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        body.writeTo(output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,293 @@
+package com.paralelogram.user.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paralelogram.user.entity.OutboxEvent;
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.ImportUserResult;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.keycloak.UserRepresentation;
+import com.paralelogram.user.repository.OutboxEventRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.impl.RoleRegistry;
+import com.paralelogram.user.service.impl.UserCache;
+import com.paralelogram.user.service.impl.UserImportServiceImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ExtendWith(MockitoExtension.class)
+public class UserImportServiceTest {
+
+    @Mock
+    private RoleRegistry roleRegistry;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private UserProvisioningRepository userProvisioningRepository;
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    @Mock
+    private KeycloakClientService keycloakClientService;
+
+    @Mock
+    private UserCache userCache;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+    private final List<List<ImportUserResult>> chunks = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        Mockito.lenient().when(roleRegistry.get(RoleRequest.ADMIN)).thenReturn(Optional.of(role));
+        Mockito.lenient().when(roleRegistry.get(RoleRequest.VISITOR)).thenReturn(Optional.empty());
+        Mockito.lenient().when(userProvisioningRepository.reserve(ArgumentMatchers.any(UserProvisioning.class))).thenReturn(1);
+        Mockito.lenient().when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenAnswer(invocation -> UUID.randomUUID());
+        Mockito.lenient().when(keycloakClientService.addUserRole(ArgumentMatchers.any(UUID.class), ArgumentMatchers.anyList())).thenReturn(true);
+    }
+
+    @Test
+    public void givenNdjsonRows_whenImportUsers_thenProvisionAndInsertInChunks() throws Exception {
+        UserImportService userImportService = createUserImportService(2, 4, 1);
+
+        userImportService.importUsers(ndjson("user1", "user2", "user3"), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        Assertions.assertEquals(2, chunks.size());
+        Assertions.assertEquals(List.of(1L, 2L), chunks.get(0).stream().map(ImportUserResult::line).toList());
+        Assertions.assertEquals(List.of(3L), chunks.get(1).stream().map(ImportUserResult::line).toList());
+        Assertions.assertTrue(results().stream().allMatch(result -> result.status() == ImportUserResult.Status.CREATED && result.userId() != null));
+        Mockito.verify(userRepository, Mockito.times(2)).saveAll(ArgumentMatchers.anyList());
+        Mockito.verify(userRepository, Mockito.never()).save(ArgumentMatchers.any(User.class));
+        Mockito.verify(userCache, Mockito.times(1)).invalidate("user3");
+        Mockito.verify(userProvisioningRepository, Mockito.times(3)).updateStatus(ArgumentMatchers.any(UUID.class),
+                ArgumentMatchers.eq(ProvisioningStatus.PROVISIONED), ArgumentMatchers.any(UUID.class), ArgumentMatchers.isNull(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenCsvRows_whenImportUsers_thenMapColumnsByHeader() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+        String csv = "role,userName,email,password,firstName\n"
+                + "admin,user1,user1@test.com,\"pa,ss\"\"word\",Sample\n"
+                + "\n"
+                + "admin,user2,user2@test.com\n";
+
+        userImportService.importUsers(input(csv), UserImportService.TEXT_CSV, chunks::add);
+
+        List<ImportUserResult> results = results();
+        Assertions.assertEquals(ImportUserResult.Status.CREATED, results.get(0).status());
+        Assertions.assertEquals(ImportUserResult.failed(4, null, "expected 5 columns but found 3"), results.get(1));
+        Mockito.verify(keycloakClientService).createUser(ArgumentMatchers.argThat(user -> "user1".equals(user.getUsername())
+                && "Sample".equals(user.getFirstName()) && "pa,ss\"word".equals(user.getCredentials().get(0).getValue())));
+    }
+
+    @Test
+    public void givenMixedCaseUserNames_whenImportUsers_thenReserveAndStoreLowercaseUserNames() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+
+        userImportService.importUsers(ndjson("New.User"), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        Assertions.assertEquals("new.user", results().get(0).userName());
+        Mockito.verify(userProvisioningRepository).reserve(ArgumentMatchers.argThat(provisioning -> "new.user".equals(provisioning.getUserName())
+                && provisioning.getStatus() == ProvisioningStatus.PENDING && provisioning.getRole() == role));
+        Mockito.verify(keycloakClientService).createUser(ArgumentMatchers.argThat(user -> "new.user".equals(user.getUsername())));
+    }
+
+    @Test
+    public void givenCsvWithoutRequiredColumns_whenImportUsers_thenThrowUserException() {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+
+        UserException exception = Assertions.assertThrows(UserException.class,
+                () -> userImportService.importUsers(input("userName,email\n"), UserImportService.TEXT_CSV, chunks::add));
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+    }
+
+    @Test
+    public void givenInvalidRows_whenImportUsers_thenReportEachRowAndContinue() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+        Mockito.when(userProvisioningRepository.reserve(ArgumentMatchers.argThat(provisioning -> "existing".equals(provisioning.getUserName()))))
+                .thenReturn(0);
+        String ndjson = "{not json\n"
+                + "{\"userName\":\"missing-password\",\"email\":\"a@test.com\",\"role\":\"ADMIN\"}\n"
+                + row("existing", "ADMIN") + "\n"
+                + row("visitor", "VISITOR") + "\n"
+                + row("user", "ADMIN") + "\n";
+
+        userImportService.importUsers(input(ndjson), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        List<ImportUserResult> results = results();
+        Assertions.assertEquals(ImportUserResult.failed(1, null, "malformed row"), results.get(0));
+        Assertions.assertEquals(ImportUserResult.failed(2, "missing-password", "userName, email, password and role are required"), results.get(1));
+        Assertions.assertEquals(ImportUserResult.failed(3, "existing", "userName existing already exists"), results.get(2));
+        Assertions.assertEquals(ImportUserResult.failed(4, "visitor", "invalid role VISITOR"), results.get(3));
+        Assertions.assertEquals(ImportUserResult.Status.CREATED, results.get(4).status());
+        Mockito.verify(keycloakClientService, Mockito.times(1)).createUser(ArgumentMatchers.any(UserRepresentation.class));
+        Mockito.verify(userProvisioningRepository, Mockito.times(2)).reserve(ArgumentMatchers.any(UserProvisioning.class));
+    }
+
+    @Test
+    public void givenUserNameReservedByConcurrentProvisioning_whenImportUsers_thenFailRowWithoutCallingKeycloak() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+        Mockito.when(userProvisioningRepository.reserve(ArgumentMatchers.any(UserProvisioning.class))).thenReturn(1, 0);
+
+        userImportService.importUsers(ndjson("user", "user"), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        List<ImportUserResult> results = results();
+        Assertions.assertEquals(ImportUserResult.Status.CREATED, results.get(0).status());
+        Assertions.assertEquals(ImportUserResult.failed(2, "user", "userName user already exists"), results.get(1));
+        Mockito.verify(keycloakClientService, Mockito.times(1)).createUser(ArgumentMatchers.any(UserRepresentation.class));
+    }
+
+    @Test
+    public void givenNullRow_whenImportUsers_thenReportRowAsMalformedAndContinue() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+
+        userImportService.importUsers(input("null\n" + row("user", "ADMIN") + "\n"), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        List<ImportUserResult> results = results();
+        Assertions.assertEquals(ImportUserResult.failed(1, null, "malformed row"), results.get(0));
+        Assertions.assertEquals(ImportUserResult.Status.CREATED, results.get(1).status());
+    }
+
+    @Test
+    public void givenKeycloakFailures_whenImportUsers_thenFailReservationsAndQueueDeletionOfUserWithoutRole() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+        UUID userWithoutRole = UUID.randomUUID();
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.argThat(user -> user != null && "conflict".equals(user.getUsername()))))
+                .thenThrow(new UserException(HttpStatus.CONFLICT, "error encountered while creating user", null));
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.argThat(user -> user != null && "no-role".equals(user.getUsername()))))
+                .thenReturn(userWithoutRole);
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.eq(userWithoutRole), ArgumentMatchers.anyList())).thenReturn(false);
+
+        userImportService.importUsers(ndjson("conflict", "no-role", "user"), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        List<ImportUserResult> results = results();
+        Assertions.assertEquals(ImportUserResult.failed(1, "conflict", "error encountered while creating user"), results.get(0));
+        Assertions.assertEquals(ImportUserResult.failed(2, "no-role", "unable to add user role"), results.get(1));
+        Assertions.assertEquals(ImportUserResult.Status.CREATED, results.get(2).status());
+        Mockito.verify(userProvisioningRepository).updateStatus(ArgumentMatchers.any(UUID.class), ArgumentMatchers.eq(ProvisioningStatus.FAILED),
+                ArgumentMatchers.isNull(), ArgumentMatchers.eq("error encountered while creating user"), ArgumentMatchers.any());
+        Mockito.verify(userProvisioningRepository).updateStatus(ArgumentMatchers.any(UUID.class), ArgumentMatchers.eq(ProvisioningStatus.FAILED),
+                ArgumentMatchers.eq(userWithoutRole), ArgumentMatchers.eq("unable to add user role"), ArgumentMatchers.any());
+        Mockito.verify(outboxEventRepository).saveAll(ArgumentMatchers.<List<OutboxEvent>>argThat(events -> events.size() == 1
+                && events.get(0).getEventType() == OutboxEvent.Type.DELETE_KEYCLOAK_USER));
+        Mockito.verify(keycloakClientService, Mockito.never()).deleteUser(ArgumentMatchers.any(UUID.class));
+    }
+
+    @Test
+    public void givenBatchInsertFails_whenImportUsers_thenInsertOneByOneAndReleaseRejectedUsers() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+        Mockito.when(userRepository.saveAll(ArgumentMatchers.anyList())).thenThrow(new DataIntegrityViolationException("duplicate email"));
+        Mockito.when(userRepository.save(ArgumentMatchers.any(User.class))).thenAnswer(invocation -> {
+            User user = invocation.getArgument(0);
+            if ("duplicate".equals(user.getUserName())) {
+                throw new DataIntegrityViolationException("duplicate email");
+            }
+            return user;
+        });
+
+        userImportService.importUsers(ndjson("user", "duplicate"), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        List<ImportUserResult> results = results();
+        Assertions.assertEquals(ImportUserResult.Status.CREATED, results.get(0).status());
+        Assertions.assertEquals(ImportUserResult.failed(2, "duplicate", "unable to save user"), results.get(1));
+        Mockito.verify(userRepository, Mockito.times(2)).save(ArgumentMatchers.any(User.class));
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).updateStatus(ArgumentMatchers.any(UUID.class),
+                ArgumentMatchers.eq(ProvisioningStatus.PROVISIONED), ArgumentMatchers.any(UUID.class), ArgumentMatchers.isNull(), ArgumentMatchers.any());
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).updateStatus(ArgumentMatchers.any(UUID.class),
+                ArgumentMatchers.eq(ProvisioningStatus.FAILED), ArgumentMatchers.any(UUID.class), ArgumentMatchers.eq("unable to save user"), ArgumentMatchers.any());
+        Mockito.verify(outboxEventRepository).saveAll(ArgumentMatchers.<List<OutboxEvent>>argThat(events -> events.size() == 1));
+        Mockito.verify(keycloakClientService, Mockito.never()).deleteUser(ArgumentMatchers.any(UUID.class));
+    }
+
+    @Test
+    public void givenManyRows_whenImportUsers_thenBoundConcurrentKeycloakCalls() throws Exception {
+        UserImportService userImportService = createUserImportService(20, 3, 1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return UUID.randomUUID();
+        });
+        String[] userNames = new String[20];
+        for (int i = 0; i < userNames.length; i++) {
+            userNames[i] = "user" + i;
+        }
+
+        userImportService.importUsers(ndjson(userNames), MediaType.APPLICATION_NDJSON, chunks::add);
+
+        Assertions.assertEquals(20, results().size());
+        Assertions.assertTrue(maxInFlight.get() <= 3, "max in flight " + maxInFlight.get());
+        Assertions.assertTrue(maxInFlight.get() > 1, "max in flight " + maxInFlight.get());
+    }
+
+    @Test
+    public void givenImportInProgress_whenImportUsers_thenThrowTooManyRequests() throws Exception {
+        UserImportService userImportService = createUserImportService(10, 4, 1);
+        List<UserException> rejected = new ArrayList<>();
+
+        userImportService.importUsers(ndjson("user"), MediaType.APPLICATION_NDJSON, results -> rejected.add(Assertions.assertThrows(UserException.class,
+                () -> userImportService.importUsers(ndjson("other"), MediaType.APPLICATION_NDJSON, chunks::add))));
+
+        Assertions.assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.get(0).getStatus());
+        Assertions.assertDoesNotThrow(() -> userImportService.importUsers(ndjson("other"), MediaType.APPLICATION_NDJSON, chunks::add));
+    }
+
+    private UserImportService createUserImportService(int batchSize, int concurrency, int maxConcurrentImports) {
+        return new UserImportServiceImpl(roleRegistry, userRepository, userProvisioningRepository, outboxEventRepository, keycloakClientService, userCache,
+                new TransactionTemplate(transactionManager), new ObjectMapper(), batchSize, concurrency, maxConcurrentImports);
+    }
+
+    private List<ImportUserResult> results() {
+        return chunks.stream().flatMap(Collection::stream).toList();
+    }
+
+    private InputStream ndjson(String... userNames) {
+        StringBuilder builder = new StringBuilder();
+        for (String userName : userNames) {
+            builder.append(row(userName, "ADMIN")).append('\n');
+        }
+        return input(builder.toString());
+    }
+
+    private String row(String userName, String role) {
+        return "{\"userName\":\"" + userName + "\",\"email\":\"" + userName + "@test.com\",\"password\":\"pass\",\"role\":\"" + role + "\"}";
+    }
+
+    private InputStream input(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,299 @@
+package com.paralelogram.user.service;
+
+import com.paralelogram.user.entity.OutboxEvent;
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.keycloak.UserRepresentation;
+import com.paralelogram.user.repository.OutboxEventRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.impl.CredentialCipher;
+import com.paralelogram.user.service.impl.UserCache;
+import com.paralelogram.user.service.impl.UserProvisioningWorker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@ExtendWith(MockitoExtension.class)
+public class UserProvisioningWorkerTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    @Mock
+    private UserProvisioningRepository userProvisioningRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private KeycloakClientService keycloakClientService;
+
+    @Mock
+    private UserCache userCache;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final CredentialCipher credentialCipher = new CredentialCipher(Base64.getEncoder().encodeToString(new byte[32]));
+    private final Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+
+    private UserProvisioningWorker userProvisioningWorker;
+
+    @BeforeEach
+    public void setUp() {
+        userProvisioningWorker = new UserProvisioningWorker(outboxEventRepository, userProvisioningRepository, userRepository,
+                keycloakClientService, userCache, credentialCipher, new TransactionTemplate(transactionManager),
+                2, 10, Duration.ofSeconds(1), Duration.ofMinutes(1), MAX_ATTEMPTS, Duration.ofSeconds(1), Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void givenPendingUser_whenPoll_thenProvisionInKeycloakAndInsertUser() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        OutboxEvent event = provisionEvent(provisioning, 0);
+        UUID userId = UUID.randomUUID();
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(userId);
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.eq(userId), ArgumentMatchers.anyList())).thenReturn(true);
+
+        Assertions.assertEquals(1, userProvisioningWorker.poll());
+
+        ArgumentCaptor<UserRepresentation> userRepresentationCaptor = ArgumentCaptor.forClass(UserRepresentation.class);
+        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
+        Mockito.verify(keycloakClientService).createUser(userRepresentationCaptor.capture());
+        Mockito.verify(userRepository).save(userCaptor.capture());
+        Assertions.assertEquals("pass", userRepresentationCaptor.getValue().getCredentials().get(0).getValue());
+        Assertions.assertEquals(userId, userCaptor.getValue().getUserId());
+        Assertions.assertEquals("user", userCaptor.getValue().getUserName());
+        Assertions.assertEquals(ProvisioningStatus.PROVISIONED, provisioning.getStatus());
+        Assertions.assertEquals(1, event.getAttempts());
+        Mockito.verify(outboxEventRepository).deleteById(event.getId());
+        Mockito.verify(userCache).invalidate("user");
+    }
+
+    @Test
+    public void givenKeycloakUnavailable_whenPoll_thenRetryLaterWithBackoff() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        OutboxEvent event = provisionEvent(provisioning, 0);
+        Mockito.when(outboxEventRepository.findById(event.getId())).thenReturn(Optional.of(event));
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class)))
+                .thenThrow(new UserException(HttpStatus.SERVICE_UNAVAILABLE, "keycloak createUser unavailable", null));
+
+        userProvisioningWorker.poll();
+
+        Assertions.assertEquals(ProvisioningStatus.PENDING, provisioning.getStatus());
+        Assertions.assertTrue(event.getNextAttemptAt().isAfter(Instant.now().plusMillis(400)));
+        Assertions.assertTrue(event.getNextAttemptAt().isBefore(Instant.now().plusSeconds(2)));
+        Mockito.verify(outboxEventRepository, Mockito.never()).deleteById(ArgumentMatchers.any());
+        Mockito.verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void givenKeycloakConnectionFailure_whenPoll_thenRetryLater() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        OutboxEvent event = provisionEvent(provisioning, 0);
+        Mockito.when(outboxEventRepository.findById(event.getId())).thenReturn(Optional.of(event));
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class)))
+                .thenThrow(new WebClientRequestException(new ConnectException("Connection refused"), HttpMethod.POST,
+                        URI.create("http://keycloak/admin/realms/paralelogram/users"), new HttpHeaders()));
+
+        userProvisioningWorker.poll();
+
+        Assertions.assertEquals(ProvisioningStatus.PENDING, provisioning.getStatus());
+        Assertions.assertTrue(event.getNextAttemptAt().isAfter(Instant.now().plusMillis(400)));
+        Mockito.verify(outboxEventRepository, Mockito.never()).deleteById(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenKeycloakErrorWithoutStatus_whenPoll_thenFailWithoutRetrying() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        OutboxEvent event = provisionEvent(provisioning, 0);
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class)))
+                .thenThrow(new UserException(null, "error encountered while creating user", null));
+
+        userProvisioningWorker.poll();
+
+        Assertions.assertEquals(ProvisioningStatus.FAILED, provisioning.getStatus());
+        Mockito.verify(outboxEventRepository).deleteById(event.getId());
+        Mockito.verify(outboxEventRepository, Mockito.never()).findById(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenKeycloakUserCreatedByEarlierAttempt_whenPoll_thenOnlyRepeatRemainingSteps() {
+        UUID userId = UUID.randomUUID();
+        UserProvisioning provisioning = pendingProvisioning(userId);
+        provisionEvent(provisioning, 1);
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.eq(userId), ArgumentMatchers.anyList())).thenReturn(true);
+
+        userProvisioningWorker.poll();
+
+        Mockito.verify(keycloakClientService, Mockito.never()).createUser(ArgumentMatchers.any());
+        Mockito.verify(userRepository).save(ArgumentMatchers.argThat(user -> userId.equals(user.getUserId())));
+        Assertions.assertEquals(ProvisioningStatus.PROVISIONED, provisioning.getStatus());
+    }
+
+    @Test
+    public void givenKeycloakUserCreatedByTimedOutAttempt_whenPoll_thenContinueWithThatUser() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        provisionEvent(provisioning, 1);
+        UUID userId = UUID.randomUUID();
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class)))
+                .thenThrow(new UserException(HttpStatus.CONFLICT, "error encountered while creating user", null));
+        Mockito.when(keycloakClientService.findUserByUserName("user")).thenReturn(UserRepresentation.builder()
+                .id(userId.toString()).username("user").email("test@test.com")
+                .createdTimestamp(Instant.now().toEpochMilli()).build());
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.eq(userId), ArgumentMatchers.anyList())).thenReturn(true);
+
+        userProvisioningWorker.poll();
+
+        Assertions.assertEquals(ProvisioningStatus.PROVISIONED, provisioning.getStatus());
+        Assertions.assertEquals(userId, provisioning.getUserId());
+        Mockito.verify(userRepository).save(ArgumentMatchers.argThat(user -> userId.equals(user.getUserId())));
+    }
+
+    @Test
+    public void givenUserNameHeldByOlderKeycloakUser_whenPoll_thenFailWithoutTakingItOver() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        OutboxEvent event = provisionEvent(provisioning, 1);
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class)))
+                .thenThrow(new UserException(HttpStatus.CONFLICT, "error encountered while creating user", null));
+        Mockito.when(keycloakClientService.findUserByUserName("user")).thenReturn(UserRepresentation.builder()
+                .id(UUID.randomUUID().toString()).username("user").email("test@test.com")
+                .createdTimestamp(Instant.now().minus(Duration.ofDays(1)).toEpochMilli()).build());
+
+        userProvisioningWorker.poll();
+
+        Assertions.assertEquals(ProvisioningStatus.FAILED, provisioning.getStatus());
+        Assertions.assertNull(provisioning.getUserId());
+        Mockito.verify(outboxEventRepository).deleteById(event.getId());
+        Mockito.verify(outboxEventRepository, Mockito.never()).save(ArgumentMatchers.any());
+        Mockito.verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void givenUserNameTakenMeanwhile_whenPoll_thenFailAndQueueKeycloakUserDeletion() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        OutboxEvent event = provisionEvent(provisioning, 0);
+        UUID userId = UUID.randomUUID();
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(userId);
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.eq(userId), ArgumentMatchers.anyList())).thenReturn(true);
+        Mockito.when(userRepository.save(ArgumentMatchers.any(User.class))).thenThrow(new DataIntegrityViolationException("duplicate"));
+
+        userProvisioningWorker.poll();
+
+        ArgumentCaptor<OutboxEvent> eventCaptor = ArgumentCaptor.forClass(OutboxEvent.class);
+        Mockito.verify(outboxEventRepository).save(eventCaptor.capture());
+        Mockito.verify(outboxEventRepository).deleteById(event.getId());
+        Assertions.assertEquals(OutboxEvent.Type.DELETE_KEYCLOAK_USER, eventCaptor.getValue().getEventType());
+        Assertions.assertEquals(provisioning.getProvisioningId(), eventCaptor.getValue().getAggregateId());
+        Assertions.assertEquals(ProvisioningStatus.FAILED, provisioning.getStatus());
+        Assertions.assertEquals("userName or email already exists", provisioning.getError());
+        Mockito.verify(keycloakClientService, Mockito.never()).deleteUser(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenKeycloakUnavailableOnLastAttempt_whenPoll_thenFailWithoutKeycloakUserToDelete() {
+        UserProvisioning provisioning = pendingProvisioning(null);
+        OutboxEvent event = provisionEvent(provisioning, MAX_ATTEMPTS - 1);
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class)))
+                .thenThrow(new UserException(HttpStatus.GATEWAY_TIMEOUT, "keycloak createUser timed out", null));
+
+        userProvisioningWorker.poll();
+
+        Assertions.assertEquals(ProvisioningStatus.FAILED, provisioning.getStatus());
+        Assertions.assertEquals("keycloak createUser timed out", provisioning.getError());
+        Mockito.verify(outboxEventRepository).deleteById(event.getId());
+        Mockito.verify(outboxEventRepository, Mockito.never()).save(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenKeycloakUserDeletion_whenPoll_thenDeleteKeycloakUserEvenIfAlreadyGone() {
+        UUID userId = UUID.randomUUID();
+        UserProvisioning provisioning = pendingProvisioning(userId);
+        provisioning.setStatus(ProvisioningStatus.FAILED);
+        OutboxEvent event = OutboxEvent.builder().id(2L).eventType(OutboxEvent.Type.DELETE_KEYCLOAK_USER)
+                .aggregateId(provisioning.getProvisioningId()).nextAttemptAt(Instant.now()).build();
+        Mockito.when(outboxEventRepository.findDueForUpdate(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(List.of(event));
+        Mockito.when(keycloakClientService.deleteUser(userId))
+                .thenThrow(new UserException(HttpStatus.NOT_FOUND, "error encountered while deleting user", null));
+
+        userProvisioningWorker.poll();
+
+        Mockito.verify(keycloakClientService).deleteUser(userId);
+        Mockito.verify(outboxEventRepository).deleteById(event.getId());
+    }
+
+    @Test
+    public void givenKeycloakUserDeletionOutOfAttempts_whenPoll_thenKeepRetryingWithCappedBackoff() {
+        UUID userId = UUID.randomUUID();
+        UserProvisioning provisioning = pendingProvisioning(userId);
+        provisioning.setStatus(ProvisioningStatus.FAILED);
+        OutboxEvent event = OutboxEvent.builder().id(2L).eventType(OutboxEvent.Type.DELETE_KEYCLOAK_USER)
+                .aggregateId(provisioning.getProvisioningId()).attempts(MAX_ATTEMPTS + 5).nextAttemptAt(Instant.now()).build();
+        Mockito.when(outboxEventRepository.findDueForUpdate(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(List.of(event));
+        Mockito.when(outboxEventRepository.findById(event.getId())).thenReturn(Optional.of(event));
+        Mockito.when(keycloakClientService.deleteUser(userId))
+                .thenThrow(new UserException(HttpStatus.FORBIDDEN, "error encountered while deleting user", null));
+
+        userProvisioningWorker.poll();
+
+        Assertions.assertTrue(event.getNextAttemptAt().isAfter(Instant.now().plusSeconds(29)));
+        Assertions.assertTrue(event.getNextAttemptAt().isBefore(Instant.now().plusSeconds(61)));
+        Mockito.verify(outboxEventRepository, Mockito.never()).deleteById(ArgumentMatchers.any());
+    }
+
+    private UserProvisioning pendingProvisioning(UUID userId) {
+        UserProvisioning provisioning = UserProvisioning.builder()
+                .provisioningId(UUID.randomUUID())
+                .status(ProvisioningStatus.PENDING)
+                .userName("user")
+                .email("test@test.com")
+                .role(role)
+                .userId(userId)
+                .build();
+        Mockito.lenient().when(userProvisioningRepository.findByProvisioningId(provisioning.getProvisioningId()))
+                .thenReturn(Optional.of(provisioning));
+        return provisioning;
+    }
+
+    private OutboxEvent provisionEvent(UserProvisioning provisioning, int attempts) {
+        OutboxEvent event = OutboxEvent.builder()
+                .id(1L)
+                .eventType(OutboxEvent.Type.PROVISION_USER)
+                .aggregateId(provisioning.getProvisioningId())
+                .payload(credentialCipher.encrypt("pass", provisioning.getProvisioningId()))
+                .attempts(attempts)
+                .nextAttemptAt(Instant.now())
+                .build();
+        Mockito.when(outboxEventRepository.findDueForUpdate(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(List.of(event));
+        return event;
+    }
+
+}
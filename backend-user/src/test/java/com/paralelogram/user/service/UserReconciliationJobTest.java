@@ -0,0 +1,233 @@
+package com.paralelogram.user.service;
+
+import com.paralelogram.user.entity.ProvisioningStatus;
+import com.paralelogram.user.entity.ReconciliationCheckpoint;
+import com.paralelogram.user.entity.Role;
+import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
+import com.paralelogram.user.exception.UserException;
+import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.keycloak.UserRepresentation;
+import com.paralelogram.user.repository.ReconciliationCheckpointRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
+import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.impl.RoleRegistry;
+import com.paralelogram.user.service.impl.UserCache;
+import com.paralelogram.user.service.impl.UserReconciliationJob;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+@ExtendWith(MockitoExtension.class)
+public class UserReconciliationJobTest {
+
+    private static final String ADMIN = RoleRequest.ADMIN.getValue();
+    private static final String VISITOR = RoleRequest.VISITOR.getValue();
+
+    @Mock
+    private ReconciliationCheckpointRepository checkpointRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private UserProvisioningRepository userProvisioningRepository;
+
+    @Mock
+    private KeycloakClientService keycloakClientService;
+
+    @Mock
+    private RoleRegistry roleRegistry;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Captor
+    private ArgumentCaptor<List<User>> usersCaptor;
+
+    private final Role adminRole = Role.builder().id(1L).roleId(UUID.randomUUID()).roleName(ADMIN).build();
+    private final Role visitorRole = Role.builder().id(2L).roleId(UUID.randomUUID()).roleName(VISITOR).build();
+    private final ReconciliationCheckpoint checkpoint = ReconciliationCheckpoint.builder().name("keycloak-users").build();
+
+    private UserReconciliationJob reconciliationJob;
+
+    @BeforeEach
+    public void setUp() {
+        UserCache userCache = new UserCache(userRepository, new TransactionTemplate(transactionManager), 100, Duration.ofMinutes(5), Duration.ofSeconds(10), new SimpleMeterRegistry());
+        reconciliationJob = new UserReconciliationJob(checkpointRepository, userRepository, userProvisioningRepository,
+                keycloakClientService, roleRegistry, userCache, new TransactionTemplate(transactionManager), new SimpleMeterRegistry(),
+                Duration.ofHours(24), Duration.ofMinutes(1), 2, 1, Duration.ofMinutes(10), Duration.ofMinutes(5));
+        // the lock hands the checkpoint to whichever owner the job generated
+        Mockito.lenient().when(checkpointRepository.lock(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(), ArgumentMatchers.any())).thenAnswer(invocation -> {
+                    checkpoint.setLockedBy(invocation.getArgument(1));
+                    return 1;
+                });
+        Mockito.lenient().when(checkpointRepository.findById(ArgumentMatchers.anyString())).thenReturn(Optional.of(checkpoint));
+        Mockito.lenient().when(checkpointRepository.findForUpdate(ArgumentMatchers.anyString())).thenReturn(Optional.of(checkpoint));
+        Mockito.lenient().when(roleRegistry.get(RoleRequest.ADMIN)).thenReturn(Optional.of(adminRole));
+        Mockito.lenient().when(roleRegistry.get(RoleRequest.VISITOR)).thenReturn(Optional.of(visitorRole));
+    }
+
+    @Test
+    public void givenKeycloakUserMissingLocally_whenReconcile_thenInsertUser() {
+        UserRepresentation keycloakUser = keycloakUser("Admin", "admin@test.com", Instant.now().minus(Duration.ofDays(1)));
+        Mockito.when(keycloakClientService.getRoleUsers(ADMIN, 0, 2)).thenReturn(List.of(keycloakUser));
+
+        reconciliationJob.reconcile();
+
+        Mockito.verify(userRepository, Mockito.times(2)).saveAll(usersCaptor.capture());
+        List<User> created = usersCaptor.getAllValues().get(0);
+        Assertions.assertEquals(1, created.size());
+        Assertions.assertEquals(UUID.fromString(keycloakUser.getId()), created.get(0).getUserId());
+        Assertions.assertEquals("admin", created.get(0).getUserName());
+        Assertions.assertEquals(adminRole, created.get(0).getRole());
+        Assertions.assertNull(checkpoint.getRoleName());
+        Assertions.assertNotNull(checkpoint.getCompletedAt());
+    }
+
+    @Test
+    public void givenRecentOrPendingKeycloakUser_whenReconcile_thenLeaveItToProvisioning() {
+        UserRepresentation recent = keycloakUser("recent", "recent@test.com", Instant.now());
+        UserRepresentation pending = keycloakUser("pending", "pending@test.com", Instant.now().minus(Duration.ofDays(1)));
+        Mockito.when(keycloakClientService.getRoleUsers(ADMIN, 0, 2)).thenReturn(List.of());
+        Mockito.when(keycloakClientService.getRoleUsers(VISITOR, 0, 2)).thenReturn(List.of(recent, pending));
+        Mockito.when(userProvisioningRepository.findUnfinished(ArgumentMatchers.anyCollection(), ArgumentMatchers.anyCollection()))
+                .thenReturn(List.of(UserProvisioning.builder().status(ProvisioningStatus.PENDING).userName("pending").build()));
+
+        reconciliationJob.reconcile();
+
+        Mockito.verify(userRepository, Mockito.atLeastOnce()).saveAll(usersCaptor.capture());
+        usersCaptor.getAllValues().forEach(created -> Assertions.assertTrue(created.isEmpty()));
+    }
+
+    @Test
+    public void givenChangedKeycloakUser_whenReconcile_thenUpdateUser() {
+        UserRepresentation keycloakUser = keycloakUser("admin", "new@test.com", Instant.now().minus(Duration.ofDays(1)));
+        User localUser = User.builder()
+                .id(1L)
+                .userId(UUID.fromString(keycloakUser.getId()))
+                .userName("admin")
+                .email("old@test.com")
+                .role(visitorRole)
+                .build();
+        Mockito.when(keycloakClientService.getRoleUsers(ADMIN, 0, 2)).thenReturn(List.of(keycloakUser));
+        Mockito.when(userRepository.findByUserIdIn(ArgumentMatchers.anyCollection()))
+                .thenAnswer(invocation -> ((Collection<?>) invocation.getArgument(0)).contains(localUser.getUserId())
+                        ? List.of(localUser) : List.of());
+
+        reconciliationJob.reconcile();
+
+        Assertions.assertEquals("new@test.com", localUser.getEmail());
+        Assertions.assertEquals(adminRole, localUser.getRole());
+        Mockito.verify(userProvisioningRepository, Mockito.never()).release(ArgumentMatchers.anyCollection(), ArgumentMatchers.any());
+        Mockito.verify(userRepository).findByUserNameInOrLowerEmailIn(ArgumentMatchers.anyCollection(), ArgumentMatchers.anyCollection());
+        Mockito.verify(userRepository, Mockito.never()).deleteByUserIdIn(ArgumentMatchers.anyCollection());
+    }
+
+    @Test
+    public void givenUserDeletedInKeycloak_whenReconcile_thenDeleteUser() {
+        User localUser = User.builder().id(1L).userId(UUID.randomUUID()).userName("deleted").role(adminRole).build();
+        Mockito.when(userRepository.findUserIdsByRoleAfter(adminRole, "")).thenReturn(List.of(localUser.getUserId()));
+        Mockito.when(userRepository.findByUserIdIn(ArgumentMatchers.anyCollection()))
+                .thenAnswer(invocation -> ((Collection<?>) invocation.getArgument(0)).contains(localUser.getUserId())
+                        ? List.of(localUser) : List.of());
+        Mockito.when(keycloakClientService.getUserRoles(localUser.getUserId()))
+                .thenThrow(new UserException(HttpStatus.NOT_FOUND, "user not found", null));
+
+        reconciliationJob.reconcile();
+
+        Mockito.verify(userRepository).deleteByUserIdIn(List.of(localUser.getUserId()));
+        Mockito.verify(userProvisioningRepository).release(ArgumentMatchers.eq(Set.of(localUser.getUserId())), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenUserRenamedInKeycloak_whenReconcile_thenRenameUserAndReleaseItsUserName() {
+        UserRepresentation keycloakUser = keycloakUser("renamed", "admin@test.com", Instant.now().minus(Duration.ofDays(1)));
+        User localUser = User.builder()
+                .id(1L)
+                .userId(UUID.fromString(keycloakUser.getId()))
+                .userName("admin")
+                .email("admin@test.com")
+                .role(adminRole)
+                .build();
+        Mockito.when(keycloakClientService.getRoleUsers(ADMIN, 0, 2)).thenReturn(List.of(keycloakUser));
+        Mockito.when(userRepository.findByUserIdIn(ArgumentMatchers.anyCollection()))
+                .thenAnswer(invocation -> ((Collection<?>) invocation.getArgument(0)).contains(localUser.getUserId())
+                        ? List.of(localUser) : List.of());
+
+        reconciliationJob.reconcile();
+
+        Assertions.assertEquals("renamed", localUser.getUserName());
+        Mockito.verify(userProvisioningRepository).release(ArgumentMatchers.eq(Set.of(localUser.getUserId())), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void givenRunInProgress_whenReconcile_thenResumeAfterLastUserName() {
+        checkpoint.setRunStartedAt(Instant.now().minus(Duration.ofHours(1)));
+        checkpoint.setRoleName(RoleRequest.ADMIN.name());
+        checkpoint.setFirstResult(2);
+        checkpoint.setLastUserName("b");
+        Mockito.when(keycloakClientService.getRoleUsers(ADMIN, 2, 2)).thenReturn(List.of(
+                keycloakUser("c", "c@test.com", null), keycloakUser("d", "d@test.com", null)));
+
+        reconciliationJob.reconcile();
+
+        Mockito.verify(userRepository).findUserIdsByRoleBetween(adminRole, "b", "d");
+        Mockito.verify(keycloakClientService).getRoleUsers(ADMIN, 4, 2);
+        Mockito.verify(userRepository).findUserIdsByRoleAfter(adminRole, "d");
+        Mockito.verify(keycloakClientService, Mockito.never()).getRoleUsers(ADMIN, 0, 2);
+        Mockito.verify(checkpointRepository).unlock(ArgumentMatchers.eq("keycloak-users"), ArgumentMatchers.anyString());
+        Assertions.assertNotNull(checkpoint.getCompletedAt());
+    }
+
+    @Test
+    public void givenRunCompletedRecently_whenReconcile_thenSkip() {
+        checkpoint.setCompletedAt(Instant.now().minus(Duration.ofHours(1)));
+
+        reconciliationJob.reconcile();
+
+        Mockito.verifyNoInteractions(keycloakClientService);
+        Mockito.verify(checkpointRepository).unlock(ArgumentMatchers.eq("keycloak-users"), ArgumentMatchers.anyString());
+    }
+
+    @Test
+    public void givenCheckpointLockedByAnotherInstance_whenReconcile_thenSkip() {
+        Mockito.when(checkpointRepository.lock(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(0);
+
+        reconciliationJob.reconcile();
+
+        Mockito.verifyNoInteractions(keycloakClientService);
+        Mockito.verify(checkpointRepository, Mockito.never()).unlock(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+    }
+
+    private static UserRepresentation keycloakUser(String userName, String email, Instant createdAt) {
+        return UserRepresentation.builder()
+                .id(UUID.randomUUID().toString())
+                .username(userName)
+                .email(email)
+                .createdTimestamp(createdAt == null ? null : createdAt.toEpochMilli())
+                .build();
+    }
+
+}
@@ -1,27 +1,46 @@
 package com.paralelogram.user.service;
 
+import com.paralelogram.user.entity.OutboxEvent;
+import com.paralelogram.user.entity.ProvisioningStatus;
 import com.paralelogram.user.entity.Role;
 import com.paralelogram.user.entity.User;
+import com.paralelogram.user.entity.UserProvisioning;
 import com.paralelogram.user.exception.UserException;
 import com.paralelogram.user.model.AddUserRequest;
 import com.paralelogram.user.model.RoleRequest;
+import com.paralelogram.user.model.UserPage;
+import com.paralelogram.user.model.UserProvisioningResponse;
+import com.paralelogram.user.model.UserResponse;
 import com.paralelogram.user.model.keycloak.RoleRepresentation;
 import com.paralelogram.user.model.keycloak.UserRepresentation;
-import com.paralelogram.user.repository.RoleRepository;
+import com.paralelogram.user.repository.OutboxEventRepository;
+import com.paralelogram.user.repository.UserProvisioningRepository;
 import com.paralelogram.user.repository.UserRepository;
+import com.paralelogram.user.service.impl.CredentialCipher;
 import com.paralelogram.user.service.impl.KeycloakClientServiceImpl;
+import com.paralelogram.user.service.impl.RoleRegistry;
+import com.paralelogram.user.service.impl.UserCache;
 import com.paralelogram.user.service.impl.UserServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -29,6 +48,8 @@ import java.util.UUID;
 @ExtendWith(MockitoExtension.class)
 public class UserServiceTest {
 
+    private static final String CREDENTIAL_KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
     @Mock
     private KeycloakClientServiceImpl keycloakClientService;
 
@@ -36,9 +57,19 @@ public class UserServiceTest {
     private UserRepository userRepository;
 
     @Mock
-    private RoleRepository roleRepository;
+    private RoleRegistry roleRegistry;
+
+    @Mock
+    private UserProvisioningRepository userProvisioningRepository;
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final CredentialCipher credentialCipher = new CredentialCipher(CREDENTIAL_KEY);
 
-    @InjectMocks
     private UserServiceImpl userService;
 
     @Captor
@@ -50,29 +81,120 @@ public class UserServiceTest {
     @Captor
     private ArgumentCaptor<User> userCaptor;
 
+    @BeforeEach
+    public void setUp() {
+        UserCache userCache = new UserCache(userRepository, new TransactionTemplate(transactionManager), 100, Duration.ofMinutes(5), Duration.ofSeconds(10), new SimpleMeterRegistry());
+        userService = new UserServiceImpl(roleRegistry, userRepository, keycloakClientService, userCache, userProvisioningRepository,
+                outboxEventRepository, new TransactionTemplate(transactionManager), credentialCipher, 2, 5);
+        Mockito.lenient().when(userProvisioningRepository.reserve(ArgumentMatchers.any(UserProvisioning.class))).thenReturn(1);
+    }
+
     @Test
     public void givenValidUserName_whenGetUser_thenReturnUser() {
         String userName = "user";
-        Mockito.when(userRepository.findByUserName(userName)).thenReturn(Optional.of(getDefaultUser(userName)));
+        Mockito.when(userRepository.findUserResponseByUserName(userName)).thenReturn(Optional.of(getDefaultUserResponse(userName)));
 
-        User result = userService.getUser(userName);
+        UserResponse result = userService.getUser(userName);
 
-        Mockito.verify(userRepository, Mockito.times(1)).findByUserName(userName);
-        Assertions.assertEquals(userName, result.getUserName());
+        Mockito.verify(userRepository, Mockito.times(1)).findUserResponseByUserName(userName);
+        Assertions.assertEquals(userName, result.userName());
     }
 
     @Test
     public void givenInvalidUserName_whenGetUser_thenThrowUserException() {
         String userName = "invalid";
-        Mockito.when(userRepository.findByUserName(userName)).thenReturn(Optional.empty());
+        Mockito.when(userRepository.findUserResponseByUserName(userName)).thenReturn(Optional.empty());
 
         UserException exception = Assertions.assertThrows(UserException.class,
                 () -> userService.getUser(userName));
 
-        Mockito.verify(userRepository, Mockito.times(1)).findByUserName(userName);
+        Mockito.verify(userRepository, Mockito.times(1)).findUserResponseByUserName(userName);
         Assertions.assertEquals("unable to find user " + userName, exception.getMessage());
     }
 
+    @Test
+    public void givenCachedUser_whenGetUserAgain_thenDoNotQueryDatabase() {
+        String userName = "user";
+        Mockito.when(userRepository.findUserResponseByUserName(userName)).thenReturn(Optional.of(getDefaultUserResponse(userName)));
+
+        userService.getUser(userName);
+        UserResponse result = userService.getUser(userName);
+
+        Mockito.verify(userRepository, Mockito.times(1)).findUserResponseByUserName(userName);
+        Assertions.assertEquals(userName, result.userName());
+    }
+
+    @Test
+    public void givenMixedCaseUserName_whenGetUser_thenLookUpLowercaseUserName() {
+        Mockito.when(userRepository.findUserResponseByUserName("user")).thenReturn(Optional.of(getDefaultUserResponse("user")));
+
+        UserResponse result = userService.getUser("User");
+
+        Mockito.verify(userRepository, Mockito.times(1)).findUserResponseByUserName("user");
+        Assertions.assertEquals("user", result.userName());
+    }
+
+    @Test
+    public void givenMixedCaseEmail_whenGetUserByEmail_thenMatchIgnoringCase() {
+        Mockito.when(userRepository.findUserResponseByEmailIgnoreCase("User@Test.com")).thenReturn(Optional.of(getDefaultUserResponse("user")));
+
+        UserResponse result = userService.getUserByEmail("User@Test.com");
+
+        Assertions.assertEquals("user", result.userName());
+        Assertions.assertThrows(UserException.class, () -> userService.getUserByEmail("unknown@test.com"));
+    }
+
+    @Test
+    public void givenMoreUsersThanPageSize_whenGetUsers_thenReturnPageWithCursor() {
+        Mockito.when(userRepository.findUserResponsesAfter("", Limit.of(3))).thenReturn(List.of(
+                getDefaultUserResponse("a"), getDefaultUserResponse("b"), getDefaultUserResponse("c")));
+
+        UserPage result = userService.getUsers(null, null, null);
+
+        Assertions.assertEquals(List.of("a", "b"), result.users().stream().map(UserResponse::userName).toList());
+        Assertions.assertEquals("b", new String(Base64.getUrlDecoder().decode(result.nextCursor()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void givenCursorAndRole_whenGetUsers_thenSeekPastCursorWithinRole() {
+        String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString("b".getBytes(StandardCharsets.UTF_8));
+        Mockito.when(userRepository.findUserResponsesByRoleNameAfter(RoleRequest.ADMIN.getValue(), "b", Limit.of(6)))
+                .thenReturn(List.of(getDefaultUserResponse("c")));
+
+        UserPage result = userService.getUsers(RoleRequest.ADMIN, cursor, 100);
+
+        Assertions.assertEquals(List.of("c"), result.users().stream().map(UserResponse::userName).toList());
+        Assertions.assertNull(result.nextCursor());
+    }
+
+    @Test
+    public void givenInvalidCursorOrSize_whenGetUsers_thenThrowUserException() {
+        UserException invalidCursor = Assertions.assertThrows(UserException.class, () -> userService.getUsers(null, "not a cursor", null));
+        UserException invalidSize = Assertions.assertThrows(UserException.class, () -> userService.getUsers(null, null, 0));
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, invalidCursor.getStatus());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, invalidSize.getStatus());
+        Mockito.verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void givenUnknownUserNameCached_whenAddUser_thenGetUserReturnsNewUser() {
+        AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
+        Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+
+        Mockito.when(userRepository.findUserResponseByUserName(input.getUserName()))
+                .thenReturn(Optional.empty(), Optional.of(getDefaultUserResponse(input.getUserName())));
+        Mockito.when(roleRegistry.get(ArgumentMatchers.any(RoleRequest.class))).thenReturn(Optional.of(role));
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(UUID.randomUUID());
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.any(UUID.class), ArgumentMatchers.any(List.class))).thenReturn(true);
+
+        Assertions.assertThrows(UserException.class, () -> userService.getUser(input.getUserName()));
+        userService.addUser(input);
+        UserResponse result = userService.getUser(input.getUserName());
+
+        Assertions.assertEquals(input.getUserName(), result.userName());
+    }
+
     @Test
     public void givenValidUserRequest_whenAddUser_thenReturnNewUser() {
         AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
@@ -80,15 +202,14 @@ public class UserServiceTest {
         UUID userId = UUID.randomUUID();
         Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
 
-        Mockito.when(userRepository.findByUserName(ArgumentMatchers.any(String.class))).thenReturn(Optional.empty());
-        Mockito.when(roleRepository.findByRoleName(ArgumentMatchers.any(String.class)))
+        Mockito.when(roleRegistry.get(ArgumentMatchers.any(RoleRequest.class)))
                 .thenReturn(Optional.of(role));
         Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(userId);
         Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.any(UUID.class), ArgumentMatchers.any(List.class))).thenReturn(true);
         userService.addUser(input);
 
-        Mockito.verify(userRepository, Mockito.times(1)).findByUserName(input.getUserName());
-        Mockito.verify(roleRepository, Mockito.times(1)).findByRoleName(RoleRequest.ADMIN.getValue());
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).reserve(ArgumentMatchers.argThat(reservation -> "user".equals(reservation.getUserName())));
+        Mockito.verify(roleRegistry, Mockito.times(1)).get(RoleRequest.ADMIN);
         Mockito.verify(keycloakClientService, Mockito.times(1)).createUser(userRepresentationCaptor.capture());
         Mockito.verify(keycloakClientService, Mockito.times(1)).addUserRole(ArgumentMatchers.any(UUID.class), rolesRepresentationCaptor.capture());
         Mockito.verify(userRepository, Mockito.times(1)).save(userCaptor.capture());
@@ -98,29 +219,63 @@ public class UserServiceTest {
         Assertions.assertEquals(userId, captured.getUserId());
         Assertions.assertEquals(input.getUserName(), captured.getUserName());
         Assertions.assertEquals(RoleRequest.ADMIN.getValue(), captured.getRole().getRoleName());
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).updateStatus(ArgumentMatchers.any(UUID.class),
+                ArgumentMatchers.eq(ProvisioningStatus.PROVISIONED), ArgumentMatchers.eq(userId), ArgumentMatchers.isNull(), ArgumentMatchers.any());
     }
 
     @Test
     public void givenUserWithExistingUserName_whenAddUser_thenThrowUserException() {
         AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
 
-        Mockito.when(userRepository.findByUserName(ArgumentMatchers.any(String.class))).thenReturn(Optional.of(User.builder().userName(input.getUserName()).build()));
+        Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+        Mockito.when(roleRegistry.get(RoleRequest.ADMIN)).thenReturn(Optional.of(role));
+        Mockito.when(userProvisioningRepository.reserve(ArgumentMatchers.any(UserProvisioning.class))).thenReturn(0);
 
         UserException exception = Assertions.assertThrows(UserException.class, () -> userService.addUser(input));
 
-        Mockito.verify(userRepository, Mockito.times(1)).findByUserName(input.getUserName());
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
         Assertions.assertEquals("userName " + input.getUserName() + " already exists", exception.getMessage());
+        Mockito.verifyNoInteractions(keycloakClientService);
+    }
+
+    @Test
+    public void givenUserWithExistingEmailInOtherCase_whenAddUser_thenThrowUserException() {
+        AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
+        input.setEmail("Test@Test.com");
+        Mockito.when(userRepository.existsByEmailIgnoreCase("Test@Test.com")).thenReturn(true);
+
+        UserException exception = Assertions.assertThrows(UserException.class, () -> userService.addUser(input));
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        Assertions.assertEquals("email Test@Test.com already exists", exception.getMessage());
+        Mockito.verifyNoInteractions(keycloakClientService);
+    }
+
+    @Test
+    public void givenMixedCaseUserName_whenAddUser_thenReserveAndStoreLowercaseUserName() {
+        AddUserRequest input = getDefaultAddUserRequest("New.User", RoleRequest.ADMIN);
+        Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+        Mockito.when(roleRegistry.get(RoleRequest.ADMIN)).thenReturn(Optional.of(role));
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(UUID.randomUUID());
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.any(UUID.class), ArgumentMatchers.any(List.class))).thenReturn(true);
+
+        userService.addUser(input);
+
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).reserve(ArgumentMatchers.argThat(reservation -> "new.user".equals(reservation.getUserName())));
+        Mockito.verify(keycloakClientService, Mockito.times(1)).createUser(userRepresentationCaptor.capture());
+        Mockito.verify(userRepository, Mockito.times(1)).save(userCaptor.capture());
+        Assertions.assertEquals("new.user", userRepresentationCaptor.getValue().getUsername());
+        Assertions.assertEquals("new.user", userCaptor.getValue().getUserName());
     }
 
     @Test
     public void givenUserWithInvalidRole_whenAddUser_thenThrowUserException() {
         AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.VISITOR);
-        Mockito.when(userRepository.findByUserName(ArgumentMatchers.any(String.class))).thenReturn(Optional.empty());
-        Mockito.when(roleRepository.findByRoleName(input.getRole().getValue())).thenReturn(Optional.empty());
+        Mockito.when(roleRegistry.get(input.getRole())).thenReturn(Optional.empty());
 
         UserException exception = Assertions.assertThrows(UserException.class, () -> userService.addUser(input));
 
-        Mockito.verify(userRepository, Mockito.times(1)).findByUserName(input.getUserName());
+        Mockito.verify(userProvisioningRepository, Mockito.never()).reserve(ArgumentMatchers.any());
         Assertions.assertEquals("invalid role " + input.getRole().name(), exception.getMessage());
     }
 
@@ -130,14 +285,16 @@ public class UserServiceTest {
 
         Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
 
-        Mockito.when(userRepository.findByUserName(ArgumentMatchers.any(String.class))).thenReturn(Optional.empty());
-        Mockito.when(roleRepository.findByRoleName(ArgumentMatchers.any(String.class)))
+        Mockito.when(roleRegistry.get(ArgumentMatchers.any(RoleRequest.class)))
                 .thenReturn(Optional.of(role));
         Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(null);
 
         UserException exception = Assertions.assertThrows(UserException.class, () -> userService.addUser(input));
 
         Mockito.verify(keycloakClientService, Mockito.times(0)).addUserRole(ArgumentMatchers.any(UUID.class), ArgumentMatchers.any(List.class));
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).updateStatus(ArgumentMatchers.any(UUID.class),
+                ArgumentMatchers.eq(ProvisioningStatus.FAILED), ArgumentMatchers.isNull(), ArgumentMatchers.eq("unable to create user"), ArgumentMatchers.any());
+        Mockito.verifyNoInteractions(outboxEventRepository);
         Assertions.assertEquals("unable to create user", exception.getMessage());
     }
 
@@ -148,27 +305,94 @@ public class UserServiceTest {
         UUID userId = UUID.randomUUID();
         Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
 
-        Mockito.when(userRepository.findByUserName(ArgumentMatchers.any(String.class))).thenReturn(Optional.empty());
-        Mockito.when(roleRepository.findByRoleName(ArgumentMatchers.any(String.class)))
+        Mockito.when(roleRegistry.get(ArgumentMatchers.any(RoleRequest.class)))
                 .thenReturn(Optional.of(role));
         Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(userId);
         Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.any(UUID.class), ArgumentMatchers.any(List.class))).thenReturn(false);
-        Mockito.when(keycloakClientService.deleteUser(ArgumentMatchers.any(UUID.class))).thenReturn(true);
 
         UserException exception = Assertions.assertThrows(UserException.class, () -> userService.addUser(input));
 
         Mockito.verify(userRepository, Mockito.times(0)).save(ArgumentMatchers.any(User.class));
-        Mockito.verify(keycloakClientService, Mockito.times(1)).deleteUser(ArgumentMatchers.any(UUID.class));
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).updateStatus(ArgumentMatchers.any(UUID.class),
+                ArgumentMatchers.eq(ProvisioningStatus.FAILED), ArgumentMatchers.eq(userId), ArgumentMatchers.any(), ArgumentMatchers.any());
+        Mockito.verify(outboxEventRepository, Mockito.times(1)).save(ArgumentMatchers.argThat(event -> event.getEventType() == OutboxEvent.Type.DELETE_KEYCLOAK_USER));
+        Mockito.verify(keycloakClientService, Mockito.never()).deleteUser(ArgumentMatchers.any(UUID.class));
         Assertions.assertEquals("unable to create user", exception.getMessage());
     }
 
+    @Test
+    public void givenValidUserRequest_whenAddUserAsync_thenStorePendingUserAndEncryptedPasswordWithoutCallingKeycloak() {
+        AddUserRequest input = getDefaultAddUserRequest("New.User", RoleRequest.ADMIN);
+        Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+        Mockito.when(roleRegistry.get(RoleRequest.ADMIN)).thenReturn(Optional.of(role));
+
+        UserProvisioningResponse result = userService.addUserAsync(input);
+
+        ArgumentCaptor<UserProvisioning> provisioningCaptor = ArgumentCaptor.forClass(UserProvisioning.class);
+        ArgumentCaptor<OutboxEvent> eventCaptor = ArgumentCaptor.forClass(OutboxEvent.class);
+        Mockito.verify(userProvisioningRepository).reserve(provisioningCaptor.capture());
+        Mockito.verify(outboxEventRepository).save(eventCaptor.capture());
+        Mockito.verify(transactionManager, Mockito.times(1)).commit(ArgumentMatchers.any());
+        Mockito.verifyNoInteractions(keycloakClientService);
+        Assertions.assertEquals(ProvisioningStatus.PENDING, result.status());
+        Assertions.assertEquals("new.user", provisioningCaptor.getValue().getUserName());
+        Assertions.assertSame(role, provisioningCaptor.getValue().getRole());
+        OutboxEvent event = eventCaptor.getValue();
+        Assertions.assertEquals(OutboxEvent.Type.PROVISION_USER, event.getEventType());
+        Assertions.assertEquals(result.provisioningId(), event.getAggregateId());
+        Assertions.assertNotEquals("pass", event.getPayload());
+        Assertions.assertEquals("pass", credentialCipher.decrypt(event.getPayload(), result.provisioningId()));
+    }
 
-    private User getDefaultUser(String userName) {
-        return User.builder()
-                .userId(UUID.randomUUID())
-                .userName(userName)
-                .email("email@test.com")
-                .build();
+    @Test
+    public void givenPendingUserName_whenAddUserOrAddUserAsync_thenThrowUserException() {
+        AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
+        Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+        Mockito.when(roleRegistry.get(RoleRequest.ADMIN)).thenReturn(Optional.of(role));
+        Mockito.when(userProvisioningRepository.reserve(ArgumentMatchers.any(UserProvisioning.class))).thenReturn(0);
+
+        Assertions.assertThrows(UserException.class, () -> userService.addUser(input));
+        UserException exception = Assertions.assertThrows(UserException.class, () -> userService.addUserAsync(input));
+
+        Assertions.assertEquals("userName user already exists", exception.getMessage());
+        Mockito.verifyNoInteractions(keycloakClientService, outboxEventRepository);
+    }
+
+    @Test
+    public void givenEmailTakenAfterCheck_whenAddUser_thenReleaseUserNameAndQueueKeycloakUserDeletion() {
+        AddUserRequest input = getDefaultAddUserRequest("user", RoleRequest.ADMIN);
+        UUID userId = UUID.randomUUID();
+        Role role = Role.builder().roleName(RoleRequest.ADMIN.getValue()).roleId(UUID.randomUUID()).build();
+        Mockito.when(roleRegistry.get(RoleRequest.ADMIN)).thenReturn(Optional.of(role));
+        Mockito.when(keycloakClientService.createUser(ArgumentMatchers.any(UserRepresentation.class))).thenReturn(userId);
+        Mockito.when(keycloakClientService.addUserRole(ArgumentMatchers.any(UUID.class), ArgumentMatchers.any(List.class))).thenReturn(true);
+        Mockito.when(userRepository.save(ArgumentMatchers.any(User.class)))
+                .thenThrow(new DataIntegrityViolationException("paralelogram_user_lower_email_key"));
+
+        UserException exception = Assertions.assertThrows(UserException.class, () -> userService.addUser(input));
+
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        Assertions.assertEquals("email test@test.com already exists", exception.getMessage());
+        Mockito.verify(userProvisioningRepository, Mockito.times(1)).updateStatus(ArgumentMatchers.any(UUID.class),
+                ArgumentMatchers.eq(ProvisioningStatus.FAILED), ArgumentMatchers.eq(userId), ArgumentMatchers.any(), ArgumentMatchers.any());
+        Mockito.verify(outboxEventRepository, Mockito.times(1)).save(ArgumentMatchers.argThat(event -> event.getEventType() == OutboxEvent.Type.DELETE_KEYCLOAK_USER));
+    }
+
+    @Test
+    public void givenProvisionedUser_whenGetProvisioning_thenReturnStatusWithUserId() {
+        UUID provisioningId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+        Mockito.when(userProvisioningRepository.findByProvisioningId(provisioningId)).thenReturn(Optional.of(UserProvisioning.builder()
+                .provisioningId(provisioningId).userName("user").status(ProvisioningStatus.PROVISIONED).userId(userId).build()));
+
+        UserProvisioningResponse result = userService.getProvisioning(provisioningId);
+
+        Assertions.assertEquals(new UserProvisioningResponse(provisioningId, "user", ProvisioningStatus.PROVISIONED, userId, null), result);
+        Assertions.assertThrows(UserException.class, () -> userService.getProvisioning(UUID.randomUUID()));
+    }
+
+    private UserResponse getDefaultUserResponse(String userName) {
+        return new UserResponse(UUID.randomUUID(), userName, "email@test.com", null, null, RoleRequest.ADMIN.getValue());
     }
 
     private AddUserRequest getDefaultAddUserRequest(String userName, RoleRequest role) {
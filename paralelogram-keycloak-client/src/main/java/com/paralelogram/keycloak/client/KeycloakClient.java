@@ -0,0 +1,89 @@
+package com.paralelogram.keycloak.client;
+
+import io.netty.channel.ChannelOption;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Long-lived, connection-pooled reactive client for a single keycloak realm.
+ * <p>
+ * Create one instance per application and share it; every request reuses the pooled
+ * keep-alive connections instead of opening a new one.
+ */
+@Slf4j
+public class KeycloakClient implements AutoCloseable {
+
+    private static final String POOL_NAME = "keycloak";
+
+    private final ConnectionProvider connectionProvider;
+
+    @Getter
+    private final WebClient webClient;
+
+    @Getter
+    private final String realm;
+
+    private KeycloakClient(ConnectionProvider connectionProvider, WebClient webClient, String realm) {
+        this.connectionProvider = connectionProvider;
+        this.webClient = webClient;
+        this.realm = realm;
+    }
+
+    public static KeycloakClient create(KeycloakClientProperties properties) {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder(POOL_NAME)
+                .maxConnections(properties.getMaxConnections())
+                .pendingAcquireMaxCount(properties.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(properties.getPendingAcquireTimeout())
+                .maxIdleTime(properties.getMaxIdleTime())
+                .maxLifeTime(properties.getMaxLifeTime())
+                .evictInBackground(properties.getEvictInBackground())
+                .build();
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+                .responseTimeout(properties.getResponseTimeout())
+                .httpResponseDecoder(spec -> spec.initialBufferSize(properties.getInitialBufferSize()));
+
+        WebClient webClient = WebClient.builder()
+                .baseUrl(properties.getBaseUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(properties.getMaxInMemorySize()))
+                .build();
+
+        log.info("created keycloak client for baseUrl={} realm={} maxConnections={}",
+                properties.getBaseUrl(), properties.getRealm(), properties.getMaxConnections());
+        return new KeycloakClient(connectionProvider, webClient, properties.getRealm());
+    }
+
+    public String getTokenUri() {
+        return "/realms/" + realm + "/protocol/openid-connect/token";
+    }
+
+    public String getJwksUri() {
+        return "/realms/" + realm + "/protocol/openid-connect/certs";
+    }
+
+    public String getUserInfoUri() {
+        return "/realms/" + realm + "/protocol/openid-connect/userinfo";
+    }
+
+    public String getAdminUsersUri() {
+        return "/admin/realms/" + realm + "/users";
+    }
+
+    public String getAdminRolesUri() {
+        return "/admin/realms/" + realm + "/roles";
+    }
+
+    @Override
+    public void close() {
+        connectionProvider.dispose();
+    }
+
+}
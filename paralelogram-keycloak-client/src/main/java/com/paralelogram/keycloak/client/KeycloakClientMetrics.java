@@ -0,0 +1,83 @@
+package com.paralelogram.keycloak.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency, outcome and concurrency of keycloak operations.
+ * <p>
+ * Each operation is timed into {@value #REQUESTS} tagged with {@code operation} and {@code outcome}; the timer
+ * publishes a percentile histogram plus the configured SLO buckets and its count is the per-outcome request
+ * counter. {@value #REQUESTS_ACTIVE} gauges the calls currently in flight per operation.
+ */
+public class KeycloakClientMetrics {
+
+    public static final String REQUESTS = "keycloak.client.requests";
+    public static final String REQUESTS_ACTIVE = "keycloak.client.requests.active";
+
+    private final MeterRegistry meterRegistry;
+    private final Duration[] serviceLevelObjectives;
+    private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public KeycloakClientMetrics(MeterRegistry meterRegistry, List<Duration> serviceLevelObjectives) {
+        this.meterRegistry = meterRegistry;
+        this.serviceLevelObjectives = serviceLevelObjectives.toArray(Duration[]::new);
+    }
+
+    public <T> Mono<T> record(String operation, Mono<T> call) {
+        AtomicInteger active = inFlight.computeIfAbsent(operation, this::registerInFlightGauge);
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            active.incrementAndGet();
+            return call
+                    .doOnSuccess(result -> sample.stop(timer(operation, "success")))
+                    .doOnError(error -> sample.stop(timer(operation, outcome(error))))
+                    .doOnCancel(() -> sample.stop(timer(operation, "cancelled")))
+                    .doFinally(signal -> active.decrementAndGet());
+        });
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return Timer.builder(REQUESTS)
+                .description("keycloak operations, including retries and hedged attempts")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .serviceLevelObjectives(serviceLevelObjectives)
+                .register(meterRegistry);
+    }
+
+    private AtomicInteger registerInFlightGauge(String operation) {
+        AtomicInteger active = new AtomicInteger();
+        Gauge.builder(REQUESTS_ACTIVE, active, AtomicInteger::get)
+                .description("keycloak operations in flight")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        return active;
+    }
+
+    private static String outcome(Throwable error) {
+        if (error instanceof KeycloakUnavailableException unavailable) {
+            return HttpStatus.GATEWAY_TIMEOUT.equals(unavailable.getStatus()) ? "timeout" : "rejected";
+        }
+        if (error instanceof WebClientResponseException responseError) {
+            return responseError.getStatusCode().is4xxClientError() ? "client_error" : "server_error";
+        }
+        if (error instanceof WebClientRequestException) {
+            return "connection_error";
+        }
+        return "error";
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.paralelogram.keycloak.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeycloakClientProperties {
+
+    private String baseUrl;
+    private String realm;
+
+    // connection pool, shared by every request to the keycloak host
+    @Builder.Default
+    private int maxConnections = 100;
+    @Builder.Default
+    private int pendingAcquireMaxCount = 1000;
+    @Builder.Default
+    private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+    @Builder.Default
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+    @Builder.Default
+    private Duration maxLifeTime = Duration.ofMinutes(5);
+    @Builder.Default
+    private Duration evictInBackground = Duration.ofSeconds(30);
+
+    // timeouts
+    @Builder.Default
+    private Duration connectTimeout = Duration.ofSeconds(2);
+    @Builder.Default
+    private Duration responseTimeout = Duration.ofSeconds(5);
+
+    // buffers, sized for keycloak token and admin payloads
+    @Builder.Default
+    private int initialBufferSize = 4 * 1024;
+    @Builder.Default
+    private int maxInMemorySize = 256 * 1024;
+
+}
@@ -0,0 +1,128 @@
+package com.paralelogram.keycloak.client;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Realm JWK set cached in memory and refreshed in the background.
+ * <p>
+ * Keys are fetched without blocking on construction and then every {@code refreshInterval}. A token signed
+ * with an unknown {@code kid} triggers an asynchronous refresh, at most once per {@code minRefreshInterval},
+ * while lookups keep being served from the last known key set. Only lookups before any key set was loaded
+ * wait for the fetch in flight (up to {@code coldStartTimeout}). When that fetch fails they fail at once, until
+ * the next refresh allowed by {@code minRefreshInterval} tries again.
+ */
+@Slf4j
+public class KeycloakJwkSource implements JWKSource<SecurityContext>, AutoCloseable {
+
+    private final KeycloakClient keycloakClient;
+    private final Duration minRefreshInterval;
+    private final Duration coldStartTimeout;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Disposable scheduledRefresh;
+
+    private volatile JWKSet jwkSet;
+    // the latest fetch while no key set is known, completed exceptionally when it failed
+    private volatile CompletableFuture<JWKSet> initialLoad = new CompletableFuture<>();
+    private volatile long lastRefreshNanos;
+
+    public KeycloakJwkSource(KeycloakClient keycloakClient, Duration refreshInterval, Duration minRefreshInterval, Duration coldStartTimeout) {
+        this.keycloakClient = keycloakClient;
+        this.minRefreshInterval = minRefreshInterval;
+        this.coldStartTimeout = coldStartTimeout;
+        this.lastRefreshNanos = System.nanoTime() - minRefreshInterval.toNanos();
+        this.scheduledRefresh = Schedulers.parallel().schedulePeriodically(
+                this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) throws KeySourceException {
+        JWKSet keys = jwkSet;
+        if (keys == null) {
+            keys = awaitInitialLoad();
+        }
+        List<JWK> matches = jwkSelector.select(keys);
+        if (matches.isEmpty()) {
+            log.debug("no matching jwk found, requesting jwk set refresh");
+            refreshIfAllowed();
+        }
+        return matches;
+    }
+
+    public boolean isLoaded() {
+        return jwkSet != null;
+    }
+
+    @Override
+    public void close() {
+        scheduledRefresh.dispose();
+    }
+
+    private JWKSet awaitInitialLoad() throws KeySourceException {
+        refreshIfAllowed();
+        try {
+            return initialLoad.get(coldStartTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeySourceException("interrupted while waiting for jwk set", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new KeySourceException("jwk set not available", e);
+        }
+    }
+
+    private void refreshIfAllowed() {
+        if (System.nanoTime() - lastRefreshNanos >= minRefreshInterval.toNanos()) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        lastRefreshNanos = System.nanoTime();
+        if (jwkSet == null && initialLoad.isCompletedExceptionally()) {
+            initialLoad = new CompletableFuture<>();
+        }
+        CompletableFuture<JWKSet> load = initialLoad;
+        keycloakClient.getWebClient().get()
+                .uri(keycloakClient.getJwksUri())
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToMono(String.class)
+                .flatMap(body -> Mono.fromCallable(() -> JWKSet.parse(body)))
+                .doFinally(signal -> refreshing.set(false))
+                .subscribe(keys -> {
+                    jwkSet = keys;
+                    load.complete(keys);
+                    log.debug("jwk set refreshed, keys={}", keys.getKeys().size());
+                }, error -> {
+                    if (jwkSet == null) {
+                        // callers waiting for a first key set fail now instead of at coldStartTimeout
+                        load.completeExceptionally(error);
+                        log.warn("unable to load jwk set: {}", error.getMessage());
+                    } else {
+                        log.warn("unable to refresh jwk set, serving last known keys: {}", error.getMessage());
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.paralelogram.keycloak.client;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-operation circuit breaker, bulkhead and timeout around keycloak calls, with budgeted retries and
+ * optional hedging for idempotent operations.
+ * <p>
+ * Every operation name gets its own circuit breaker and bulkhead so a slow admin endpoint cannot starve
+ * token requests. Only timeouts, connection errors and 5xx responses count as failures; 4xx responses
+ * such as invalid credentials are keycloak answering normally and never open the breaker. Rejected and
+ * timed out calls fail with {@link KeycloakUnavailableException}.
+ * <p>
+ * Each attempt, including retries and hedges, goes through the breaker and bulkhead and is bounded by the
+ * timeout. Retries and hedges are taken from a single {@link RetryBudget} shared by every operation. A hedged
+ * call fails only when both attempts fail, with the error of the first attempt.
+ */
+@Slf4j
+public class KeycloakResilience {
+
+    private static final Set<HttpStatus> RETRYABLE_STATUSES =
+            Set.of(HttpStatus.BAD_GATEWAY, HttpStatus.SERVICE_UNAVAILABLE, HttpStatus.GATEWAY_TIMEOUT);
+
+    private final Duration timeout;
+    private final Retry retry;
+    private final RetryBudget retryBudget;
+    private final boolean hedgingEnabled;
+    private final double hedgingPercentile;
+    private final Duration hedgingMinDelay;
+    private final ConcurrentMap<String, LatencyPercentile> latencies = new ConcurrentHashMap<>();
+
+    @Getter
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+
+    @Getter
+    private final BulkheadRegistry bulkheadRegistry;
+
+    public KeycloakResilience(KeycloakResilienceProperties properties) {
+        this.timeout = properties.getTimeout();
+        this.circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(properties.getFailureRateThreshold())
+                .slowCallRateThreshold(properties.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(properties.getSlowCallDurationThreshold())
+                .slidingWindowSize(properties.getSlidingWindowSize())
+                .minimumNumberOfCalls(properties.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(properties.getWaitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(properties.getPermittedNumberOfCallsInHalfOpenState())
+                .recordException(KeycloakResilience::isKeycloakFailure)
+                .build());
+        this.bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(properties.getMaxConcurrentCalls())
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+        this.retryBudget = new RetryBudget(properties.getRetryBudgetRatio(), properties.getRetryBudgetMinRetriesPerSecond());
+        this.retry = Retry.backoff(properties.getMaxRetries(), properties.getRetryInitialBackoff())
+                .maxBackoff(properties.getRetryMaxBackoff())
+                .jitter(properties.getRetryJitter())
+                .filter(this::isRetryAllowed)
+                .doBeforeRetry(signal -> log.debug("retrying keycloak call, attempt={} error={}",
+                        signal.totalRetries() + 1, signal.failure().getMessage()))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+        this.hedgingEnabled = properties.isHedgingEnabled();
+        this.hedgingPercentile = properties.getHedgingPercentile();
+        this.hedgingMinDelay = properties.getHedgingMinDelay();
+    }
+
+    /**
+     * Guards a non-idempotent operation, it is never retried.
+     */
+    public <T> Mono<T> decorate(String operation, Mono<T> call) {
+        return mapRejections(operation, attempt(operation, call));
+    }
+
+    /**
+     * Guards an idempotent operation, transient failures are retried with jittered backoff.
+     */
+    public <T> Mono<T> decorateIdempotent(String operation, Mono<T> call) {
+        return mapRejections(operation, withRetry(attempt(operation, call)));
+    }
+
+    /**
+     * Guards an idempotent operation that is retried and, when hedging is enabled, raced against a second
+     * attempt sent once the first one is slower than the configured latency percentile.
+     */
+    public <T> Mono<T> decorateHedged(String operation, Mono<T> call) {
+        Mono<T> attempt = attempt(operation, call);
+        return mapRejections(operation, withRetry(hedgingEnabled ? hedge(operation, attempt) : attempt));
+    }
+
+    private <T> Mono<T> attempt(String operation, Mono<T> call) {
+        return call
+                .timeout(timeout)
+                .transformDeferred(BulkheadOperator.of(bulkheadRegistry.bulkhead(operation)))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreakerRegistry.circuitBreaker(operation)));
+    }
+
+    private <T> Mono<T> withRetry(Mono<T> call) {
+        return Mono.defer(() -> {
+            retryBudget.recordRequest();
+            return call.retryWhen(retry);
+        });
+    }
+
+    private <T> Mono<T> hedge(String operation, Mono<T> attempt) {
+        LatencyPercentile latency = latencies.computeIfAbsent(operation, key -> new LatencyPercentile(hedgingPercentile));
+        Mono<T> timedAttempt = Mono.defer(() -> {
+            long start = System.nanoTime();
+            return attempt.doOnSuccess(result -> latency.record(System.nanoTime() - start));
+        });
+        return Mono.defer(() -> latency.get()
+                .map(percentile -> {
+                    Duration delay = percentile.compareTo(hedgingMinDelay) > 0 ? percentile : hedgingMinDelay;
+                    AtomicReference<Throwable> primaryError = new AtomicReference<>();
+                    Sinks.One<Boolean> primaryFailed = Sinks.one();
+                    Mono<T> primaryAttempt = timedAttempt.doOnError(error -> {
+                        primaryError.set(error);
+                        primaryFailed.tryEmitValue(Boolean.TRUE);
+                    });
+                    // no hedge is sent once the primary attempt failed, the retry takes over from there
+                    Mono<T> hedgedAttempt = Mono.delay(delay)
+                            .takeUntilOther(primaryFailed.asMono())
+                            .flatMap(tick -> {
+                                if (!retryBudget.tryAcquire()) {
+                                    log.debug("retry budget exhausted, not hedging keycloak {}", operation);
+                                    return Mono.empty();
+                                }
+                                log.debug("keycloak {} slower than {}, sending hedged request", operation, delay);
+                                return timedAttempt;
+                            });
+                    // a fast failure of either attempt, such as a rejected hedge, must not cancel the other one
+                    return Mono.firstWithValue(primaryAttempt, hedgedAttempt)
+                            .onErrorMap(error -> primaryError.get() != null ? primaryError.get() : error);
+                })
+                // not enough samples yet to know what slow means
+                .orElse(timedAttempt));
+    }
+
+    private <T> Mono<T> mapRejections(String operation, Mono<T> call) {
+        return call
+                .onErrorMap(CallNotPermittedException.class, error -> {
+                    log.warn("keycloak {} rejected, circuit breaker is open", operation);
+                    return new KeycloakUnavailableException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "keycloak " + operation + " unavailable, circuit breaker is open", error);
+                })
+                .onErrorMap(BulkheadFullException.class, error -> {
+                    log.warn("keycloak {} rejected, max concurrent calls reached", operation);
+                    return new KeycloakUnavailableException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "keycloak " + operation + " unavailable, too many concurrent calls", error);
+                })
+                .onErrorMap(TimeoutException.class, error -> {
+                    log.warn("keycloak {} timed out after {}", operation, timeout);
+                    return new KeycloakUnavailableException(HttpStatus.GATEWAY_TIMEOUT,
+                            "keycloak " + operation + " timed out", error);
+                });
+    }
+
+    private boolean isRetryAllowed(Throwable error) {
+        if (!isTransient(error)) {
+            return false;
+        }
+        if (!retryBudget.tryAcquire()) {
+            log.warn("retry budget exhausted, not retrying keycloak call: {}", error.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isTransient(Throwable error) {
+        if (error instanceof WebClientResponseException responseError) {
+            return RETRYABLE_STATUSES.contains(HttpStatus.resolve(responseError.getStatusCode().value()));
+        }
+        return error instanceof WebClientRequestException;
+    }
+
+    private static boolean isKeycloakFailure(Throwable error) {
+        if (error instanceof WebClientResponseException responseError) {
+            return responseError.getStatusCode().is5xxServerError();
+        }
+        return error instanceof TimeoutException || error instanceof WebClientRequestException;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.paralelogram.keycloak.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeycloakResilienceProperties {
+
+    // upper bound for a whole operation, including pool acquisition, connect and response
+    @Builder.Default
+    private Duration timeout = Duration.ofSeconds(5);
+
+    // circuit breaker, one instance per operation
+    @Builder.Default
+    private float failureRateThreshold = 50;
+    @Builder.Default
+    private float slowCallRateThreshold = 80;
+    @Builder.Default
+    private Duration slowCallDurationThreshold = Duration.ofSeconds(3);
+    @Builder.Default
+    private int slidingWindowSize = 20;
+    @Builder.Default
+    private int minimumNumberOfCalls = 10;
+    @Builder.Default
+    private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+    @Builder.Default
+    private int permittedNumberOfCallsInHalfOpenState = 3;
+
+    // bulkhead, one instance per operation
+    @Builder.Default
+    private int maxConcurrentCalls = 50;
+
+    // retries of idempotent operations, bounded by a retry budget shared by every operation
+    @Builder.Default
+    private int maxRetries = 2;
+    @Builder.Default
+    private Duration retryInitialBackoff = Duration.ofMillis(50);
+    @Builder.Default
+    private Duration retryMaxBackoff = Duration.ofMillis(500);
+    @Builder.Default
+    private double retryJitter = 0.5;
+    @Builder.Default
+    private double retryBudgetRatio = 0.1;
+    @Builder.Default
+    private int retryBudgetMinRetriesPerSecond = 10;
+
+    // hedged requests, a second attempt is sent when the first is slower than the observed percentile
+    @Builder.Default
+    private boolean hedgingEnabled = false;
+    @Builder.Default
+    private double hedgingPercentile = 0.95;
+    @Builder.Default
+    private Duration hedgingMinDelay = Duration.ofMillis(50);
+
+}
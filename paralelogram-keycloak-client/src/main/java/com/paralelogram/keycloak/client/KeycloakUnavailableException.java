@@ -0,0 +1,20 @@
+package com.paralelogram.keycloak.client;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Raised instead of calling keycloak when an operation is rejected by its circuit breaker or bulkhead,
+ * or when it does not complete within the configured timeout.
+ */
+@Getter
+public class KeycloakUnavailableException extends RuntimeException {
+
+    private final HttpStatus status;
+
+    public KeycloakUnavailableException(HttpStatus status, String message, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+    }
+
+}
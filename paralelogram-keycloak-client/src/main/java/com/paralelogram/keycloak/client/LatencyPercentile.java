@@ -0,0 +1,46 @@
+package com.paralelogram.keycloak.client;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Percentile over the most recent successful call latencies of one operation.
+ */
+class LatencyPercentile {
+
+    private static final int WINDOW_SIZE = 128;
+    private static final int MIN_SAMPLES = 20;
+
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW_SIZE);
+    private final AtomicLong count = new AtomicLong();
+    private final double percentile;
+
+    LatencyPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    void record(long nanos) {
+        samples.set((int) (count.getAndIncrement() % WINDOW_SIZE), nanos);
+    }
+
+    /**
+     * Empty until enough samples were recorded to make the percentile meaningful.
+     */
+    Optional<Duration> get() {
+        int size = (int) Math.min(count.get(), WINDOW_SIZE);
+        if (size < MIN_SAMPLES) {
+            return Optional.empty();
+        }
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.min(size - 1, Math.ceil(percentile * size) - 1);
+        return Optional.of(Duration.ofNanos(sorted[Math.max(0, index)]));
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.paralelogram.keycloak.client;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits retries to a fraction of the original requests so retries cannot multiply load on a failing keycloak.
+ * <p>
+ * Every request deposits {@code ratio} of a retry and every retry or hedge withdraws a whole one. A small
+ * reserve refilled at {@code minRetriesPerSecond} keeps retries possible when traffic is low.
+ */
+public class RetryBudget {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final double ratio;
+    private final double maxBalance;
+    private final int minRetriesPerSecond;
+
+    private double balance;
+    private double reserve;
+    private long lastRefillNanos;
+
+    public RetryBudget(double ratio, int minRetriesPerSecond) {
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        // a long healthy period can save up at most ten seconds worth of reserve rate retries
+        this.maxBalance = Math.max(1, minRetriesPerSecond) * 10;
+        this.reserve = minRetriesPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public void recordRequest() {
+        lock.lock();
+        try {
+            balance = Math.min(maxBalance, balance + ratio);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            refillReserve();
+            if (balance >= 1) {
+                balance -= 1;
+                return true;
+            }
+            if (reserve >= 1) {
+                reserve -= 1;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refillReserve() {
+        long now = System.nanoTime();
+        double refill = (double) (now - lastRefillNanos) * minRetriesPerSecond / NANOS_PER_SECOND;
+        reserve = Math.min(minRetriesPerSecond, reserve + refill);
+        lastRefillNanos = now;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.paralelogram.keycloak.client;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+
+public class KeycloakClientMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private KeycloakClientMetrics keycloakClientMetrics;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        keycloakClientMetrics = new KeycloakClientMetrics(meterRegistry, List.of(Duration.ofMillis(100), Duration.ofSeconds(1)));
+    }
+
+    @Test
+    public void givenSuccessfulCall_whenRecord_thenTimeWithSuccessOutcome() {
+        keycloakClientMetrics.record("getToken", Mono.just("token")).block();
+
+        Timer timer = meterRegistry.get(KeycloakClientMetrics.REQUESTS)
+                .tags("operation", "getToken", "outcome", "success").timer();
+        Assertions.assertEquals(1, timer.count());
+    }
+
+    @Test
+    public void givenFailedCalls_whenRecord_thenTagOutcomeByError() {
+        Mono<String> clientError = Mono.error(WebClientResponseException.create(401, "Unauthorized", HttpHeaders.EMPTY, null, null));
+        Mono<String> timeout = Mono.error(new KeycloakUnavailableException(HttpStatus.GATEWAY_TIMEOUT, "timed out", null));
+        Mono<String> rejected = Mono.error(new KeycloakUnavailableException(HttpStatus.SERVICE_UNAVAILABLE, "circuit breaker is open", null));
+
+        Assertions.assertThrows(WebClientResponseException.class, () -> keycloakClientMetrics.record("getToken", clientError).block());
+        Assertions.assertThrows(KeycloakUnavailableException.class, () -> keycloakClientMetrics.record("getToken", timeout).block());
+        Assertions.assertThrows(KeycloakUnavailableException.class, () -> keycloakClientMetrics.record("getToken", rejected).block());
+
+        for (String outcome : List.of("client_error", "timeout", "rejected")) {
+            Assertions.assertEquals(1, meterRegistry.get(KeycloakClientMetrics.REQUESTS)
+                    .tags("operation", "getToken", "outcome", outcome).timer().count());
+        }
+    }
+
+    @Test
+    public void givenCallInFlight_whenRecord_thenGaugeActiveCalls() {
+        Sinks.One<String> response = Sinks.one();
+        keycloakClientMetrics.record("getToken", response.asMono()).subscribe();
+
+        Assertions.assertEquals(1, meterRegistry.get(KeycloakClientMetrics.REQUESTS_ACTIVE).tag("operation", "getToken").gauge().value());
+
+        response.tryEmitValue("token");
+
+        Assertions.assertEquals(0, meterRegistry.get(KeycloakClientMetrics.REQUESTS_ACTIVE).tag("operation", "getToken").gauge().value());
+    }
+
+}
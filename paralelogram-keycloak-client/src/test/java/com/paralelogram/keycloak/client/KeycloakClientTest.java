@@ -0,0 +1,84 @@
+package com.paralelogram.keycloak.client;
+
+import io.netty.handler.timeout.ReadTimeoutException;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class KeycloakClientTest {
+
+    private KeycloakClient keycloakClient;
+
+    private MockWebServer mockBackEnd;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        mockBackEnd = new MockWebServer();
+        mockBackEnd.start();
+
+        keycloakClient = KeycloakClient.create(KeycloakClientProperties.builder()
+                .baseUrl(String.format("http://localhost:%s", mockBackEnd.getPort()))
+                .realm("paralelogram")
+                .responseTimeout(Duration.ofMillis(500))
+                .build());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        keycloakClient.close();
+        mockBackEnd.shutdown();
+    }
+
+    @Test
+    public void givenRealm_whenGetUris_thenReturnRealmRelativeUris() {
+        Assertions.assertEquals("paralelogram", keycloakClient.getRealm());
+        Assertions.assertEquals("/realms/paralelogram/protocol/openid-connect/token", keycloakClient.getTokenUri());
+        Assertions.assertEquals("/realms/paralelogram/protocol/openid-connect/userinfo", keycloakClient.getUserInfoUri());
+        Assertions.assertEquals("/admin/realms/paralelogram/users", keycloakClient.getAdminUsersUri());
+        Assertions.assertEquals("/admin/realms/paralelogram/roles", keycloakClient.getAdminRolesUri());
+    }
+
+    @Test
+    public void givenSequentialRequests_whenExchange_thenReuseConnection() throws Exception {
+        mockBackEnd.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody("{}"));
+        mockBackEnd.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).setBody("{}"));
+
+        keycloakClient.getWebClient().get().uri(keycloakClient.getUserInfoUri()).retrieve().toBodilessEntity().block();
+        // the connection is released back to the pool asynchronously
+        Thread.sleep(200);
+        keycloakClient.getWebClient().get().uri(keycloakClient.getUserInfoUri()).retrieve().toBodilessEntity().block();
+
+        RecordedRequest first = mockBackEnd.takeRequest();
+        RecordedRequest second = mockBackEnd.takeRequest();
+
+        Assertions.assertEquals("/realms/paralelogram/protocol/openid-connect/userinfo", first.getPath());
+        Assertions.assertEquals(0, first.getSequenceNumber());
+        Assertions.assertEquals(1, second.getSequenceNumber());
+    }
+
+    @Test
+    public void givenSlowResponse_whenExchange_thenFailWithinResponseTimeout() {
+        mockBackEnd.enqueue(new MockResponse().setHeadersDelay(2, TimeUnit.SECONDS).setBody("{}"));
+
+        long start = System.nanoTime();
+        WebClientRequestException exception = Assertions.assertThrows(WebClientRequestException.class, () ->
+                keycloakClient.getWebClient().get().uri(keycloakClient.getUserInfoUri()).retrieve().toBodilessEntity().block());
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        Assertions.assertInstanceOf(ReadTimeoutException.class, exception.getCause());
+        Assertions.assertTrue(elapsed.compareTo(Duration.ofMillis(500)) >= 0, "failed after " + elapsed);
+        Assertions.assertTrue(elapsed.compareTo(Duration.ofMillis(1500)) < 0, "failed after " + elapsed);
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.paralelogram.keycloak.client;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class KeycloakJwkSourceTest {
+
+    private static final String JWKS_PATH = "/realms/paralelogram/protocol/openid-connect/certs";
+
+    private MockWebServer mockBackEnd;
+    private KeycloakClient keycloakClient;
+    private KeycloakJwkSource jwkSource;
+    private String issuer;
+
+    private final AtomicInteger jwksRequests = new AtomicInteger();
+    private final AtomicReference<JWKSet> publishedKeys = new AtomicReference<>();
+    private final AtomicInteger responseCode = new AtomicInteger(200);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        mockBackEnd = new MockWebServer();
+        mockBackEnd.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (JWKS_PATH.equals(request.getPath())) {
+                    jwksRequests.incrementAndGet();
+                    if (responseCode.get() != 200 || publishedKeys.get() == null) {
+                        return new MockResponse().setResponseCode(503);
+                    }
+                    return new MockResponse()
+                            .setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .setBody(publishedKeys.get().toString());
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        mockBackEnd.start();
+
+        String baseUrl = String.format("http://localhost:%s", mockBackEnd.getPort());
+        issuer = baseUrl + "/realms/paralelogram";
+        keycloakClient = KeycloakClient.create(KeycloakClientProperties.builder().baseUrl(baseUrl).realm("paralelogram").build());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (jwkSource != null) {
+            jwkSource.close();
+        }
+        keycloakClient.close();
+        mockBackEnd.shutdown();
+    }
+
+    @Test
+    public void givenPublishedKeys_whenDecode_thenReturnJwt() throws Exception {
+        RSAKey key = generateKey("key-1");
+        publishedKeys.set(new JWKSet(key.toPublicJWK()));
+        JwtDecoder decoder = createDecoder(Duration.ofMinutes(1));
+
+        Jwt jwt = decoder.decode(sign(key, "user"));
+
+        Assertions.assertEquals("user", jwt.getSubject());
+        Assertions.assertEquals(1, jwksRequests.get());
+    }
+
+    @Test
+    public void givenLoadedKeys_whenDecodeRepeatedly_thenServeFromCache() throws Exception {
+        RSAKey key = generateKey("key-1");
+        publishedKeys.set(new JWKSet(key.toPublicJWK()));
+        JwtDecoder decoder = createDecoder(Duration.ofMinutes(1));
+
+        for (int i = 0; i < 5; i++) {
+            decoder.decode(sign(key, "user"));
+        }
+
+        Assertions.assertEquals(1, jwksRequests.get());
+    }
+
+    @Test
+    public void givenUnknownKid_whenDecode_thenRefreshRateLimitedAndPickUpRotatedKey() throws Exception {
+        RSAKey oldKey = generateKey("key-1");
+        RSAKey newKey = generateKey("key-2");
+        publishedKeys.set(new JWKSet(oldKey.toPublicJWK()));
+        JwtDecoder decoder = createDecoder(Duration.ZERO);
+        decoder.decode(sign(oldKey, "user"));
+
+        publishedKeys.set(new JWKSet(List.of(oldKey.toPublicJWK(), newKey.toPublicJWK())));
+        Assertions.assertThrows(JwtException.class, () -> decoder.decode(sign(newKey, "user")));
+
+        awaitCondition(() -> jwkSource.get(new JWKSelector(new JWKMatcher.Builder().keyID("key-2").build()), null).size() == 1);
+        Assertions.assertEquals("user", decoder.decode(sign(newKey, "user")).getSubject());
+    }
+
+    @Test
+    public void givenUnknownKidWithinMinRefreshInterval_whenDecode_thenDoNotRefreshAgain() throws Exception {
+        RSAKey key = generateKey("key-1");
+        RSAKey unknownKey = generateKey("key-unknown");
+        publishedKeys.set(new JWKSet(key.toPublicJWK()));
+        JwtDecoder decoder = createDecoder(Duration.ofHours(1));
+        decoder.decode(sign(key, "user"));
+
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertThrows(JwtException.class, () -> decoder.decode(sign(unknownKey, "user")));
+        }
+
+        Assertions.assertEquals(1, jwksRequests.get());
+    }
+
+    @Test
+    public void givenKeycloakUnavailableAfterLoad_whenDecode_thenServeLastKnownKeys() throws Exception {
+        RSAKey key = generateKey("key-1");
+        RSAKey unknownKey = generateKey("key-unknown");
+        publishedKeys.set(new JWKSet(key.toPublicJWK()));
+        JwtDecoder decoder = createDecoder(Duration.ZERO);
+        decoder.decode(sign(key, "user"));
+
+        responseCode.set(503);
+        Assertions.assertThrows(JwtException.class, () -> decoder.decode(sign(unknownKey, "user")));
+        awaitCondition(() -> jwksRequests.get() >= 2);
+
+        Assertions.assertEquals("user", decoder.decode(sign(key, "user")).getSubject());
+    }
+
+    @Test
+    public void givenKeycloakUnavailableOnColdStart_whenDecode_thenThrowJwtException() throws Exception {
+        RSAKey key = generateKey("key-1");
+        JwtDecoder decoder = createDecoder(Duration.ZERO);
+
+        Assertions.assertThrows(JwtException.class, () -> decoder.decode(sign(key, "user")));
+        Assertions.assertFalse(jwkSource.isLoaded());
+    }
+
+    @Test
+    public void givenUnreachableJwksEndpointOnColdStart_whenDecode_thenFailFastUntilNextRefresh() throws Exception {
+        RSAKey key = generateKey("key-1");
+        MockWebServer stopped = new MockWebServer();
+        stopped.start();
+        String baseUrl = String.format("http://localhost:%s", stopped.getPort());
+        stopped.shutdown();
+        try (KeycloakClient unreachable = KeycloakClient.create(KeycloakClientProperties.builder().baseUrl(baseUrl).realm("paralelogram").build())) {
+            jwkSource = new KeycloakJwkSource(unreachable, Duration.ofHours(1), Duration.ofHours(1), Duration.ofSeconds(10));
+            JwtDecoder decoder = KeycloakJwtDecoders.fromJwkSource(jwkSource, baseUrl + "/realms/paralelogram");
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertThrows(JwtException.class, () -> decoder.decode(sign(key, "user")));
+            }
+
+            Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(5)) < 0);
+            Assertions.assertFalse(jwkSource.isLoaded());
+        }
+    }
+
+    @Test
+    public void givenFailedColdStartFetch_whenDecodeAfterKeycloakRecovered_thenLoadKeys() throws Exception {
+        RSAKey key = generateKey("key-1");
+        JwtDecoder decoder = createDecoder(Duration.ZERO);
+        Assertions.assertThrows(JwtException.class, () -> decoder.decode(sign(key, "user")));
+
+        publishedKeys.set(new JWKSet(key.toPublicJWK()));
+
+        // the failed fetch may still be finishing, a decode meanwhile fails fast without starting another one
+        awaitCondition(() -> {
+            try {
+                return "user".equals(decoder.decode(sign(key, "user")).getSubject());
+            } catch (JwtException e) {
+                return false;
+            }
+        });
+        Assertions.assertTrue(jwkSource.isLoaded());
+    }
+
+    private JwtDecoder createDecoder(Duration minRefreshInterval) {
+        jwkSource = new KeycloakJwkSource(keycloakClient, Duration.ofHours(1), minRefreshInterval, Duration.ofSeconds(1));
+        return KeycloakJwtDecoders.fromJwkSource(jwkSource, issuer);
+    }
+
+    private RSAKey generateKey(String kid) throws JOSEException {
+        return new RSAKeyGenerator(2048).keyID(kid).generate();
+    }
+
+    private String sign(RSAKey key, String subject) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .issuer(issuer)
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+
+    private void awaitCondition(CheckedCondition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.test() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(condition.test());
+    }
+
+    private interface CheckedCondition {
+        boolean test() throws Exception;
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.paralelogram.keycloak.client;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class KeycloakResilienceTest {
+
+    private KeycloakClient keycloakClient;
+    private KeycloakResilience keycloakResilience;
+
+    private MockWebServer mockBackEnd;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        mockBackEnd = new MockWebServer();
+        mockBackEnd.start();
+
+        keycloakClient = KeycloakClient.create(KeycloakClientProperties.builder()
+                .baseUrl(String.format("http://localhost:%s", mockBackEnd.getPort()))
+                .realm("paralelogram")
+                .build());
+        keycloakResilience = new KeycloakResilience(KeycloakResilienceProperties.builder()
+                .timeout(Duration.ofMillis(500))
+                .slidingWindowSize(2)
+                .minimumNumberOfCalls(2)
+                .maxConcurrentCalls(1)
+                .build());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        keycloakClient.close();
+        mockBackEnd.shutdown();
+    }
+
+    @Test
+    public void givenServerErrors_whenDecorate_thenOpenCircuitAndFailFast() {
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(503));
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(503));
+
+        Assertions.assertThrows(WebClientResponseException.class, () -> callKeycloak("getToken").block());
+        Assertions.assertThrows(WebClientResponseException.class, () -> callKeycloak("getToken").block());
+        KeycloakUnavailableException exception = Assertions.assertThrows(KeycloakUnavailableException.class,
+                () -> callKeycloak("getToken").block());
+
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        Assertions.assertEquals(CircuitBreaker.State.OPEN,
+                keycloakResilience.getCircuitBreakerRegistry().circuitBreaker("getToken").getState());
+        Assertions.assertEquals(2, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenOpenCircuit_whenDecorateOtherOperation_thenCallKeycloak() {
+        keycloakResilience.getCircuitBreakerRegistry().circuitBreaker("getToken").transitionToOpenState();
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+
+        callKeycloak("createUser").block();
+
+        Assertions.assertEquals(1, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenClientErrors_whenDecorate_thenKeepCircuitClosed() {
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(401));
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(401));
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(401));
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertThrows(WebClientResponseException.class, () -> callKeycloak("getToken").block());
+        }
+
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED,
+                keycloakResilience.getCircuitBreakerRegistry().circuitBreaker("getToken").getState());
+        Assertions.assertEquals(3, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenSlowResponse_whenDecorate_thenThrowGatewayTimeout() {
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204).setHeadersDelay(2, TimeUnit.SECONDS));
+
+        KeycloakUnavailableException exception = Assertions.assertThrows(KeycloakUnavailableException.class,
+                () -> callKeycloak("getToken").block());
+
+        Assertions.assertEquals(HttpStatus.GATEWAY_TIMEOUT, exception.getStatus());
+    }
+
+    @Test
+    public void givenMaxConcurrentCallsInFlight_whenDecorate_thenRejectWithServiceUnavailable() {
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204).setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        Disposable inFlight = callKeycloak("getToken").subscribe(response -> {
+        }, error -> {
+        });
+
+        KeycloakUnavailableException exception = Assertions.assertThrows(KeycloakUnavailableException.class,
+                () -> callKeycloak("getToken").block());
+
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        inFlight.dispose();
+    }
+
+    @Test
+    public void givenTransientServerError_whenDecorateIdempotent_thenRetry() {
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(503));
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+
+        keycloakResilience.decorateIdempotent("getToken", getUserInfo()).block();
+
+        Assertions.assertEquals(2, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenClientError_whenDecorateIdempotent_thenDoNotRetry() {
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(401));
+
+        Assertions.assertThrows(WebClientResponseException.class,
+                () -> keycloakResilience.decorateIdempotent("getToken", getUserInfo()).block());
+
+        Assertions.assertEquals(1, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenExhaustedRetryBudget_whenDecorateIdempotent_thenDoNotRetry() {
+        keycloakResilience = new KeycloakResilience(KeycloakResilienceProperties.builder()
+                .retryBudgetRatio(0)
+                .retryBudgetMinRetriesPerSecond(0)
+                .build());
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(503));
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+
+        Assertions.assertThrows(WebClientResponseException.class,
+                () -> keycloakResilience.decorateIdempotent("getToken", getUserInfo()).block());
+
+        Assertions.assertEquals(1, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenSlowFirstAttempt_whenDecorateHedged_thenReturnHedgedResponse() {
+        keycloakResilience = new KeycloakResilience(KeycloakResilienceProperties.builder()
+                .hedgingEnabled(true)
+                .hedgingMinDelay(Duration.ofMillis(50))
+                .build());
+        for (int i = 0; i < 20; i++) {
+            mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+            keycloakResilience.decorateHedged("getToken", getUserInfo()).block();
+        }
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204).setHeadersDelay(3, TimeUnit.SECONDS));
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+
+        long start = System.nanoTime();
+        keycloakResilience.decorateHedged("getToken", getUserInfo()).block();
+
+        Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(1)) < 0);
+        Assertions.assertEquals(22, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenRejectedHedge_whenDecorateHedged_thenReturnSlowFirstAttemptResponse() {
+        keycloakResilience = new KeycloakResilience(KeycloakResilienceProperties.builder()
+                .maxConcurrentCalls(1)
+                .hedgingEnabled(true)
+                .hedgingMinDelay(Duration.ofMillis(50))
+                .build());
+        for (int i = 0; i < 20; i++) {
+            mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+            keycloakResilience.decorateHedged("getToken", getUserInfo()).block();
+        }
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(204).setHeadersDelay(300, TimeUnit.MILLISECONDS));
+
+        Assertions.assertDoesNotThrow(() -> keycloakResilience.decorateHedged("getToken", getUserInfo()).block());
+        Assertions.assertEquals(21, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenFirstAttemptFailsFast_whenDecorateHedged_thenThrowItsErrorWithoutHedging() {
+        keycloakResilience = new KeycloakResilience(KeycloakResilienceProperties.builder()
+                .hedgingEnabled(true)
+                .hedgingMinDelay(Duration.ofMillis(200))
+                .build());
+        for (int i = 0; i < 20; i++) {
+            mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+            keycloakResilience.decorateHedged("getToken", getUserInfo()).block();
+        }
+        mockBackEnd.enqueue(new MockResponse().setResponseCode(401));
+
+        WebClientResponseException exception = Assertions.assertThrows(WebClientResponseException.class,
+                () -> keycloakResilience.decorateHedged("getToken", getUserInfo()).block());
+
+        Assertions.assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatusCode());
+        Assertions.assertEquals(21, mockBackEnd.getRequestCount());
+    }
+
+    @Test
+    public void givenHedgingDisabled_whenDecorateHedged_thenSendSingleRequest() {
+        for (int i = 0; i < 21; i++) {
+            mockBackEnd.enqueue(new MockResponse().setResponseCode(204));
+            keycloakResilience.decorateHedged("getToken", getUserInfo()).block();
+        }
+
+        Assertions.assertEquals(21, mockBackEnd.getRequestCount());
+    }
+
+    private Mono<?> callKeycloak(String operation) {
+        return keycloakResilience.decorate(operation, getUserInfo());
+    }
+
+    private Mono<?> getUserInfo() {
+        return keycloakClient.getWebClient().get()
+                .uri(keycloakClient.getUserInfoUri())
+                .retrieve()
+                .toBodilessEntity();
+    }
+
+}
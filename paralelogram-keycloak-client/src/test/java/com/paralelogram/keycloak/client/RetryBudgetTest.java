@@ -0,0 +1,30 @@
+package com.paralelogram.keycloak.client;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void givenNoReserve_whenRequestsRecorded_thenAllowRetriesByRatio() {
+        RetryBudget retryBudget = new RetryBudget(0.1, 0);
+
+        for (int i = 0; i < 20; i++) {
+            retryBudget.recordRequest();
+        }
+
+        Assertions.assertTrue(retryBudget.tryAcquire());
+        Assertions.assertTrue(retryBudget.tryAcquire());
+        Assertions.assertFalse(retryBudget.tryAcquire());
+    }
+
+    @Test
+    public void givenReserve_whenNoRequestsRecorded_thenAllowReserveRetriesOnly() {
+        RetryBudget retryBudget = new RetryBudget(0.1, 2);
+
+        Assertions.assertTrue(retryBudget.tryAcquire());
+        Assertions.assertTrue(retryBudget.tryAcquire());
+        Assertions.assertFalse(retryBudget.tryAcquire());
+    }
+
+}